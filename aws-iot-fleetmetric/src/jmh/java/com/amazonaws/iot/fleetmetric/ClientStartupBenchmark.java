@@ -0,0 +1,46 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.iot.IotClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a cold container pays to set up the five handlers.
+ *
+ * Every measurement runs in a fresh JVM, so the single shot includes class loading and SDK
+ * initialization. Run with `-prof gc` and compare gc.alloc.rate.norm for the heap allocated per setup.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 20, jvmArgsAppend = "-Daws.region=us-east-1")
+public class ClientStartupBenchmark {
+
+    private static final int HANDLER_COUNT = 5;
+
+    // The previous behavior: every handler built its own client in its no-arg constructor.
+    @Benchmark
+    public void clientPerHandler(Blackhole blackhole) {
+        for (int i = 0; i < HANDLER_COUNT; i++) {
+            blackhole.consume(IotClient.builder().build());
+        }
+    }
+
+    @Benchmark
+    public void sharedClient(Blackhole blackhole) {
+        blackhole.consume(new CreateHandler());
+        blackhole.consume(new ReadHandler());
+        blackhole.consume(new UpdateHandler());
+        blackhole.consume(new DeleteHandler());
+        blackhole.consume(new ListHandler());
+    }
+}
@@ -0,0 +1,433 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.awscore.AwsResponse;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Credentials;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.LoggerProxy;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Drives thousands of Create, Read, Update, Delete and List operations concurrently through the real handlers,
+ * against a {@link FakeIotClient}, the way a large stack deployment fans out. Unlike the JMH benchmarks, it
+ * measures whole operations: an operation that returns IN_PROGRESS is called back, as CloudFormation would,
+ * until it succeeds or fails, and a List operation follows nextToken to the last page.
+ *
+ * Reports, per operation type, the throughput, the p50, p95 and p99 latency, the callbacks (retries) and the IoT
+ * calls per operation, as JSON on stdout and in the output file, so that releases can be compared.
+ *
+ * Run with `mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.amazonaws.iot.fleetmetric.LoadTestDriver`,
+ * passing options as key=value pairs through -Dbenchmark.args, e.g. -Dbenchmark.args="operations=20000 concurrency=200".
+ * The handlers read their switches from the FLEET_METRIC_* environment variables, as in Lambda.
+ */
+public class LoadTestDriver {
+
+    static final Map<String, String> DEFAULT_OPTIONS;
+
+    static {
+        Map<String, String> defaults = new LinkedHashMap<>();
+        defaults.put("operations", "5000");
+        defaults.put("concurrency", "64");
+        // Relative weights of the operation types.
+        defaults.put("mix", "create=10,read=50,update=20,delete=10,list=10");
+        // Metrics that exist before the run, so that Read, Update and Delete have something to work on.
+        defaults.put("existingMetrics", "500");
+        // Log-normal latency of every IoT call.
+        defaults.put("latencyMedianMillis", "20");
+        defaults.put("latencySigma", "0.5");
+        // TPS quota of every IoT API; 0 for none.
+        defaults.put("tpsQuota", "0");
+        // Probability of an InternalFailureException on any IoT call.
+        defaults.put("faultRate", "0");
+        // How long a callback delay of one second lasts in the run, so that retries don't take real seconds.
+        defaults.put("callbackMillisPerSecond", "10");
+        defaults.put("seed", "1");
+        defaults.put("output", "target/load-test-result.json");
+        DEFAULT_OPTIONS = Collections.unmodifiableMap(defaults);
+    }
+
+    private static final List<String> APIS = Arrays.asList("CreateFleetMetric", "DescribeFleetMetric",
+            "UpdateFleetMetric", "DeleteFleetMetric", "ListFleetMetrics", "ListTagsForResource", "TagResource",
+            "UntagResource");
+
+    private static final Logger NO_LOGGER = message -> { };
+
+    private final Map<String, String> options;
+    private final FakeIotClient iotClient = new FakeIotClient();
+    private final Map<Action, BaseHandlerStd> handlers = new LinkedHashMap<>();
+    private final Map<Action, OperationStats> statsByAction = new LinkedHashMap<>();
+
+    // The metrics Read, Update and Delete pick from. Delete takes its metric out first, so that no other
+    // operation picks it while it's being deleted.
+    private final List<String> metricNames = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger nextMetricId = new AtomicInteger();
+
+    LoadTestDriver(Map<String, String> options) {
+        this.options = options;
+
+        HandlerConfig config = HandlerConfig.fromEnvironment();
+        // FakeIotClient has no async counterpart, so every handler runs its synchronous pipeline.
+        config.setAsyncActions(EnumSet.noneOf(Action.class));
+        handlers.put(Action.CREATE, new CreateHandler(iotClient, config));
+        handlers.put(Action.READ, new ReadHandler(iotClient, config));
+        handlers.put(Action.UPDATE, new UpdateHandler(iotClient, config));
+        handlers.put(Action.DELETE, new DeleteHandler(iotClient, config));
+        handlers.put(Action.LIST, new ListHandler(iotClient, config));
+        for (Action action : handlers.keySet()) {
+            statsByAction.put(action, new OperationStats());
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULT_OPTIONS);
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length != 2 || !options.containsKey(keyValue[0])) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(keyValue[0], keyValue[1]);
+        }
+
+        String result = new LoadTestDriver(options).run();
+
+        System.out.println(result);
+        Path output = Paths.get(options.get("output"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.write(output, result.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the results as JSON.
+     */
+    String run() throws InterruptedException {
+        // Before the latency, quota and faults, so that setting up doesn't count.
+        populate((int) getLong("existingMetrics"));
+        configureIotClient();
+
+        Action[] schedule = getSchedule((int) getLong("operations"), new Random(getLong("seed")));
+        ExecutorService executor = Executors.newFixedThreadPool((int) getLong("concurrency"));
+        long start = System.nanoTime();
+        for (Action action : schedule) {
+            executor.execute(() -> runOperation(action));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+            throw new IllegalStateException("The load test didn't finish within an hour.");
+        }
+        return toJson(System.nanoTime() - start);
+    }
+
+    private void populate(int count) {
+        for (int i = 0; i < count; i++) {
+            String metricName = newMetricName();
+            iotClient.createFleetMetric(CreateFleetMetricRequest.builder()
+                    .metricName(metricName)
+                    .queryString("*")
+                    .build());
+            metricNames.add(metricName);
+        }
+    }
+
+    /**
+     * Gives every IoT call of the run the configured latency, quota and faults.
+     */
+    private void configureIotClient() {
+        Random random = new Random(getLong("seed"));
+        iotClient.setDefaultLatency(FakeIotClient.Latency.logNormal(
+                getLong("latencyMedianMillis"), Double.parseDouble(options.get("latencySigma")), random));
+        double tpsQuota = Double.parseDouble(options.get("tpsQuota"));
+        double faultRate = Double.parseDouble(options.get("faultRate"));
+        for (String api : APIS) {
+            if (tpsQuota > 0) {
+                iotClient.setTpsQuota(api, tpsQuota);
+            }
+            if (faultRate > 0) {
+                iotClient.addFault(api, FakeIotClient.Fault.rate(faultRate,
+                        () -> InternalFailureException.builder().build(), random));
+            }
+        }
+    }
+
+    /**
+     * The operation types in a random order, each as often as its weight in the mix says.
+     */
+    private Action[] getSchedule(int operations, Random random) {
+        Map<Action, Integer> weights = new LinkedHashMap<>();
+        int totalWeight = 0;
+        for (String entry : options.get("mix").split(",")) {
+            String[] typeAndWeight = entry.trim().split("=");
+            int weight = Integer.parseInt(typeAndWeight[1].trim());
+            weights.put(Action.valueOf(typeAndWeight[0].trim().toUpperCase()), weight);
+            totalWeight += weight;
+        }
+
+        Action[] schedule = new Action[operations];
+        for (int i = 0; i < operations; i++) {
+            int pick = random.nextInt(totalWeight);
+            for (Map.Entry<Action, Integer> weight : weights.entrySet()) {
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    schedule[i] = weight.getKey();
+                    break;
+                }
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * Runs one operation to its end, the way CloudFormation would: calling back while it's IN_PROGRESS,
+     * and following nextToken for List.
+     */
+    private void runOperation(Action action) {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(action);
+        if (request == null) {
+            // Nothing left to read, update or delete.
+            statsByAction.get(action).recordSkipped();
+            return;
+        }
+
+        CountingProxy proxy = new CountingProxy();
+        BaseHandlerStd handler = handlers.get(action);
+        int callbacks = 0;
+        String outcome;
+        long start = System.nanoTime();
+        try {
+            CallbackContext callbackContext = null;
+            while (true) {
+                ProgressEvent<ResourceModel, CallbackContext> event =
+                        handler.handleRequest(proxy, request, callbackContext, NO_LOGGER);
+                if (event.getStatus() == OperationStatus.IN_PROGRESS) {
+                    callbacks++;
+                    callbackContext = event.getCallbackContext();
+                    Thread.sleep(event.getCallbackDelaySeconds() * getLong("callbackMillisPerSecond"));
+                } else if (event.getStatus() == OperationStatus.SUCCESS && event.getNextToken() != null) {
+                    request.setNextToken(event.getNextToken());
+                } else {
+                    outcome = event.getStatus() == OperationStatus.SUCCESS
+                            ? "SUCCESS"
+                            : String.valueOf(event.getErrorCode());
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            // e.g. CfnAlreadyExistsException from Create.
+            outcome = e.getClass().getSimpleName();
+        }
+        long latencyNanos = System.nanoTime() - start;
+
+        afterOperation(action, request, outcome);
+        statsByAction.get(action).record(outcome, latencyNanos, callbacks, proxy.calls.get());
+    }
+
+    private ResourceHandlerRequest<ResourceModel> getRequest(Action action) {
+        String metricName;
+        switch (action) {
+            case CREATE:
+                metricName = newMetricName();
+                break;
+            case READ:
+            case UPDATE:
+                metricName = pickMetricName(false);
+                break;
+            case DELETE:
+                metricName = pickMetricName(true);
+                break;
+            default:
+                metricName = null;
+        }
+        if (metricName == null && action != Action.LIST) {
+            return null;
+        }
+
+        ResourceModel model = ResourceModel.builder()
+                .metricName(metricName)
+                .queryString(action == Action.UPDATE ? "thingName:load-" + System.nanoTime() : "*")
+                .aggregationType(AggregationType.builder()
+                        .name("Statistics")
+                        .values(Collections.singletonList("count"))
+                        .build())
+                .build();
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(action == Action.LIST ? null : model)
+                .previousResourceState(action == Action.UPDATE
+                        ? ResourceModel.builder().metricName(metricName).queryString("*").build()
+                        : null)
+                .desiredResourceTags(Collections.singletonMap("LoadTest", "true"))
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
+
+    private void afterOperation(Action action, ResourceHandlerRequest<ResourceModel> request, String outcome) {
+        if (action == Action.CREATE && "SUCCESS".equals(outcome)) {
+            metricNames.add(request.getDesiredResourceState().getMetricName());
+        }
+    }
+
+    private String newMetricName() {
+        return "LoadTest" + nextMetricId.incrementAndGet();
+    }
+
+    private String pickMetricName(boolean remove) {
+        synchronized (metricNames) {
+            if (metricNames.isEmpty()) {
+                return null;
+            }
+            int index = ThreadLocalRandom.current().nextInt(metricNames.size());
+            return remove ? metricNames.remove(index) : metricNames.get(index);
+        }
+    }
+
+    private long getLong(String option) {
+        return Long.parseLong(options.get(option).trim());
+    }
+
+    private String toJson(long durationNanos) {
+        double durationSeconds = durationNanos / 1e9;
+        long completed = 0;
+        StringBuilder operations = new StringBuilder();
+        for (Map.Entry<Action, OperationStats> entry : statsByAction.entrySet()) {
+            OperationStats stats = entry.getValue();
+            completed += stats.getCount();
+            operations.append(operations.length() == 0 ? "" : ",")
+                    .append('"').append(entry.getKey()).append("\":").append(stats.toJson(durationSeconds));
+        }
+
+        StringBuilder apiCalls = new StringBuilder();
+        for (String api : APIS) {
+            apiCalls.append(apiCalls.length() == 0 ? "" : ",")
+                    .append('"').append(api).append("\":").append(iotClient.getCallCount(api));
+        }
+
+        StringBuilder config = new StringBuilder();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            config.append(config.length() == 0 ? "" : ",")
+                    .append('"').append(option.getKey()).append("\":\"").append(option.getValue()).append('"');
+        }
+
+        return "{\"options\":{" + config + "}"
+                + ",\"durationMillis\":" + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                + ",\"throughputPerSecond\":" + round(completed / durationSeconds)
+                + ",\"operations\":{" + operations + "}"
+                + ",\"apiCalls\":{" + apiCalls + "}}";
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Counts the IoT calls of one operation, over all its invocations and threads, and calls the fake directly.
+     */
+    private static final class CountingProxy extends AmazonWebServicesClientProxy {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingProxy() {
+            super(new LoggerProxy(), new Credentials("accessKeyId", "secretAccessKey", "sessionToken"),
+                    () -> Long.MAX_VALUE);
+        }
+
+        @Override
+        public <RequestT extends AwsRequest, ResultT extends AwsResponse> ResultT injectCredentialsAndInvokeV2(
+                RequestT request, Function<RequestT, ResultT> requestFunction) {
+            calls.incrementAndGet();
+            return requestFunction.apply(request);
+        }
+    }
+
+    /**
+     * What the operations of one type did. Recorded from all the driver's threads.
+     */
+    private static final class OperationStats {
+
+        private final List<Long> latenciesNanos = new ArrayList<>();
+        private final Map<String, Integer> outcomes = new TreeMap<>();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private long callbacks;
+        private long apiCalls;
+
+        synchronized void record(String outcome, long latencyNanos, int operationCallbacks, int operationApiCalls) {
+            latenciesNanos.add(latencyNanos);
+            outcomes.merge(outcome, 1, Integer::sum);
+            callbacks += operationCallbacks;
+            apiCalls += operationApiCalls;
+        }
+
+        void recordSkipped() {
+            skipped.incrementAndGet();
+        }
+
+        synchronized int getCount() {
+            return latenciesNanos.size();
+        }
+
+        synchronized String toJson(double durationSeconds) {
+            List<Long> sorted = new ArrayList<>(latenciesNanos);
+            Collections.sort(sorted);
+            int count = sorted.size();
+
+            StringBuilder outcomesJson = new StringBuilder();
+            for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+                outcomesJson.append(outcomesJson.length() == 0 ? "" : ",")
+                        .append('"').append(outcome.getKey()).append("\":").append(outcome.getValue());
+            }
+
+            return "{\"count\":" + count
+                    + ",\"skipped\":" + skipped.get()
+                    + ",\"outcomes\":{" + outcomesJson + "}"
+                    + ",\"throughputPerSecond\":" + round(count / durationSeconds)
+                    + ",\"latencyMillis\":{\"p50\":" + percentileMillis(sorted, 50)
+                    + ",\"p95\":" + percentileMillis(sorted, 95)
+                    + ",\"p99\":" + percentileMillis(sorted, 99)
+                    + ",\"max\":" + percentileMillis(sorted, 100) + "}"
+                    + ",\"retries\":" + callbacks
+                    + ",\"retriesPerOperation\":" + round(count == 0 ? 0 : (double) callbacks / count)
+                    + ",\"apiCallsPerOperation\":" + round(count == 0 ? 0 : (double) apiCalls / count) + "}";
+        }
+
+        // Nearest rank.
+        private static double percentileMillis(List<Long> sorted, int percentile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+            return round(sorted.get(Math.max(0, rank - 1)) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The logging of one Read invocation that finds no metric: the line for the Describe call and the exception translation.
+ * Run with -prof gc and compare gc.alloc.rate.norm, the bytes allocated per invocation.
+ *
+ * eagerLogging is how the handlers logged before HandlerLogger: every line formatted, and the stack trace
+ * of the expected ResourceNotFoundException captured. lazyLogging is the current code at the given level.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private static final String METRIC_ARN = "arn:aws:iot:us-east-1:123456789012:fleetmetric/BenchmarkFleetMetric";
+
+    @Param({"INFO", "DEBUG"})
+    public HandlerLogger.Level level;
+
+    private Logger logger;
+    private HandlerLogger handlerLogger;
+    private ResourceNotFoundException notFound;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        logger = blackhole::consume;
+        handlerLogger = new HandlerLogger(logger, level);
+        notFound = ResourceNotFoundException.builder().message("not found").build();
+    }
+
+    @Benchmark
+    public HandlerErrorCode eagerLogging() {
+        logger.log(String.format("Called Describe for %s.", METRIC_ARN));
+        logger.log(String.format("Translating exception \"%s\", stack trace: %s",
+                notFound.getMessage(), ExceptionUtils.getStackTrace(notFound)));
+        return HandlerErrorCode.NotFound;
+    }
+
+    @Benchmark
+    public HandlerErrorCode lazyLogging() {
+        handlerLogger.debug(() -> String.format("Called Describe for %s.", METRIC_ARN));
+        return Translator.translateExceptionToErrorCode(notFound, handlerLogger);
+    }
+}
@@ -0,0 +1,103 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.iot.model.FleetMetricNameAndArn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to go through every item of a paginated listing, with the pages fetched one after another
+ * as the do/while loops used to, and with {@link PrefetchingPaginator}.
+ *
+ * The stand-in client returns pages of ListHandler.MAX_RESULTS metrics after pageLatencyMillis, and the caller
+ * spends processingMillis on each page. Prefetching hides the shorter of the two on every page but the first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaginationBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int pageCount;
+
+    @Param({"5"})
+    public long pageLatencyMillis;
+
+    @Param({"0", "5"})
+    public long processingMillis;
+
+    private List<FleetMetricNameAndArn> pageItems;
+
+    @Setup
+    public void setup() {
+        pageItems = new ArrayList<>();
+        for (int i = 0; i < ListHandler.MAX_RESULTS; i++) {
+            pageItems.add(FleetMetricNameAndArn.builder()
+                    .metricName("Metric" + i)
+                    .metricArn("arn:aws:iot:us-east-1:123456789012:fleetmetric/Metric" + i)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public void sequential(Blackhole blackhole) throws InterruptedException {
+        String nextToken = null;
+        do {
+            PrefetchingPaginator.Page<FleetMetricNameAndArn> page = fetchPage(nextToken);
+            process(page.getItems(), blackhole);
+            nextToken = page.getNextToken();
+        } while (nextToken != null);
+    }
+
+    @Benchmark
+    public void prefetching(Blackhole blackhole) throws InterruptedException {
+        try (PrefetchingPaginator<FleetMetricNameAndArn> paginator = new PrefetchingPaginator<>(this::fetchPage)) {
+            List<FleetMetricNameAndArn> page = new ArrayList<>(ListHandler.MAX_RESULTS);
+            while (paginator.hasNext()) {
+                page.add(paginator.next());
+                if (page.size() == ListHandler.MAX_RESULTS) {
+                    process(page, blackhole);
+                    page.clear();
+                }
+            }
+        }
+    }
+
+    // The token is the index of the page.
+    private PrefetchingPaginator.Page<FleetMetricNameAndArn> fetchPage(String token) {
+        int pageIndex = token == null ? 0 : Integer.parseInt(token);
+        sleep(pageLatencyMillis);
+        return new PrefetchingPaginator.Page<>(pageItems,
+                pageIndex + 1 < pageCount ? String.valueOf(pageIndex + 1) : null);
+    }
+
+    private void process(List<FleetMetricNameAndArn> page, Blackhole blackhole) throws InterruptedException {
+        page.forEach(blackhole::consume);
+        Thread.sleep(processingMillis);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.iot.model.Tag;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the set arithmetic UpdateHandler.updateTags runs to decide what to tag and untag.
+ * Half of the current tags keep their value, a quarter change value and a quarter are removed,
+ * and the desired set adds as many new keys as were removed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TagDiffBenchmark {
+
+    @Param({"0", "1", "10", "25", "50"})
+    public int tagCount;
+
+    private Set<Tag> currentTags;
+    private Set<Tag> desiredTags;
+
+    @Setup
+    public void setup() {
+        currentTags = new HashSet<>();
+        desiredTags = new HashSet<>();
+        for (int i = 0; i < tagCount; i++) {
+            String key = "tagKey" + i;
+            currentTags.add(Tag.builder().key(key).value("value" + i).build());
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    desiredTags.add(Tag.builder().key(key).value("value" + i).build());
+                    break;
+                case 2:
+                    desiredTags.add(Tag.builder().key(key).value("newValue" + i).build());
+                    break;
+                default:
+                    desiredTags.add(Tag.builder().key("newTagKey" + i).value("value" + i).build());
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public Set<String> tagKeysToDetach() {
+        return UpdateHandler.getTagKeysToDetach(currentTags, desiredTags);
+    }
+
+    @Benchmark
+    public Set<Tag> tagsToAttach() {
+        return UpdateHandler.getTagsToAttach(currentTags, desiredTags);
+    }
+}
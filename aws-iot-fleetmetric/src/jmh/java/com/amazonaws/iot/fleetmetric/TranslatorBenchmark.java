@@ -0,0 +1,94 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the tag and exception translation done on every handler invocation.
+ * Tag counts go from none to the service maximum of 50 tags per resource.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranslatorBenchmark {
+
+    private static final HandlerLogger NO_OP_LOGGER = new HandlerLogger(message -> { });
+
+    @Param({"0", "1", "10", "25", "50"})
+    public int tagCount;
+
+    private Map<String, String> tagMap;
+    private List<software.amazon.awssdk.services.iot.model.Tag> sdkTags;
+    private ResourceModel model;
+    private Configuration configuration;
+    private ResourceNotFoundException classifiedException;
+    private RuntimeException unclassifiedException;
+
+    @Setup
+    public void setup() {
+        tagMap = new HashMap<>();
+        sdkTags = new ArrayList<>();
+        Set<Tag> modelTags = new HashSet<>();
+        for (int i = 0; i < tagCount; i++) {
+            String key = "tagKey" + i;
+            String value = "tagValue" + i;
+            tagMap.put(key, value);
+            sdkTags.add(software.amazon.awssdk.services.iot.model.Tag.builder().key(key).value(value).build());
+            modelTags.add(Tag.builder().key(key).value(value).build());
+        }
+        model = ResourceModel.builder()
+                .metricName("BenchmarkFleetMetric")
+                .tags(modelTags)
+                .build();
+        configuration = new Configuration();
+        classifiedException = ResourceNotFoundException.builder().message("not found").build();
+        unclassifiedException = new IllegalStateException("unexpected");
+    }
+
+    @Benchmark
+    public Set<software.amazon.awssdk.services.iot.model.Tag> translateTagsToSdk() {
+        return Translator.translateTagsToSdk(tagMap);
+    }
+
+    @Benchmark
+    public Set<Tag> translateTagsToCfn() {
+        return Translator.translateTagsToCfn(sdkTags);
+    }
+
+    @Benchmark
+    public Map<String, String> resourceDefinedTags() {
+        return configuration.resourceDefinedTags(model);
+    }
+
+    @Benchmark
+    public HandlerErrorCode translateClassifiedException() {
+        return Translator.translateExceptionToErrorCode(classifiedException, NO_OP_LOGGER);
+    }
+
+    @Benchmark
+    public HandlerErrorCode translateUnclassifiedException() {
+        return Translator.translateExceptionToErrorCode(unclassifiedException, NO_OP_LOGGER);
+    }
+}
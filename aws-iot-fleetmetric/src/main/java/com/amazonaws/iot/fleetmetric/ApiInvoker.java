@@ -0,0 +1,437 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.awscore.AwsResponse;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Makes the IoT calls of one handler invocation through the proxy, and times each of them.
+ *
+ * At the end of the invocation, {@link BaseHandlerStd} logs what was recorded as one line in the CloudWatch
+ * Embedded Metric Format, which CloudWatch turns into metrics without any API call from the handler.
+ * Every API gets its own metrics, e.g. DescribeFleetMetric.Latency, with all of its latencies in the line,
+ * so that percentiles per API come out right. The exception classes go in as properties, which are not
+ * metrics but can be searched with Logs Insights.
+ *
+ * Calls can be recorded from several threads at once, e.g. by the concurrent tag listing in ReadHandler.
+ *
+ * Each call first waits for its turn from the {@link RateLimiter}, and tells it whether IoT throttled it.
+ * It then gets what's left of the invocation's {@link Deadline} as its timeout, or isn't started if too little is.
+ * The first call of an invocation is always started, so that every invocation makes some progress.
+ * A call that fails with a transient error is made again as the {@link CallRetryPolicy} says, which is the only
+ * retrying done within an invocation: the SDK clients don't retry.
+ * Before all that, the {@link CircuitBreaker} may fail the call fast, if the API keeps failing in the region.
+ * Its state changes, and the calls it failed, go into the metrics of the invocation they happened in.
+ * A Describe or ListTags call that another invocation is making at the same time is joined through the
+ * {@link SingleFlight} instead of being made again, until this invocation makes a call that writes.
+ */
+class ApiInvoker {
+
+    static final String METRIC_NAMESPACE = "IoTFleetMetricResourceProvider";
+    static final String ACTION_DIMENSION = "Action";
+
+    private final AmazonWebServicesClientProxy proxy;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final SingleFlight singleFlight;
+    private final String accountId;
+    private final String region;
+    private final Deadline deadline;
+    private final CallRetryPolicy retryPolicy;
+    private final AtomicInteger retriesLeft;
+    private final LongSupplier nanoTime;
+    private final Map<String, ApiStats> statsByApi = new LinkedHashMap<>();
+    // Set once the invocation has started a call that writes, after which it doesn't join calls in flight:
+    // they may have started before the write.
+    private volatile boolean written;
+
+    ApiInvoker(AmazonWebServicesClientProxy proxy) {
+        this(proxy, new HandlerConfig(), null, null);
+    }
+
+    /**
+     * Starts the invocation's deadline from the config.
+     *
+     * @param accountId the account the calls are made in, which shared calls are kept per.
+     * @param region    where the calls go, which the circuits and shared calls are kept per.
+     */
+    ApiInvoker(AmazonWebServicesClientProxy proxy, HandlerConfig config, String accountId, String region) {
+        this(proxy, config, accountId, region, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    ApiInvoker(AmazonWebServicesClientProxy proxy, LongSupplier nanoTime) {
+        this(proxy, new HandlerConfig(), null, null, nanoTime);
+    }
+
+    @VisibleForTesting
+    ApiInvoker(AmazonWebServicesClientProxy proxy, RateLimiter rateLimiter, Deadline deadline,
+               CallRetryPolicy retryPolicy, LongSupplier nanoTime) {
+        this(proxy, getConfig(rateLimiter, deadline, retryPolicy), null, null, nanoTime);
+    }
+
+    @VisibleForTesting
+    ApiInvoker(AmazonWebServicesClientProxy proxy, HandlerConfig config, String accountId, String region,
+               LongSupplier nanoTime) {
+        this.proxy = proxy;
+        this.rateLimiter = config.getRateLimiter();
+        this.circuitBreaker = config.getCircuitBreaker();
+        this.singleFlight = config.getSingleFlight();
+        this.accountId = accountId;
+        this.region = region;
+        this.deadline = config.getInvocationDeadline().get();
+        this.retryPolicy = config.getCallRetryPolicy();
+        this.retriesLeft = new AtomicInteger(retryPolicy.getRetryBudget());
+        this.nanoTime = nanoTime;
+    }
+
+    private static HandlerConfig getConfig(RateLimiter rateLimiter, Deadline deadline, CallRetryPolicy retryPolicy) {
+        HandlerConfig config = new HandlerConfig();
+        config.setRateLimiter(rateLimiter);
+        config.setInvocationDeadline(() -> deadline);
+        config.setCallRetryPolicy(retryPolicy);
+        return config;
+    }
+
+    Deadline getDeadline() {
+        return deadline;
+    }
+
+    <RequestT extends AwsRequest, ResponseT extends AwsResponse> ResponseT invoke(
+            RequestT request,
+            Function<RequestT, ResponseT> call) {
+
+        String api = getApiName(request);
+        String key = getSharedKey(api, request);
+        if (key == null) {
+            return invoke(api, request, call);
+        }
+
+        CompletableFuture<ResponseT> flight = singleFlight.execute(key, () -> {
+            // A failure is shared through the future too, and thrown as is by await.
+            CompletableFuture<ResponseT> response = new CompletableFuture<>();
+            try {
+                response.complete(invoke(api, request, call));
+            } catch (RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+            return response;
+        }, () -> recordJoined(api));
+        try {
+            return await(api, flight);
+        } catch (Deadline.ExpiredException e) {
+            // The invocation that made the call had no time left for it, but this one has.
+            if (deadline.hasTimeForCall()) {
+                return invoke(api, request, call);
+            }
+            throw e;
+        }
+    }
+
+    private <RequestT extends AwsRequest, ResponseT extends AwsResponse> ResponseT invoke(
+            String api,
+            RequestT request,
+            Function<RequestT, ResponseT> call) {
+
+        for (int retry = 0; ; retry++) {
+            start(api);
+            long start = nanoTime.getAsLong();
+            try {
+                ResponseT response = proxy.injectCredentialsAndInvokeV2(request,
+                        credentialedRequest -> call.apply(deadline.limit(credentialedRequest)));
+                record(api, start, null);
+                return response;
+            } catch (RuntimeException e) {
+                record(api, start, e);
+                long delayMillis = getRetryDelayMillis(api, e, retry);
+                if (delayMillis < 0) {
+                    throw e;
+                }
+                retryPolicy.sleep(delayMillis);
+            }
+        }
+    }
+
+    <RequestT extends AwsRequest, ResponseT extends AwsResponse> CompletableFuture<ResponseT> invokeAsync(
+            RequestT request,
+            Function<RequestT, CompletableFuture<ResponseT>> call) {
+
+        String api = getApiName(request);
+        String key = getSharedKey(api, request);
+        if (key == null) {
+            return invokeAsync(api, request, call, 0);
+        }
+
+        CompletableFuture<ResponseT> flight = singleFlight.execute(key, () -> invokeAsync(api, request, call, 0),
+                () -> recordJoined(api));
+        return flight
+                .handle((response, e) -> unwrap(e) instanceof Deadline.ExpiredException && deadline.hasTimeForCall()
+                        ? invokeAsync(api, request, call, 0)
+                        : flight)
+                .thenCompose(Function.identity());
+    }
+
+    private <RequestT extends AwsRequest, ResponseT extends AwsResponse> CompletableFuture<ResponseT> invokeAsync(
+            String api,
+            RequestT request,
+            Function<RequestT, CompletableFuture<ResponseT>> call,
+            int retry) {
+
+        // A call that isn't started fails its future like one that fails, so that callers handle both alike.
+        try {
+            start(api);
+        } catch (RuntimeException e) {
+            return HandlerUtils.failedFuture(e);
+        }
+        long start = nanoTime.getAsLong();
+        CompletableFuture<ResponseT> response;
+        try {
+            response = proxy.injectCredentialsAndInvokeV2Async(request,
+                    credentialedRequest -> call.apply(deadline.limit(credentialedRequest)));
+        } catch (RuntimeException e) {
+            record(api, start, e);
+            return HandlerUtils.failedFuture(e);
+        }
+
+        CompletableFuture<ResponseT> result = new CompletableFuture<>();
+        response.whenComplete((value, e) -> {
+            record(api, start, e);
+            long delayMillis = e == null ? -1 : getRetryDelayMillis(api, unwrap(e), retry);
+            if (e == null) {
+                result.complete(value);
+            } else if (delayMillis < 0) {
+                result.completeExceptionally(e);
+            } else {
+                // Waits on the shared pool rather than on the SDK's thread that completed the call.
+                CompletableFuture.runAsync(() -> retryPolicy.sleep(delayMillis), SharedExecutor.get())
+                        .thenCompose(ignored -> invokeAsync(api, request, call, retry + 1))
+                        .whenComplete((retriedValue, retriedException) -> {
+                            if (retriedException == null) {
+                                result.complete(retriedValue);
+                            } else {
+                                result.completeExceptionally(retriedException);
+                            }
+                        });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Logs the calls made so far as one Embedded Metric Format line. Logs nothing if no call was made.
+     */
+    void logMetrics(Action action, long timestampMillis, Logger logger) {
+        String line = toEmbeddedMetricFormat(action, timestampMillis);
+        if (line != null) {
+            logger.log(line);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized String toEmbeddedMetricFormat(Action action, long timestampMillis) {
+        if (statsByApi.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder metricDefinitions = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (Map.Entry<String, ApiStats> entry : statsByApi.entrySet()) {
+            String api = entry.getKey();
+            ApiStats stats = entry.getValue();
+
+            appendMetricDefinition(metricDefinitions, api + ".Latency", "Milliseconds");
+            appendMetricDefinition(metricDefinitions, api + ".Calls", "Count");
+            appendMetricDefinition(metricDefinitions, api + ".Errors", "Count");
+
+            values.append(",\"").append(api).append(".Latency\":").append(stats.latenciesMillis);
+            values.append(",\"").append(api).append(".Calls\":").append(stats.latenciesMillis.size());
+            values.append(",\"").append(api).append(".Errors\":").append(stats.exceptions.size());
+            if (!stats.exceptions.isEmpty()) {
+                values.append(",\"").append(api).append(".Exceptions\":[");
+                for (int i = 0; i < stats.exceptions.size(); i++) {
+                    values.append(i == 0 ? "\"" : ",\"").append(stats.exceptions.get(i)).append('"');
+                }
+                values.append(']');
+            }
+            for (Map.Entry<CircuitBreaker.State, Integer> transition : stats.circuitTransitions.entrySet()) {
+                String metric = api + "." + getTransitionMetricName(transition.getKey());
+                appendMetricDefinition(metricDefinitions, metric, "Count");
+                values.append(",\"").append(metric).append("\":").append(transition.getValue());
+            }
+            if (stats.joined > 0) {
+                appendMetricDefinition(metricDefinitions, api + ".Joined", "Count");
+                values.append(",\"").append(api).append(".Joined\":").append(stats.joined);
+            }
+            if (stats.circuitRejections > 0) {
+                appendMetricDefinition(metricDefinitions, api + ".CircuitRejected", "Count");
+                values.append(",\"").append(api).append(".CircuitRejected\":").append(stats.circuitRejections);
+            }
+        }
+
+        return "{\"_aws\":{\"Timestamp\":" + timestampMillis
+                + ",\"CloudWatchMetrics\":[{\"Namespace\":\"" + METRIC_NAMESPACE + "\""
+                + ",\"Dimensions\":[[\"" + ACTION_DIMENSION + "\"]]"
+                + ",\"Metrics\":[" + metricDefinitions + "]}]}"
+                + ",\"" + ACTION_DIMENSION + "\":\"" + action + "\""
+                + values + "}";
+    }
+
+    /**
+     * @return the key the call is shared by, or null if it's made by this invocation alone.
+     */
+    private String getSharedKey(String api, AwsRequest request) {
+        if (!api.startsWith("Describe") && !api.startsWith("List")) {
+            written = true;
+        }
+        return written || !singleFlight.isEnabled() ? null : SingleFlight.key(accountId, region, request);
+    }
+
+    /**
+     * Waits for a shared call for no longer than the invocation has left, and throws its failure as is.
+     */
+    private <ResponseT> ResponseT await(String api, CompletableFuture<ResponseT> flight) {
+        try {
+            if (deadline == Deadline.NONE) {
+                return flight.get();
+            }
+            return flight.get(Math.max(0, deadline.getRemainingMillis() - Deadline.RESERVE_MILLIS),
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new Deadline.ExpiredException(api, deadline.getRemainingMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + api, e);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e.getCause());
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    private void start(String api) {
+        try {
+            recordTransition(api, circuitBreaker.acquire(region, api));
+        } catch (CircuitBreaker.OpenException e) {
+            synchronized (this) {
+                statsByApi.computeIfAbsent(api, ignored -> new ApiStats()).circuitRejections++;
+            }
+            throw e;
+        }
+        rateLimiter.acquire(api);
+        if (!deadline.hasTimeForCall() && hasCalled()) {
+            throw new Deadline.ExpiredException(api, deadline.getRemainingMillis());
+        }
+    }
+
+    /**
+     * @return how long to wait before making the failed call again, or -1 if it isn't made again.
+     */
+    private long getRetryDelayMillis(String api, Throwable e, int retry) {
+        // Retrying into an open circuit would only wait to be failed fast.
+        if (!CallRetryPolicy.isRetryable(api, e)
+                || circuitBreaker.getState(region, api) != CircuitBreaker.State.CLOSED) {
+            return -1;
+        }
+        long delayMillis = retryPolicy.getDelayMillis(retry);
+        if (deadline.getRemainingMillis() - delayMillis - Deadline.RESERVE_MILLIS < Deadline.MIN_CALL_MILLIS) {
+            return -1;
+        }
+        // Taken last, so that a retry that isn't made doesn't use up the budget.
+        return retriesLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0 ? delayMillis : -1;
+    }
+
+    private synchronized boolean hasCalled() {
+        return statsByApi.values().stream().anyMatch(stats -> !stats.latenciesMillis.isEmpty());
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+    }
+
+    private void record(String api, long start, Throwable failure) {
+        Throwable cause = unwrap(failure);
+        if (cause == null) {
+            rateLimiter.onSuccess(api);
+        } else if (cause instanceof ThrottlingException) {
+            rateLimiter.onThrottled(api);
+        }
+        recordTransition(api, circuitBreaker.onResult(region, api, cause));
+
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(nanoTime.getAsLong() - start);
+        synchronized (this) {
+            ApiStats stats = statsByApi.computeIfAbsent(api, ignored -> new ApiStats());
+            stats.latenciesMillis.add(latencyMillis);
+            if (cause != null) {
+                stats.exceptions.add(cause.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private synchronized void recordJoined(String api) {
+        statsByApi.computeIfAbsent(api, ignored -> new ApiStats()).joined++;
+    }
+
+    private synchronized void recordTransition(String api, CircuitBreaker.State transition) {
+        if (transition != null) {
+            statsByApi.computeIfAbsent(api, ignored -> new ApiStats())
+                    .circuitTransitions.merge(transition, 1, Integer::sum);
+        }
+    }
+
+    private static String getTransitionMetricName(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                return "CircuitOpened";
+            case HALF_OPEN:
+                return "CircuitHalfOpened";
+            default:
+                return "CircuitClosed";
+        }
+    }
+
+    // e.g. DescribeFleetMetricRequest -> DescribeFleetMetric
+    private static String getApiName(AwsRequest request) {
+        String requestClass = request.getClass().getSimpleName();
+        return requestClass.endsWith("Request")
+                ? requestClass.substring(0, requestClass.length() - "Request".length())
+                : requestClass;
+    }
+
+    private static void appendMetricDefinition(StringBuilder metricDefinitions, String name, String unit) {
+        if (metricDefinitions.length() > 0) {
+            metricDefinitions.append(',');
+        }
+        metricDefinitions.append("{\"Name\":\"").append(name).append("\",\"Unit\":\"").append(unit).append("\"}");
+    }
+
+    private static final class ApiStats {
+        private final List<Long> latenciesMillis = new ArrayList<>();
+        private final List<String> exceptions = new ArrayList<>();
+        private final Map<CircuitBreaker.State, Integer> circuitTransitions = new EnumMap<>(CircuitBreaker.State.class);
+        private int circuitRejections;
+        // Calls not made because the same one was in flight, and joined.
+        private int joined;
+    }
+}
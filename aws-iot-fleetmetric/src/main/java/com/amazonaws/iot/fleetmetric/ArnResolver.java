@@ -0,0 +1,98 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang3.StringUtils;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Works out the ARN of a fleet metric without calling IoT, for handlers that only need the ARN.
+ *
+ * An ARN never changes for a given account, region and metric name, so it's taken from, in order:
+ * the previous resource state, the ARNs the handlers of this container have seen in Describe and Create
+ * responses, and the documented ARN format. Only if none of them has it does the caller need Describe.
+ *
+ * Like the IotClient, the seen ARNs live for the life of the container and are shared by all handlers.
+ */
+class ArnResolver {
+
+    static final int MAX_ENTRIES = 1024;
+
+    /**
+     * Resolves nothing, so callers always describe the metric. What handlers use unless resolving is switched on.
+     */
+    static final ArnResolver DESCRIBE_ONLY = new ArnResolver(0);
+
+    private static ArnResolver shared;
+
+    private final int maxEntries;
+    private final Map<String, String> arnsByKey;
+
+    @VisibleForTesting
+    ArnResolver(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // Access order, so that the eldest entry is the least recently used one.
+        this.arnsByKey = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > ArnResolver.this.maxEntries;
+            }
+        };
+    }
+
+    static synchronized ArnResolver getShared() {
+        if (shared == null) {
+            shared = new ArnResolver(MAX_ENTRIES);
+        }
+        return shared;
+    }
+
+    /**
+     * @return the ARN of the metric the request is about, or null if only Describe can tell.
+     */
+    String resolve(ResourceHandlerRequest<ResourceModel> request) {
+        if (maxEntries == 0 || request.getDesiredResourceState() == null) {
+            return null;
+        }
+        String metricName = request.getDesiredResourceState().getMetricName();
+
+        ResourceModel previousModel = request.getPreviousResourceState();
+        if (previousModel != null && !StringUtils.isEmpty(previousModel.getMetricArn())
+                && Objects.equals(previousModel.getMetricName(), metricName)) {
+            return previousModel.getMetricArn();
+        }
+
+        String seenArn = getSeen(FleetMetricCache.key(request));
+        if (seenArn != null) {
+            return seenArn;
+        }
+
+        return HandlerUtils.getFleetMetricArn(request, metricName);
+    }
+
+    /**
+     * Remembers the ARN a Describe or Create response returned for the metric the request is about.
+     */
+    synchronized void remember(ResourceHandlerRequest<ResourceModel> request, String metricArn) {
+        String key = FleetMetricCache.key(request);
+        if (maxEntries > 0 && key != null && metricArn != null) {
+            arnsByKey.put(key, metricArn);
+        }
+    }
+
+    synchronized void forget(ResourceHandlerRequest<ResourceModel> request) {
+        String key = FleetMetricCache.key(request);
+        if (key != null) {
+            arnsByKey.remove(key);
+        }
+    }
+
+    private synchronized String getSeen(String key) {
+        return key == null ? null : arnsByKey.get(key);
+    }
+}
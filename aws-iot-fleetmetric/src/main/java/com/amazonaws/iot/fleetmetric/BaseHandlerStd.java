@@ -0,0 +1,63 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+/**
+ * Base of the five handlers. Their IoT calls go through an {@link ApiInvoker}, and the latencies it recorded
+ * are logged once the invocation is done, whether it succeeded, failed or threw.
+ * They log through a {@link HandlerLogger} at the level set in their {@link HandlerConfig}, into a
+ * {@link BufferedLogger} that writes the lines of the invocation at once when it's done.
+ * Before a handler that writes starts, and again once it's done, what Read cached about the metric is invalidated,
+ * and the calls in flight for it are no longer shared.
+ * The {@link Deadline} of the invocation starts on entry, and the invoker bounds the IoT calls by it.
+ */
+public abstract class BaseHandlerStd extends BaseHandler<CallbackContext> {
+
+    @Override
+    public final ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            AmazonWebServicesClientProxy proxy,
+            ResourceHandlerRequest<ResourceModel> request,
+            CallbackContext callbackContext,
+            Logger logger) {
+
+        ApiInvoker invoker = new ApiInvoker(proxy, getConfig(), request.getAwsAccountId(), request.getRegion());
+        BufferedLogger bufferedLogger = new BufferedLogger(logger);
+        HandlerLogger handlerLogger = new HandlerLogger(bufferedLogger, getConfig().getLogLevel());
+        boolean writes = getAction() != Action.READ && getAction() != Action.LIST;
+        if (writes) {
+            forgetMetric(request);
+        }
+        try {
+            return handleRequest(invoker, request, callbackContext, handlerLogger);
+        } finally {
+            if (writes) {
+                forgetMetric(request);
+            }
+            bufferedLogger.flush();
+            // The metrics are logged regardless of the level, since they're not for reading.
+            // They bypass the buffer: CloudWatch only extracts them from a log event that is one JSON document.
+            invoker.logMetrics(getAction(), System.currentTimeMillis(), logger);
+        }
+    }
+
+    // A Read that started before the write and is still in flight can't cache what it found either.
+    private void forgetMetric(ResourceHandlerRequest<ResourceModel> request) {
+        getConfig().getDescribeCache().invalidate(FleetMetricCache.key(request));
+        getConfig().getSingleFlight().forget(request);
+    }
+
+    protected abstract ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            ApiInvoker invoker,
+            ResourceHandlerRequest<ResourceModel> request,
+            CallbackContext callbackContext,
+            HandlerLogger logger);
+
+    protected abstract HandlerConfig getConfig();
+
+    // The Action dimension of the metrics.
+    protected abstract Action getAction();
+}
@@ -0,0 +1,71 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects the lines of one handler invocation and writes them to the CloudFormation Logger as a single
+ * newline-separated message, instead of one write per line.
+ *
+ * {@link BaseHandlerStd} flushes it in a finally block, so the lines are written when the handler throws too.
+ * So that a Lambda timeout, which skips the finally block, loses at most a few seconds of lines, the buffer is
+ * also flushed when a line comes in and the oldest buffered line is older than the maximum age,
+ * and when it grows past the maximum size.
+ *
+ * The handlers may log from SDK threads when calling IoT asynchronously, so all methods are synchronized.
+ */
+class BufferedLogger implements Logger {
+
+    static final int DEFAULT_MAX_BUFFER_CHARS = 64 * 1024;
+    static final long DEFAULT_MAX_AGE_MILLIS = 5_000L;
+
+    private final Logger logger;
+    private final int maxBufferChars;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoTime;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private long oldestLineNanos;
+
+    BufferedLogger(Logger logger) {
+        this(logger, DEFAULT_MAX_BUFFER_CHARS, DEFAULT_MAX_AGE_MILLIS, System::nanoTime);
+    }
+
+    @VisibleForTesting
+    BufferedLogger(Logger logger, int maxBufferChars, long maxAgeMillis, LongSupplier nanoTime) {
+        this.logger = logger;
+        this.maxBufferChars = maxBufferChars;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public synchronized void log(String message) {
+        long now = nanoTime.getAsLong();
+        if (buffer.length() == 0) {
+            oldestLineNanos = now;
+        } else {
+            buffer.append('\n');
+        }
+        buffer.append(message);
+
+        if (buffer.length() >= maxBufferChars || now - oldestLineNanos >= maxAgeNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered lines, if any, as one message.
+     */
+    synchronized void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        String lines = buffer.toString();
+        buffer.setLength(0);
+        logger.log(lines);
+    }
+}
@@ -0,0 +1,125 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ServiceUnavailableException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Retries failed IoT calls within a handler invocation, the first of the layers that retry.
+ *
+ * Each layer owns its own retries, so that they don't multiply:
+ *  - the SDK doesn't retry at all when a retry budget is configured, see {@link ClientBuilder}. Without one, it
+ *    retries as it does by default and this layer doesn't;
+ *  - {@link ApiInvoker} retries a call that failed with a transient error (throttling, a 5xx, a network error)
+ *    with full-jitter backoff, if making it again is safe, until the invocation has used up its retry budget.
+ *    The budget is per invocation, not per call, so a handler that makes several calls makes at most that many
+ *    extra ones in all. It doesn't wait past the invocation's {@link Deadline};
+ *  - past the budget, Create, Update and Delete retry through callbacks, see {@link CallbackRetryPolicy};
+ *  - only once those are used up does CloudFormation retry the handler, on the retriable error codes
+ *    {@link Translator} returns. Read and List have no callbacks, so that's where they go past the budget.
+ */
+class CallRetryPolicy {
+
+    static final long DEFAULT_BASE_DELAY_MILLIS = 100L;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 2_000L;
+
+    /**
+     * Never retries. What handlers use unless a retry budget is configured.
+     */
+    static final CallRetryPolicy NONE = new CallRetryPolicy(0);
+
+    // The writes that have the same effect however many times they're made. The reads all do.
+    private static final Set<String> IDEMPOTENT_WRITES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "TagResource", "UntagResource", "DeleteFleetMetric")));
+
+    private final int retryBudget;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final DoubleSupplier random;
+    private final RateLimiter.Sleeper sleeper;
+
+    CallRetryPolicy(int retryBudget) {
+        this(retryBudget, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                () -> ThreadLocalRandom.current().nextDouble(), RateLimiter.Sleeper.THREAD);
+    }
+
+    @VisibleForTesting
+    CallRetryPolicy(int retryBudget, long baseDelayMillis, long maxDelayMillis, DoubleSupplier random,
+                    RateLimiter.Sleeper sleeper) {
+        this.retryBudget = retryBudget;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * @return how many calls one invocation may retry in all.
+     */
+    int getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Whether a call that failed with this may succeed if it's simply made again. A VersionConflictException
+     * needs the metric read again first, and a call timeout means the invocation is out of time, so neither is.
+     * Nor is a call the rate limiter rejected: it wasn't made, and backing off for less than the limiter would have
+     * had it wait only gets it rejected again.
+     *
+     * A 5xx or a network error doesn't show that IoT didn't act on the call, so only an idempotent call is made again
+     * after one: CreateFleetMetric made again after it went through would fail with ResourceAlreadyExistsException.
+     * A throttled call wasn't acted on, so any call is made again after that.
+     */
+    static boolean isRetryable(String api, Throwable e) {
+        if (e instanceof ThrottlingException
+                || e instanceof SdkServiceException && ((SdkServiceException) e).isThrottlingException()) {
+            return true;
+        }
+        if (!isIdempotent(api)) {
+            return false;
+        }
+        if (e instanceof InternalFailureException || e instanceof ServiceUnavailableException) {
+            return true;
+        }
+        if (e instanceof SdkServiceException) {
+            return ((SdkServiceException) e).statusCode() >= 500;
+        }
+        // Failing to reach IoT at all, e.g. a connection reset.
+        return e instanceof SdkClientException
+                && !(e instanceof ApiCallTimeoutException || e instanceof ApiCallAttemptTimeoutException);
+    }
+
+    static boolean isIdempotent(String api) {
+        return api.startsWith("Describe") || api.startsWith("List") || IDEMPOTENT_WRITES.contains(api);
+    }
+
+    /**
+     * Full jitter: a uniformly random delay up to the exponential backoff for this retry of the call.
+     */
+    long getDelayMillis(int retry) {
+        long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+        return (long) (random.getAsDouble() * backoff);
+    }
+
+    void sleep(long delayMillis) {
+        try {
+            sleeper.sleep(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry", e);
+        }
+    }
+}
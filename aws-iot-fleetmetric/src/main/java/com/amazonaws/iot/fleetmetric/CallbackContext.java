@@ -2,9 +2,39 @@ package com.amazonaws.iot.fleetmetric;
 
 import software.amazon.cloudformation.proxy.StdCallbackContext;
 
+import java.util.List;
+import java.util.Map;
+
 @lombok.Getter
 @lombok.Setter
 @lombok.ToString
 @lombok.EqualsAndHashCode(callSuper = true)
 public class CallbackContext extends StdCallbackContext {
+
+    // The step the handler resumes at when CloudFormation calls it back. Null on the first invocation.
+    private HandlerStep resumeStep;
+
+    // How many times the resume step has been retried through a callback.
+    private int retryAttempt;
+
+    // The ARN Describe returned, so that a resumed Update doesn't need to describe the metric again.
+    private String metricArn;
+
+    // The version UpdateFleetMetric expects the metric to be at, when Update sends one.
+    private Long expectedVersion;
+
+    // The tag changes Update worked out from ListTags, so that TagResource and UntagResource can be resumed
+    // without listing the tags again.
+    private Map<String, String> tagsToAttach;
+    private List<String> tagKeysToDetach;
+
+    // When the handler stops waiting for the fleet index to become ready, in epoch milliseconds.
+    // Set the first time a call fails with IndexNotReadyException, and kept for the rest of the operation.
+    private Long indexReadyDeadline;
+
+    // How many callbacks the handler has waited for the fleet index so far.
+    private int indexWaitAttempt;
+
+    // Whether a CreateFleetMetric timed out, in which case it may have created the metric anyway.
+    private boolean createTimedOut;
 }
@@ -0,0 +1,192 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.time.Clock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Retries throttled calls through CloudFormation callbacks instead of failing the handler.
+ *
+ * The handler returns IN_PROGRESS with the step to resume at and the attempt count in the CallbackContext,
+ * and CloudFormation calls it back after an exponential backoff with full jitter. Jitter matters here:
+ * stacks deployed in parallel get throttled together, and without it they would all come back together.
+ * Once the attempts are used up, the handler fails with Throttling as before, and CloudFormation's own
+ * retry takes over.
+ *
+ * A VersionConflictException, from an update that expected a version the metric has moved on from, is retried
+ * the same way. The caller passes the step that reads the metric again as the step to resume at.
+ *
+ * IndexNotReadyException, which the service throws while fleet indexing is still being enabled, is waited out
+ * the same way, but bounded by time rather than attempts: the first one sets a deadline in the CallbackContext,
+ * and the handler is called back with increasing delays until the index is ready or the deadline has passed.
+ * This is what lets a stack enable indexing and create fleet metrics in the same deployment.
+ *
+ * When the invocation is running out of time, the step isn't started (Deadline.ExpiredException) and the handler is
+ * called back right away to start it, without using up an attempt. A call the SDK gave up on because the time ran
+ * out while it was in flight (ApiCallTimeoutException) is retried like a throttled one. CreateHandler resumes a
+ * timed-out CreateFleetMetric at Describe, since it may have gone through and isn't idempotent. A step the rate limiter
+ * didn't start (RateLimiter.RejectedException) is called back with the step's backoff, also without using up
+ * an attempt.
+ *
+ * Only Create, Update and Delete use this. Read and List must not return IN_PROGRESS.
+ */
+class CallbackRetryPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final int DEFAULT_BASE_DELAY_SECONDS = 2;
+    static final int DEFAULT_MAX_DELAY_SECONDS = 60;
+
+    static final int INDEX_WAIT_BASE_DELAY_SECONDS = 10;
+    static final int INDEX_WAIT_MAX_DELAY_SECONDS = 120;
+
+    /**
+     * Fails a throttled call, or one the fleet index isn't ready for, right away, as the handlers did before
+     * callbacks. What handlers use unless throttling retries or an index ready timeout are configured.
+     */
+    static final CallbackRetryPolicy NONE = new CallbackRetryPolicy(0, 0);
+
+    private final int maxAttempts;
+    private final int baseDelaySeconds;
+    private final int maxDelaySeconds;
+    private final DoubleSupplier random;
+    private final int indexReadyTimeoutSeconds;
+    private final Clock clock;
+
+    CallbackRetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, 0);
+    }
+
+    CallbackRetryPolicy(int maxAttempts, int indexReadyTimeoutSeconds) {
+        this(maxAttempts, DEFAULT_BASE_DELAY_SECONDS, DEFAULT_MAX_DELAY_SECONDS,
+                () -> ThreadLocalRandom.current().nextDouble(), indexReadyTimeoutSeconds, Clock.systemUTC());
+    }
+
+    CallbackRetryPolicy(int maxAttempts, int baseDelaySeconds, int maxDelaySeconds, DoubleSupplier random) {
+        this(maxAttempts, baseDelaySeconds, maxDelaySeconds, random,
+                0, Clock.systemUTC());
+    }
+
+    /**
+     * @param indexReadyTimeoutSeconds how long to wait for the fleet index in total. With 0, the handler
+     *                                 fails with GeneralServiceException right away, as it did before.
+     */
+    CallbackRetryPolicy(int maxAttempts, int baseDelaySeconds, int maxDelaySeconds, DoubleSupplier random,
+                        int indexReadyTimeoutSeconds, Clock clock) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelaySeconds = baseDelaySeconds;
+        this.maxDelaySeconds = maxDelaySeconds;
+        this.random = random;
+        this.indexReadyTimeoutSeconds = indexReadyTimeoutSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * Translates the exception a step failed with. If the step may be retried, the event is IN_PROGRESS
+     * and calls the handler back at that step, otherwise it's the FAILED event Translator builds.
+     *
+     * @param callbackContext the context of this invocation, null on the first one. The handler may have
+     *                        added state to it that the resumed step needs.
+     */
+    ProgressEvent<ResourceModel, CallbackContext> translateExceptionToProgressEvent(
+            ResourceModel model,
+            CallbackContext callbackContext,
+            HandlerStep step,
+            Exception e,
+            HandlerLogger logger) {
+
+        CallbackContext context = callbackContext == null ? new CallbackContext() : callbackContext;
+        if (e instanceof IndexNotReadyException && indexReadyTimeoutSeconds > 0) {
+            return waitForIndex(model, context, step, e, logger);
+        }
+
+        // The attempts count per step: making progress to the next step starts a fresh count.
+        int attempt = step == context.getResumeStep() ? context.getRetryAttempt() : 0;
+        if (e instanceof Deadline.ExpiredException) {
+            logger.info(() -> String.format("%s of %s not started: %s, calling back.",
+                    step, model.getMetricName(), e.getMessage()));
+            context.setResumeStep(step);
+            context.setRetryAttempt(attempt);
+            return ProgressEvent.defaultInProgressHandler(context, 0, model);
+        }
+        if (e instanceof RateLimiter.RejectedException) {
+            // IoT wasn't called, so it hasn't throttled the step: call back once the limiter has caught up,
+            // without using up an attempt.
+            int delaySeconds = getDelaySeconds(attempt);
+            logger.info(() -> String.format("%s of %s not started: %s, calling back in %d seconds.",
+                    step, model.getMetricName(), e.getMessage(), delaySeconds));
+            context.setResumeStep(step);
+            context.setRetryAttempt(attempt);
+            return ProgressEvent.defaultInProgressHandler(context, delaySeconds, model);
+        }
+        if (!(e instanceof ThrottlingException || e instanceof VersionConflictException
+                || e instanceof ApiCallTimeoutException) || attempt >= maxAttempts) {
+            return Translator.translateExceptionToProgressEvent(model, e, logger);
+        }
+
+        int delaySeconds = getDelaySeconds(attempt);
+        logger.info(() -> String.format("%s of %s failed with %s, calling back in %d seconds (attempt %d of %d).",
+                step, model.getMetricName(), e.getClass().getSimpleName(), delaySeconds, attempt + 1, maxAttempts));
+
+        context.setResumeStep(step);
+        context.setRetryAttempt(attempt + 1);
+        return ProgressEvent.defaultInProgressHandler(context, delaySeconds, model);
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> waitForIndex(
+            ResourceModel model,
+            CallbackContext context,
+            HandlerStep step,
+            Exception e,
+            HandlerLogger logger) {
+
+        long now = clock.millis();
+        if (context.getIndexReadyDeadline() == null) {
+            context.setIndexReadyDeadline(now + indexReadyTimeoutSeconds * 1000L);
+        }
+        long remainingSeconds = (context.getIndexReadyDeadline() - now) / 1000;
+        if (remainingSeconds <= 0) {
+            logger.warn(() -> String.format("The fleet index for %s is still not ready after %d seconds: %s",
+                    model.getMetricName(), indexReadyTimeoutSeconds, e.getMessage()));
+            return ProgressEvent.failed(model, context, HandlerErrorCode.NotStabilized,
+                    String.format("The fleet index was not ready within %d seconds. %s",
+                            indexReadyTimeoutSeconds, e.getMessage()));
+        }
+
+        int attempt = context.getIndexWaitAttempt();
+        int delaySeconds = (int) Math.min(remainingSeconds, getIndexWaitDelaySeconds(attempt));
+        logger.info(() -> String.format("%s of %s failed because the fleet index is not ready, "
+                        + "calling back in %d seconds (%d seconds left to wait).",
+                step, model.getMetricName(), delaySeconds, remainingSeconds));
+
+        context.setResumeStep(step);
+        // Waiting for the index doesn't use up the throttling attempts of the step.
+        context.setRetryAttempt(0);
+        context.setIndexWaitAttempt(attempt + 1);
+        return ProgressEvent.defaultInProgressHandler(context, delaySeconds, model);
+    }
+
+    /**
+     * Doubles from 10 seconds up to 2 minutes. Indexing takes minutes to come up, so there's no point
+     * in the short delays the throttling retries start with.
+     */
+    static int getIndexWaitDelaySeconds(int attempt) {
+        return (int) Math.min((long) INDEX_WAIT_MAX_DELAY_SECONDS,
+                (long) INDEX_WAIT_BASE_DELAY_SECONDS << Math.min(attempt, 30));
+    }
+
+    /**
+     * Full jitter: a uniformly random delay up to the exponential backoff for this attempt.
+     * It's at least one second, because a delay of 0 means "call back right away" to CloudFormation.
+     */
+    int getDelaySeconds(int attempt) {
+        long backoff = Math.min((long) maxDelaySeconds, (long) baseDelaySeconds << Math.min(attempt, 30));
+        return Math.max(1, (int) Math.ceil(random.getAsDouble() * backoff));
+    }
+}
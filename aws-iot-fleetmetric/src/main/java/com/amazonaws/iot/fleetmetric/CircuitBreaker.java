@@ -0,0 +1,165 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ServiceUnavailableException;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling an IoT API in a region that keeps failing with internal errors or timeouts, so that handlers fail
+ * fast during an outage instead of each spending its invocation on calls and retries that won't succeed.
+ *
+ * Each region and API has its own circuit. It opens once that many calls in a row have failed with
+ * InternalFailureException, ServiceUnavailableException or a timeout; any other outcome, including an error like
+ * ResourceNotFoundException, shows the endpoint is answering and resets the count. While it's open, calls fail with
+ * {@link OpenException} without calling IoT, which {@link Translator} turns into the retriable ServiceInternalError.
+ * Once it has been open for the open duration, one call is let through as a probe (half-open): the circuit closes
+ * if it gets an answer, and opens again if it fails the same way. A probe that never reports back, e.g. because the
+ * rate limiter or the deadline didn't start it, is replaced by another after the open duration.
+ *
+ * Like the rate limiter, one breaker lives for the life of the container and is shared by all handlers,
+ * so that an invocation benefits from what the ones before it found out.
+ */
+class CircuitBreaker {
+
+    static final int DEFAULT_OPEN_SECONDS = 30;
+
+    /**
+     * Never opens. What handlers use unless a failure threshold is configured.
+     */
+    static final CircuitBreaker DISABLED = new CircuitBreaker(0, 0L, System::nanoTime);
+
+    private static CircuitBreaker shared;
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+    private final Map<String, Circuit> circuitsByKey = new ConcurrentHashMap<>();
+
+    @VisibleForTesting
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoTime) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoTime = nanoTime;
+    }
+
+    static synchronized CircuitBreaker getShared(int failureThreshold, int openSeconds) {
+        if (shared == null) {
+            shared = new CircuitBreaker(failureThreshold, TimeUnit.SECONDS.toMillis(openSeconds), System::nanoTime);
+        }
+        return shared;
+    }
+
+    /**
+     * Whether a call that failed with this counts towards opening the circuit.
+     */
+    static boolean isFailure(Throwable e) {
+        return e instanceof InternalFailureException || e instanceof ServiceUnavailableException
+                || e instanceof ApiCallTimeoutException || e instanceof ApiCallAttemptTimeoutException;
+    }
+
+    /**
+     * Checks that the API may be called in the region.
+     *
+     * @return the state the circuit moved to to let this call through as a probe, or null if it didn't move.
+     * @throws OpenException if the circuit is open, or half-open with its probe still out.
+     */
+    State acquire(String region, String api) {
+        Circuit circuit = getCircuit(region, api);
+        return circuit == null ? null : circuit.acquire(region, api, nanoTime.getAsLong());
+    }
+
+    /**
+     * Called with the outcome of a call the circuit let through; null if the call succeeded.
+     *
+     * @return the state the circuit moved to, or null if it didn't move.
+     */
+    State onResult(String region, String api, Throwable failure) {
+        Circuit circuit = getCircuit(region, api);
+        return circuit == null ? null : circuit.onResult(isFailure(failure), nanoTime.getAsLong());
+    }
+
+    State getState(String region, String api) {
+        Circuit circuit = getCircuit(region, api);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    private Circuit getCircuit(String region, String api) {
+        if (failureThreshold <= 0) {
+            return null;
+        }
+        return circuitsByKey.computeIfAbsent(region + ":" + api, ignored -> new Circuit());
+    }
+
+    // The state changes only on failures and probes, which are rare, so a lock per circuit is cheap enough.
+    private final class Circuit {
+
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        // When the circuit last opened, or when its probe was let through.
+        private long changedAtNanos;
+
+        private synchronized State getState() {
+            return state;
+        }
+
+        private synchronized State acquire(String region, String api, long now) {
+            if (state == State.CLOSED) {
+                return null;
+            }
+            long openForNanos = now - changedAtNanos;
+            if (openForNanos < openNanos) {
+                throw new OpenException(region, api, state, TimeUnit.NANOSECONDS.toMillis(openNanos - openForNanos));
+            }
+            changedAtNanos = now;
+            return moveTo(State.HALF_OPEN);
+        }
+
+        private synchronized State onResult(boolean failed, long now) {
+            if (!failed) {
+                consecutiveFailures = 0;
+                return moveTo(State.CLOSED);
+            }
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                changedAtNanos = now;
+                return moveTo(State.OPEN);
+            }
+            // Calls let through before the circuit opened and failing after don't keep it open for longer.
+            return null;
+        }
+
+        private State moveTo(State newState) {
+            if (state == newState) {
+                return null;
+            }
+            state = newState;
+            return newState;
+        }
+    }
+
+    /**
+     * Thrown instead of calling an API whose circuit is open.
+     */
+    static final class OpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String region, String api, State state, long retryAfterMillis) {
+            super(String.format(Locale.ROOT,
+                    "Not calling %s in %s: its circuit is %s after repeated internal errors or timeouts, "
+                            + "retry in %d ms", api, region, state, retryAfterMillis));
+        }
+    }
+}
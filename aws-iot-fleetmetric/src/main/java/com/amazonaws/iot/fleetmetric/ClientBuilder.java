@@ -0,0 +1,54 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.IotClient;
+
+/**
+ * Provides the IotClient shared by all handlers in a container.
+ *
+ * Building an IotClient resolves the region and sets up the HTTP client, its connection pool and the
+ * SDK marshallers, so we only want to pay for it once per container. The client is thread-safe and
+ * is reused across warm invocations and across handler types.
+ *
+ * When a call retry budget is configured, the clients don't retry: {@link ApiInvoker} does, within that budget
+ * per invocation, so that the SDK's retries don't multiply with the handler's own. See {@link CallRetryPolicy} for
+ * which layer retries what. Without a budget, the clients keep the SDK's default retry policy.
+ */
+final class ClientBuilder {
+
+    private ClientBuilder() {
+    }
+
+    static IotClient getClient() {
+        return LazyHolder.IOT_CLIENT;
+    }
+
+    /**
+     * The async client is only built for handlers that run on the async pipeline, see {@link HandlerConfig}.
+     */
+    static IotAsyncClient getAsyncClient() {
+        return AsyncLazyHolder.IOT_ASYNC_CLIENT;
+    }
+
+    static ClientOverrideConfiguration getOverrideConfiguration(int callRetryBudget) {
+        return ClientOverrideConfiguration.builder()
+                .retryPolicy(callRetryBudget > 0 ? RetryPolicy.none() : RetryPolicy.defaultRetryPolicy())
+                .build();
+    }
+
+    // The JVM initializes the holder class on first access only, which makes the client lazy
+    // and guarantees it is built exactly once without explicit locking.
+    private static final class LazyHolder {
+        private static final IotClient IOT_CLIENT = IotClient.builder()
+                .overrideConfiguration(getOverrideConfiguration(HandlerConfig.getCallRetryBudget(System::getenv)))
+                .build();
+    }
+
+    private static final class AsyncLazyHolder {
+        private static final IotAsyncClient IOT_ASYNC_CLIENT = IotAsyncClient.builder()
+                .overrideConfiguration(getOverrideConfiguration(HandlerConfig.getCallRetryBudget(System::getenv)))
+                .build();
+    }
+}
@@ -2,7 +2,7 @@ package com.amazonaws.iot.fleetmetric;
 
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.exception.ExceptionUtils;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.AggregationType;
 import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
@@ -11,10 +11,9 @@ import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.ResourceAlreadyExistsException;
 import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.exceptions.CfnAlreadyExistsException;
-import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
-import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
@@ -24,76 +23,145 @@ import java.util.Map;
 import static com.amazonaws.iot.fleetmetric.HandlerUtils.AWS_SYSTEM_TAG_PREFIX;
 
 @RequiredArgsConstructor
-public class CreateHandler extends BaseHandler<CallbackContext> {
+public class CreateHandler extends BaseHandlerStd {
 
     private final IotClient iotClient;
+    private final HandlerConfig config;
 
     public CreateHandler() {
-        iotClient = IotClient.builder().build();
+        this(ClientBuilder.getClient(), HandlerConfig.fromEnvironment());
+    }
+
+    public CreateHandler(IotClient iotClient) {
+        this(iotClient, new HandlerConfig());
+    }
+
+    @Override
+    protected HandlerConfig getConfig() {
+        return config;
     }
 
     @Override
-    public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
-            AmazonWebServicesClientProxy proxy,
+    protected Action getAction() {
+        return Action.CREATE;
+    }
+
+    @Override
+    protected ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            ApiInvoker invoker,
             ResourceHandlerRequest<ResourceModel> request,
             CallbackContext callbackContext,
-            Logger logger) {
+            HandlerLogger logger) {
 
         CreateFleetMetricRequest createFleetMetricRequest = translateToCreateRequest(request, logger);
 
         ResourceModel model = request.getDesiredResourceState();
         if (!StringUtils.isEmpty(model.getMetricArn())) {
-            logger.log(String.format("MetricArn is read-only, but the caller passed %s.", model.getMetricArn()));
+            logger.info(() -> String.format("MetricArn is read-only, but the caller passed %s.", model.getMetricArn()));
             // Note: this is necessary even though MetricArn is marked readOnly in the schema.
             return ProgressEvent.failed(model, callbackContext, HandlerErrorCode.InvalidRequest,
                     "MetricArn is a read-only property and cannot be set.");
         }
 
+        if (callbackContext != null && callbackContext.getResumeStep() == HandlerStep.CREATE) {
+            // Describe already found no metric before CreateFleetMetric was throttled.
+            // If one was created since, CreateFleetMetric fails with ResourceAlreadyExistsException.
+            logger.debug(() -> String.format("Resuming the creation of %s.", model.getMetricName()));
+            return createFleetMetric(invoker, request, createFleetMetricRequest, model, callbackContext, logger);
+        }
+
+        boolean createTimedOut = callbackContext != null && callbackContext.isCreateTimedOut();
+        if (config.isOptimisticCreate() && !createTimedOut) {
+            // Skip the Describe round trip. CreateFleetMetric fails with ResourceAlreadyExistsException
+            // if the metric exists, which we translate to the same CfnAlreadyExistsException below.
+            logger.debug(() -> String.format("Creating %s without describing it first.", model.getMetricName()));
+            return createFleetMetric(invoker, request, createFleetMetricRequest, model, callbackContext, logger);
+        }
+
         DescribeFleetMetricResponse describeFleetMetricResponse = null;
         try {
             DescribeFleetMetricRequest describeFleetMetricRequest = DescribeFleetMetricRequest.builder()
                     .metricName(model.getMetricName())
                     .build();
-            describeFleetMetricResponse = proxy.injectCredentialsAndInvokeV2(
+            describeFleetMetricResponse = invoker.invoke(
                     describeFleetMetricRequest, iotClient::describeFleetMetric);
         } catch (ResourceNotFoundException e) {
             // expected
         } catch (RuntimeException e) {
-            return Translator.translateExceptionToProgressEvent(model, e, logger);
+            return config.getThrottlingRetryPolicy().translateExceptionToProgressEvent(
+                    model, callbackContext, HandlerStep.DESCRIBE, e, logger);
         }
 
         if (describeFleetMetricResponse != null) {
+            if (createTimedOut && PropertyDiff.getChangedProperties(
+                    model, Translator.translateFromDescribeResponse(describeFleetMetricResponse)).isEmpty()) {
+                // The CreateFleetMetric that timed out went through. Its tags were created with it.
+                logger.info(() -> String.format("%s was created before its CreateFleetMetric timed out.",
+                        model.getMetricName()));
+                return created(request, model, describeFleetMetricResponse.metricArn(), logger);
+            }
             // According to CFN's expectation, if the FleetMetric already exists, createHandler should report a failure.
             // https://github.com/aws-cloudformation/cloudformation-cli/blob/653024cfaab7ecfb8ba7c70212f2fecbabb4b095/src/rpdk/core/contract/suite/handler_create.py#L39
-            logger.log(String.format("Resource already exists %s.", model.getMetricName()));
+            logger.info(() -> String.format("Resource already exists %s.", model.getMetricName()));
             throw new CfnAlreadyExistsException(ResourceAlreadyExistsException.builder()
                     .resourceArn(describeFleetMetricResponse.metricArn()).build());
         }
 
+        return createFleetMetric(invoker, request, createFleetMetricRequest, model, callbackContext, logger);
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> createFleetMetric(
+            ApiInvoker invoker,
+            ResourceHandlerRequest<ResourceModel> request,
+            CreateFleetMetricRequest createFleetMetricRequest,
+            ResourceModel model,
+            CallbackContext callbackContext,
+            HandlerLogger logger) {
+
         CreateFleetMetricResponse createFleetMetricResponse;
         try {
-            createFleetMetricResponse = proxy.injectCredentialsAndInvokeV2(
+            createFleetMetricResponse = invoker.invoke(
                     createFleetMetricRequest, iotClient::createFleetMetric);
         } catch (ResourceAlreadyExistsException e) {
-            logger.log(String.format("Resource already exists %s.", model.getMetricName()));
+            logger.info(() -> String.format("Resource already exists %s.", model.getMetricName()));
             throw new CfnAlreadyExistsException(e);
         } catch (ResourceNotFoundException e) {
-            logger.log(String.format("Indexing is not enabled when creating %s. Message: %s, stack trace: %s",
-                    model.getMetricName(), e.getMessage(), ExceptionUtils.getStackTrace(e)));
+            logger.info(() -> String.format("Indexing is not enabled when creating %s. Message: %s",
+                    model.getMetricName(), e.getMessage()));
             return ProgressEvent.failed(model, callbackContext, HandlerErrorCode.NotFound, e.getMessage());
+        } catch (ApiCallTimeoutException e) {
+            // The metric may have been created before the call timed out, and CreateFleetMetric isn't idempotent:
+            // calling it again would fail with ResourceAlreadyExistsException. So the callback describes it instead.
+            ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                    .translateExceptionToProgressEvent(model, callbackContext, HandlerStep.DESCRIBE, e, logger);
+            if (progressEvent.isInProgress()) {
+                progressEvent.getCallbackContext().setCreateTimedOut(true);
+            }
+            return progressEvent;
         } catch (RuntimeException e) {
-            return Translator.translateExceptionToProgressEvent(model, e, logger);
+            return config.getThrottlingRetryPolicy().translateExceptionToProgressEvent(
+                    model, callbackContext, HandlerStep.CREATE, e, logger);
         }
 
-        model.setMetricArn(createFleetMetricResponse.metricArn());
-        logger.log(String.format("Created %s.", createFleetMetricResponse.metricArn()));
+        return created(request, model, createFleetMetricResponse.metricArn(), logger);
+    }
+
+    private ProgressEvent<ResourceModel, CallbackContext> created(
+            ResourceHandlerRequest<ResourceModel> request,
+            ResourceModel model,
+            String metricArn,
+            HandlerLogger logger) {
+
+        model.setMetricArn(metricArn);
+        config.getArnResolver().remember(request, metricArn);
+        logger.info(() -> String.format("Created %s.", metricArn));
 
         return ProgressEvent.defaultSuccessHandler(model);
     }
 
     private CreateFleetMetricRequest translateToCreateRequest(
             ResourceHandlerRequest<ResourceModel> request,
-            Logger logger) {
+            HandlerLogger logger) {
 
         ResourceModel model = request.getDesiredResourceState();
 
@@ -0,0 +1,92 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * When one handler invocation has to be done by, counted from when it started.
+ *
+ * The handler interface doesn't pass on the Lambda context, so the budget is configured to a little less than
+ * the invocation timeout. Each IoT call gets an API call timeout of what's left of the budget, which bounds the
+ * SDK's own retries and a slow page as well. Once too little is left to start a call, {@link ApiInvoker} throws
+ * {@link ExpiredException} instead, and Create, Update and Delete return IN_PROGRESS to be called back at the step
+ * they were at, rather than being cut off by the timeout and losing what they had done.
+ */
+class Deadline {
+
+    // What's kept back from each call for the handler to return and log once the call is done.
+    static final long RESERVE_MILLIS = 1_000L;
+    // The shortest timeout a call is started with.
+    static final long MIN_CALL_MILLIS = 1_000L;
+
+    /**
+     * Never expires, and leaves the timeouts to the SDK. What handlers use unless a budget is configured.
+     */
+    static final Deadline NONE = new Deadline(Long.MAX_VALUE, () -> 0L);
+
+    private final LongSupplier nanoTime;
+    private final long expiresAtNanos;
+
+    @VisibleForTesting
+    Deadline(long budgetMillis, LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.expiresAtNanos = budgetMillis == Long.MAX_VALUE
+                ? Long.MAX_VALUE
+                : nanoTime.getAsLong() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    static Deadline after(long budgetMillis) {
+        return new Deadline(budgetMillis, System::nanoTime);
+    }
+
+    long getRemainingMillis() {
+        if (this == NONE) {
+            return Long.MAX_VALUE;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - nanoTime.getAsLong());
+    }
+
+    boolean hasTimeForCall() {
+        return getRemainingMillis() - RESERVE_MILLIS >= MIN_CALL_MILLIS;
+    }
+
+    /**
+     * @return the request with an API call timeout of what's left, less the reserve, added to the override
+     * configuration it already has.
+     *
+     * The proxy replaces the override configuration of the request it is given with one carrying the credentials,
+     * so this is applied to the request the proxy hands to the call, see {@link ApiInvoker}.
+     */
+    @SuppressWarnings("unchecked")
+    <RequestT extends AwsRequest> RequestT limit(RequestT request) {
+        if (this == NONE) {
+            return request;
+        }
+        long timeoutMillis = Math.max(MIN_CALL_MILLIS, getRemainingMillis() - RESERVE_MILLIS);
+        return (RequestT) request.toBuilder()
+                .overrideConfiguration(request.overrideConfiguration()
+                        .map(AwsRequestOverrideConfiguration::toBuilder)
+                        .orElseGet(AwsRequestOverrideConfiguration::builder)
+                        .apiCallTimeout(Duration.ofMillis(timeoutMillis))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Thrown instead of starting a call that the invocation has no time left for.
+     */
+    static final class ExpiredException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ExpiredException(String api, long remainingMillis) {
+            super(String.format(Locale.ROOT, "Not calling %s with %d ms of the invocation left", api, remainingMillis));
+        }
+    }
+}
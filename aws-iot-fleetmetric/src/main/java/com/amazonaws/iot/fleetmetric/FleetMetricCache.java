@@ -0,0 +1,224 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.Getter;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.Tag;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * What ReadHandler last found for a metric: its Describe response and its tags.
+ *
+ * CloudFormation often reads a metric several times within seconds, e.g. after a stack operation and for drift
+ * detection. Like the IotClient, one cache lives for the life of the container and is shared by all handlers,
+ * so that Create, Update and Delete can invalidate what Read cached. {@link BaseHandlerStd} does that at the
+ * start of each of their invocations, and again at the end whatever the outcome, since even a failed write may
+ * have changed the metric.
+ *
+ * A Read whose Describe was in flight during a write may still see the metric as it was before. So every
+ * invalidation also moves the key to a new generation: Read takes the generation before it describes the
+ * metric, and the cache refuses what it found if the key has moved on since.
+ *
+ * A write served by another container doesn't invalidate this one, which is why the TTL is short.
+ * Entries are evicted least recently used first once the cache is full.
+ *
+ * Entries are keyed by account, region and metric, not by the credentials of the caller, so a caller may get
+ * what another one in the same account was allowed to read. Hence the cache is off unless a TTL is configured.
+ *
+ * Past its TTL, an entry can still be revalidated: Version and LastModifiedDate act as validators, so if a new
+ * Describe response carries the same ones, the metric hasn't changed and its cached tags can be reused without
+ * ListTagsForResource. Tagging doesn't change the version though, so tags are only reused for
+ * {@link #REVALIDATION_WINDOW_TTLS} TTLs after they were listed.
+ */
+class FleetMetricCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 256;
+    static final int REVALIDATION_WINDOW_TTLS = 12;
+
+    /**
+     * Never stores anything. What handlers use unless the cache is switched on.
+     */
+    static final FleetMetricCache DISABLED = new FleetMetricCache(0, 0, System::nanoTime);
+
+    private static FleetMetricCache shared;
+
+    /**
+     * A cached Describe response and the tags listed along with it.
+     */
+    @Getter
+    static final class CachedMetric {
+        private final DescribeFleetMetricResponse describeResponse;
+        private final List<Tag> tags;
+        private final long expiresAtNanos;
+        private final long revalidatableUntilNanos;
+
+        private CachedMetric(DescribeFleetMetricResponse describeResponse, List<Tag> tags,
+                             long expiresAtNanos, long revalidatableUntilNanos) {
+            this.describeResponse = describeResponse;
+            this.tags = Collections.unmodifiableList(new ArrayList<>(tags));
+            this.expiresAtNanos = expiresAtNanos;
+            this.revalidatableUntilNanos = revalidatableUntilNanos;
+        }
+
+        /**
+         * A deleted and recreated metric starts again from version 1, which is why LastModifiedDate is compared too.
+         *
+         * @return true if the response has the same validators as the cached one, so the metric hasn't changed.
+         */
+        boolean isSameVersion(DescribeFleetMetricResponse response) {
+            return response.version() != null && response.lastModifiedDate() != null
+                    && response.version().equals(describeResponse.version())
+                    && response.lastModifiedDate().equals(describeResponse.lastModifiedDate());
+        }
+    }
+
+    private final long ttlNanos;
+    private final long revalidationWindowNanos;
+    private final int maxEntries;
+    private final LongSupplier nanoTime;
+    private final Map<String, CachedMetric> entries;
+    // The generation of every key invalidated lately. Any other key is at the newest generation evicted.
+    private final Map<String, Long> generations;
+    private long lastGeneration;
+    private long evictedGeneration;
+
+    @VisibleForTesting
+    FleetMetricCache(long ttlMillis, int maxEntries, LongSupplier nanoTime) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.revalidationWindowNanos = ttlNanos * REVALIDATION_WINDOW_TTLS;
+        this.maxEntries = maxEntries;
+        this.nanoTime = nanoTime;
+        // Access order, so that the eldest entry is the least recently used one.
+        this.entries = new LinkedHashMap<String, CachedMetric>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedMetric> eldest) {
+                return size() > FleetMetricCache.this.maxEntries;
+            }
+        };
+        // Once a key's generation is evicted, every key not listed is taken to be at least as new, so a Read
+        // that took the evicted one can't cache what it found.
+        this.generations = new LinkedHashMap<String, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= FleetMetricCache.this.maxEntries) {
+                    return false;
+                }
+                evictedGeneration = Math.max(evictedGeneration, eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The container-wide cache. The TTL comes from the environment, which is the same for every handler
+     * of a container, so the first caller's TTL is the one the cache keeps.
+     */
+    static synchronized FleetMetricCache getShared(int ttlSeconds) {
+        if (shared == null) {
+            shared = new FleetMetricCache(TimeUnit.SECONDS.toMillis(ttlSeconds), DEFAULT_MAX_ENTRIES, System::nanoTime);
+        }
+        return shared;
+    }
+
+    /**
+     * Metric names are only unique within an account and region.
+     *
+     * @return the key of the metric the request is about, or null if the request doesn't name one.
+     */
+    static String key(ResourceHandlerRequest<ResourceModel> request) {
+        ResourceModel model = request.getDesiredResourceState();
+        if (model == null || model.getMetricName() == null) {
+            return null;
+        }
+        return request.getAwsAccountId() + "/" + request.getRegion() + "/" + model.getMetricName();
+    }
+
+    /**
+     * @return the entry for the key, or null if there is none or it has expired.
+     */
+    synchronized CachedMetric get(String key) {
+        CachedMetric entry = getRevalidatable(key);
+        if (entry == null || nanoTime.getAsLong() - entry.getExpiresAtNanos() >= 0) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the entry for the key, expired or not, or null if there is none or it's too old to revalidate.
+     */
+    synchronized CachedMetric getRevalidatable(String key) {
+        if (key == null || maxEntries == 0) {
+            return null;
+        }
+        CachedMetric entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (nanoTime.getAsLong() - entry.getRevalidatableUntilNanos() >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the generation of the key, to pass to {@link #put} or {@link #revalidate} once the metric is described.
+     */
+    synchronized long generation(String key) {
+        Long generation = key == null ? null : generations.get(key);
+        return generation == null ? evictedGeneration : generation;
+    }
+
+    /**
+     * Caches what Read found, unless the key was invalidated since the generation was taken.
+     */
+    synchronized void put(String key, long generation, DescribeFleetMetricResponse describeResponse, List<Tag> tags) {
+        if (key == null || maxEntries == 0 || generation != generation(key)) {
+            return;
+        }
+        long now = nanoTime.getAsLong();
+        entries.put(key, new CachedMetric(describeResponse, tags, now + ttlNanos, now + revalidationWindowNanos));
+    }
+
+    /**
+     * Caches the new Describe response along with the tags of the entry it revalidated, for another TTL.
+     * The tags are as old as they were, so the revalidation window doesn't move.
+     * Like {@link #put}, does nothing if the key was invalidated since the generation was taken.
+     */
+    synchronized void revalidate(
+            String key, long generation, CachedMetric entry, DescribeFleetMetricResponse describeResponse) {
+        if (key == null || maxEntries == 0 || generation != generation(key)) {
+            return;
+        }
+        entries.put(key, new CachedMetric(describeResponse, entry.getTags(),
+                nanoTime.getAsLong() + ttlNanos, entry.getRevalidatableUntilNanos()));
+    }
+
+    /**
+     * Removes the entry and moves the key to a new generation.
+     */
+    synchronized void invalidate(String key) {
+        if (key != null && maxEntries > 0) {
+            entries.remove(key);
+            generations.remove(key);
+            generations.put(key, ++lastGeneration);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,222 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import lombok.Getter;
+import lombok.Setter;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.cloudformation.Action;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Switches for optional handler behavior.
+ *
+ * A new instance has the defaults, with every optional mode off, which is what the unit tests use.
+ * The handlers created by the wrapper read their config from the Lambda environment instead, where a variable
+ * that isn't set leaves its mode off as well, so that a new version doesn't change how existing stacks behave.
+ */
+@Getter
+@Setter
+class HandlerConfig {
+
+    static final String OPTIMISTIC_CREATE_ENV = "FLEET_METRIC_OPTIMISTIC_CREATE";
+    static final String ASYNC_HANDLERS_ENV = "FLEET_METRIC_ASYNC_HANDLERS";
+    static final String THROTTLING_RETRIES_ENV = "FLEET_METRIC_THROTTLING_RETRIES";
+    static final String INDEX_READY_TIMEOUT_ENV = "FLEET_METRIC_INDEX_READY_TIMEOUT_SECONDS";
+    static final String LOG_LEVEL_ENV = "FLEET_METRIC_LOG_LEVEL";
+    static final String LIST_ENRICHMENT_ENV = "FLEET_METRIC_LIST_ENRICHMENT";
+    static final String LIST_CONCURRENCY_ENV = "FLEET_METRIC_LIST_CONCURRENCY";
+    static final String LIST_TIME_BUDGET_ENV = "FLEET_METRIC_LIST_TIME_BUDGET_SECONDS";
+    static final String DESCRIBE_CACHE_TTL_ENV = "FLEET_METRIC_DESCRIBE_CACHE_TTL_SECONDS";
+    static final String RESOLVE_ARN_ENV = "FLEET_METRIC_RESOLVE_ARN";
+    static final String EXPECTED_VERSION_ENV = "FLEET_METRIC_EXPECTED_VERSION";
+    static final String RATE_LIMITS_ENV = "FLEET_METRIC_RATE_LIMITS";
+    static final String INVOCATION_BUDGET_ENV = "FLEET_METRIC_INVOCATION_BUDGET_SECONDS";
+    static final String CALL_RETRY_BUDGET_ENV = "FLEET_METRIC_CALL_RETRY_BUDGET";
+    static final String CIRCUIT_BREAKER_THRESHOLD_ENV = "FLEET_METRIC_CIRCUIT_BREAKER_THRESHOLD";
+    static final String CIRCUIT_BREAKER_OPEN_ENV = "FLEET_METRIC_CIRCUIT_BREAKER_OPEN_SECONDS";
+    static final String SINGLE_FLIGHT_ENV = "FLEET_METRIC_SINGLE_FLIGHT";
+
+    static final int DEFAULT_LIST_CONCURRENCY = 10;
+    static final long DEFAULT_LIST_TIME_BUDGET_MILLIS = 20_000L;
+
+    /**
+     * If set, CreateHandler calls CreateFleetMetric without describing the metric first,
+     * and relies on the service's ResourceAlreadyExistsException to detect an existing metric.
+     */
+    private boolean optimisticCreate;
+
+    /**
+     * The handlers that make their IoT calls through IotAsyncClient and run independent calls concurrently.
+     * Only Read and Update have independent calls; the other handlers ignore this.
+     */
+    private Set<Action> asyncActions = EnumSet.noneOf(Action.class);
+
+    /**
+     * Supplies the client for the async pipeline. Only called by handlers in {@link #asyncActions}.
+     */
+    private Supplier<IotAsyncClient> asyncClient = ClientBuilder::getAsyncClient;
+
+    /**
+     * How Create, Update and Delete retry throttled calls, and wait for the fleet index, through callbacks.
+     */
+    private CallbackRetryPolicy throttlingRetryPolicy = CallbackRetryPolicy.NONE;
+
+    /**
+     * The lowest level the handlers log at. DEBUG adds a line for each IoT call.
+     */
+    private HandlerLogger.Level logLevel = HandlerLogger.Level.INFO;
+
+    /**
+     * If set, ListHandler describes every listed metric and lists its tags, and returns full models.
+     */
+    private boolean listEnrichment;
+
+    /**
+     * How many metrics ListHandler enriches at once.
+     */
+    private int listConcurrency = DEFAULT_LIST_CONCURRENCY;
+
+    /**
+     * How long ListHandler spends enriching one page before returning what it has, with a token for the rest.
+     */
+    private long listTimeBudgetMillis = DEFAULT_LIST_TIME_BUDGET_MILLIS;
+
+    /**
+     * Where ReadHandler caches what it described, and the other handlers invalidate it.
+     */
+    private FleetMetricCache describeCache = FleetMetricCache.DISABLED;
+
+    /**
+     * Where UpdateHandler gets the ARN from when it has no other reason to describe the metric.
+     */
+    private ArnResolver arnResolver = ArnResolver.DESCRIBE_ONLY;
+
+    /**
+     * If set, UpdateHandler sends the version it last saw with UpdateFleetMetric, so that it doesn't overwrite
+     * a change made since without reading it first.
+     */
+    private boolean expectedVersionUpdate;
+
+    /**
+     * Paces the IoT calls of all handlers to a rate per API.
+     */
+    private RateLimiter rateLimiter = RateLimiter.DISABLED;
+
+    /**
+     * Starts the deadline of an invocation, when the handler is entered.
+     */
+    private Supplier<Deadline> invocationDeadline = () -> Deadline.NONE;
+
+    /**
+     * How failed IoT calls are retried within an invocation, before the throttling retry policy takes over.
+     */
+    private CallRetryPolicy callRetryPolicy = CallRetryPolicy.NONE;
+
+    /**
+     * Fails the IoT calls of all handlers fast while an API keeps failing in a region.
+     */
+    private CircuitBreaker circuitBreaker = CircuitBreaker.DISABLED;
+
+    /**
+     * Shares the Describe and ListTags calls that handlers make at the same time.
+     */
+    private SingleFlight singleFlight = SingleFlight.DISABLED;
+
+    boolean isAsync(Action action) {
+        return asyncActions.contains(action);
+    }
+
+    static HandlerConfig fromEnvironment() {
+        return fromEnvironment(System::getenv);
+    }
+
+    @VisibleForTesting
+    static HandlerConfig fromEnvironment(Function<String, String> environment) {
+        HandlerConfig config = new HandlerConfig();
+        config.setOptimisticCreate(Boolean.parseBoolean(environment.apply(OPTIMISTIC_CREATE_ENV)));
+        config.setAsyncActions(parseActions(environment.apply(ASYNC_HANDLERS_ENV)));
+        String logLevel = environment.apply(LOG_LEVEL_ENV);
+        if (logLevel != null && !logLevel.trim().isEmpty()) {
+            config.setLogLevel(HandlerLogger.Level.valueOf(logLevel.trim().toUpperCase(Locale.ROOT)));
+        }
+        config.setListEnrichment(Boolean.parseBoolean(environment.apply(LIST_ENRICHMENT_ENV)));
+        config.setListConcurrency(parseInt(environment.apply(LIST_CONCURRENCY_ENV), DEFAULT_LIST_CONCURRENCY));
+        String listTimeBudget = environment.apply(LIST_TIME_BUDGET_ENV);
+        if (listTimeBudget != null) {
+            config.setListTimeBudgetMillis(TimeUnit.SECONDS.toMillis(parseInt(listTimeBudget, 0)));
+        }
+        int describeCacheTtl = parseInt(environment.apply(DESCRIBE_CACHE_TTL_ENV), 0);
+        if (describeCacheTtl > 0) {
+            config.setDescribeCache(FleetMetricCache.getShared(describeCacheTtl));
+        }
+        String resolveArn = environment.apply(RESOLVE_ARN_ENV);
+        if (resolveArn != null && Boolean.parseBoolean(resolveArn.trim())) {
+            config.setArnResolver(ArnResolver.getShared());
+        }
+        config.setExpectedVersionUpdate(Boolean.parseBoolean(environment.apply(EXPECTED_VERSION_ENV)));
+        Map<String, Double> rateLimits = RateLimiter.parseRates(environment.apply(RATE_LIMITS_ENV));
+        if (!rateLimits.isEmpty()) {
+            config.setRateLimiter(RateLimiter.getShared(rateLimits));
+        }
+        int invocationBudget = parseInt(environment.apply(INVOCATION_BUDGET_ENV), 0);
+        if (invocationBudget > 0) {
+            long invocationBudgetMillis = TimeUnit.SECONDS.toMillis(invocationBudget);
+            config.setInvocationDeadline(() -> Deadline.after(invocationBudgetMillis));
+        }
+        int callRetryBudget = getCallRetryBudget(environment);
+        if (callRetryBudget > 0) {
+            config.setCallRetryPolicy(new CallRetryPolicy(callRetryBudget));
+        }
+        int circuitBreakerThreshold = parseInt(environment.apply(CIRCUIT_BREAKER_THRESHOLD_ENV), 0);
+        if (circuitBreakerThreshold > 0) {
+            config.setCircuitBreaker(CircuitBreaker.getShared(circuitBreakerThreshold,
+                    parseInt(environment.apply(CIRCUIT_BREAKER_OPEN_ENV), CircuitBreaker.DEFAULT_OPEN_SECONDS)));
+        }
+        String singleFlight = environment.apply(SINGLE_FLIGHT_ENV);
+        if (singleFlight != null && Boolean.parseBoolean(singleFlight.trim())) {
+            config.setSingleFlight(SingleFlight.getShared());
+        }
+        String throttlingRetries = environment.apply(THROTTLING_RETRIES_ENV);
+        String indexReadyTimeout = environment.apply(INDEX_READY_TIMEOUT_ENV);
+        if (throttlingRetries != null || indexReadyTimeout != null) {
+            config.setThrottlingRetryPolicy(new CallbackRetryPolicy(
+                    parseInt(throttlingRetries, 0),
+                    parseInt(indexReadyTimeout, 0)));
+        }
+        return config;
+    }
+
+    /**
+     * How many calls one invocation may retry, or 0 if the invocation doesn't retry them and the SDK does.
+     * Read on its own by {@link ClientBuilder}, which builds the clients before any handler config.
+     */
+    static int getCallRetryBudget(Function<String, String> environment) {
+        return parseInt(environment.apply(CALL_RETRY_BUDGET_ENV), 0);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    // Accepts a comma-separated list of actions, e.g. "Read,Update". A typo fails the container start
+    // rather than silently running the handler on the other pipeline.
+    private static Set<Action> parseActions(String actions) {
+        Set<Action> result = EnumSet.noneOf(Action.class);
+        if (actions == null) {
+            return result;
+        }
+        for (String action : actions.split(",")) {
+            if (!action.trim().isEmpty()) {
+                result.add(Action.valueOf(action.trim().toUpperCase(Locale.ROOT)));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.function.Supplier;
+
+/**
+ * Level-gated logging over the CloudFormation Logger.
+ *
+ * Messages are passed as suppliers, so a message below the configured level is never formatted.
+ * The handlers log each IoT call at DEBUG and the outcome of the invocation at INFO.
+ * Since it's a Logger itself, it can be handed to code that only logs plain strings, which log at INFO.
+ */
+class HandlerLogger implements Logger {
+
+    enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        OFF
+    }
+
+    private final Logger logger;
+    private final Level level;
+
+    HandlerLogger(Logger logger) {
+        this(logger, Level.INFO);
+    }
+
+    HandlerLogger(Logger logger, Level level) {
+        this.logger = logger;
+        this.level = level;
+    }
+
+    boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    void debug(Supplier<String> message) {
+        log(Level.DEBUG, message);
+    }
+
+    void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
+    void warn(Supplier<String> message) {
+        log(Level.WARN, message);
+    }
+
+    @Override
+    public void log(String message) {
+        if (isEnabled(Level.INFO)) {
+            logger.log(message);
+        }
+    }
+
+    private void log(Level messageLevel, Supplier<String> message) {
+        if (isEnabled(messageLevel)) {
+            logger.log(message.get());
+        }
+    }
+}
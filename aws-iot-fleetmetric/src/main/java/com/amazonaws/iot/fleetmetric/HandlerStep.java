@@ -0,0 +1,14 @@
+package com.amazonaws.iot.fleetmetric;
+
+/**
+ * The steps a handler can be called back at. Each handler only uses the steps of its own flow.
+ */
+public enum HandlerStep {
+    DESCRIBE,
+    CREATE,
+    UPDATE,
+    LIST_TAGS,
+    TAG_RESOURCE,
+    UNTAG_RESOURCE,
+    DELETE
+}
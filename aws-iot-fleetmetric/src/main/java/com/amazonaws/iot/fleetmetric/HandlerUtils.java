@@ -1,39 +1,131 @@
 package com.amazonaws.iot.fleetmetric;
 
+import software.amazon.awssdk.services.iot.IotAsyncClient;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
 import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
 import software.amazon.awssdk.services.iot.model.Tag;
-import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
-import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class HandlerUtils {
 
     public static final String AWS_SYSTEM_TAG_PREFIX = "aws:";
 
+    // arn:${Partition}:iot:${Region}:${Account}:fleetmetric/${MetricName}
+    private static final String FLEET_METRIC_ARN_FORMAT = "arn:%s:iot:%s:%s:fleetmetric/%s";
+
+    /**
+     * Derives the ARN of a fleet metric from the request, without calling the service.
+     *
+     * @return the ARN, or null if the request lacks the partition, region or account to build it.
+     */
+    static String getFleetMetricArn(ResourceHandlerRequest<ResourceModel> request, String metricName) {
+        if (request.getAwsPartition() == null || request.getRegion() == null
+                || request.getAwsAccountId() == null || metricName == null) {
+            return null;
+        }
+        return String.format(FLEET_METRIC_ARN_FORMAT,
+                request.getAwsPartition(), request.getRegion(), request.getAwsAccountId(), metricName);
+    }
+
+    /**
+     * Waits for the future and rethrows its failure as is, so that callers can translate
+     * service exceptions the same way they do for synchronous calls.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a call whose outcome is no longer needed, so that it doesn't outlive the invocation,
+     * and ignores that outcome.
+     */
+    static void awaitQuietly(CompletableFuture<?> future) {
+        future.handle((value, e) -> null).join();
+    }
+
+    /**
+     * A future that has already failed with the exception, for async calls that fail before they start.
+     * CompletableFuture.failedFuture only came with Java 9.
+     */
+    static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
     public static List<software.amazon.awssdk.services.iot.model.Tag> listTags(
             IotClient iotClient,
-            AmazonWebServicesClientProxy proxy,
+            ApiInvoker invoker,
             String resourceArn,
-            Logger logger) {
+            HandlerLogger logger) {
 
-        String nextToken = null;
         List<Tag> result = new ArrayList<>();
-        do {
+        try (PrefetchingPaginator<Tag> tags = new PrefetchingPaginator<>(nextToken -> {
             ListTagsForResourceRequest listTagsRequest = ListTagsForResourceRequest.builder()
                     .resourceArn(resourceArn)
                     .nextToken(nextToken)
                     .build();
-            ListTagsForResourceResponse listTagsForResourceResponse = proxy.injectCredentialsAndInvokeV2(
+            ListTagsForResourceResponse listTagsForResourceResponse = invoker.invoke(
                     listTagsRequest, iotClient::listTagsForResource);
-            result.addAll(listTagsForResourceResponse.tags());
-            nextToken = listTagsForResourceResponse.nextToken();
-        } while (nextToken != null);
+            return new PrefetchingPaginator.Page<>(
+                    listTagsForResourceResponse.tags(), listTagsForResourceResponse.nextToken());
+        })) {
+            tags.forEachRemaining(result::add);
+        }
 
-        logger.log(String.format("Listed tags for %s.", resourceArn));
+        logger.debug(() -> String.format("Listed tags for %s.", resourceArn));
         return result;
     }
+
+    /**
+     * Async counterpart of {@link #listTags}. Pages are still fetched one after another,
+     * since each page needs the token of the previous one.
+     */
+    static CompletableFuture<List<Tag>> listTagsAsync(
+            IotAsyncClient iotAsyncClient,
+            ApiInvoker invoker,
+            String resourceArn,
+            HandlerLogger logger) {
+
+        return listTagsAsync(iotAsyncClient, invoker, resourceArn, null, new ArrayList<>())
+                .thenApply(result -> {
+                    logger.debug(() -> String.format("Listed tags for %s.", resourceArn));
+                    return result;
+                });
+    }
+
+    private static CompletableFuture<List<Tag>> listTagsAsync(
+            IotAsyncClient iotAsyncClient,
+            ApiInvoker invoker,
+            String resourceArn,
+            String nextToken,
+            List<Tag> result) {
+
+        ListTagsForResourceRequest listTagsRequest = ListTagsForResourceRequest.builder()
+                .resourceArn(resourceArn)
+                .nextToken(nextToken)
+                .build();
+        return invoker.invokeAsync(listTagsRequest, iotAsyncClient::listTagsForResource)
+                .thenCompose(listTagsForResourceResponse -> {
+                    result.addAll(listTagsForResourceResponse.tags());
+                    if (listTagsForResourceResponse.nextToken() == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    return listTagsAsync(iotAsyncClient, invoker, resourceArn,
+                            listTagsForResourceResponse.nextToken(), result);
+                });
+    }
 }
@@ -1,60 +1,323 @@
 package com.amazonaws.iot.fleetmetric;
 
+import com.google.common.annotations.VisibleForTesting;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.FleetMetricNameAndArn;
 import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
 import software.amazon.awssdk.services.iot.model.ListFleetMetricsResponse;
-import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
-import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
-@RequiredArgsConstructor
-public class ListHandler extends BaseHandler<CallbackContext> {
+public class ListHandler extends BaseHandlerStd {
+
+    // The most ListFleetMetrics returns at once. Larger pages mean fewer List invocations.
+    static final int MAX_RESULTS = 250;
 
     private final IotClient iotClient;
+    private final HandlerConfig config;
+    private final LongSupplier nanoTime;
 
     public ListHandler() {
-        iotClient = IotClient.builder().build();
+        this(ClientBuilder.getClient(), HandlerConfig.fromEnvironment());
+    }
+
+    public ListHandler(IotClient iotClient) {
+        this(iotClient, new HandlerConfig());
+    }
+
+    public ListHandler(IotClient iotClient, HandlerConfig config) {
+        this(iotClient, config, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime the clock the list time budget is measured with.
+     */
+    @VisibleForTesting
+    ListHandler(IotClient iotClient, HandlerConfig config, LongSupplier nanoTime) {
+        this.iotClient = iotClient;
+        this.config = config;
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    protected HandlerConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    protected Action getAction() {
+        return Action.LIST;
     }
 
     @Override
-    public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
-            AmazonWebServicesClientProxy proxy,
+    protected ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            ApiInvoker invoker,
             ResourceHandlerRequest<ResourceModel> request,
             CallbackContext callbackContext,
-            Logger logger) {
+            HandlerLogger logger) {
+
+        // Enriching stops in time to return before the invocation's own deadline, if that's sooner.
+        long timeBudgetMillis = Math.min(config.getListTimeBudgetMillis(),
+                invoker.getDeadline().getRemainingMillis() - Deadline.RESERVE_MILLIS);
+        long deadlineNanos = nanoTime.getAsLong() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeBudgetMillis));
+        PageToken pageToken = PageToken.parse(request.getNextToken());
 
         ListFleetMetricsRequest listFleetMetricsRequest = ListFleetMetricsRequest.builder()
-                .nextToken(request.getNextToken())
+                .nextToken(pageToken.getServiceToken())
+                .maxResults(MAX_RESULTS)
                 .build();
 
         ListFleetMetricsResponse listFleetMetricsResponse;
         try {
-            listFleetMetricsResponse = proxy.injectCredentialsAndInvokeV2(
+            listFleetMetricsResponse = invoker.invoke(
                     listFleetMetricsRequest, iotClient::listFleetMetrics);
         } catch (RuntimeException e) {
             return Translator.translateExceptionToProgressEvent(request.getDesiredResourceState(), e, logger);
         }
 
-        List<ResourceModel> models = listFleetMetricsResponse.fleetMetrics().stream()
-                .map(fleetMetricNameAndArn -> ResourceModel.builder()
-                        .metricName(fleetMetricNameAndArn.metricName())
-                        .metricArn(fleetMetricNameAndArn.metricArn())
-                        .build())
-                .collect(Collectors.toList());
+        List<FleetMetricNameAndArn> fleetMetrics =
+                skipReturned(listFleetMetricsResponse.fleetMetrics(), pageToken.getLastMetricName());
+
+        List<ResourceModel> models;
+        String nextToken = listFleetMetricsResponse.nextToken();
+        if (config.isListEnrichment()) {
+            Enrichment enrichment = enrich(invoker, fleetMetrics, deadlineNanos, logger);
+            models = new ArrayList<>();
+            try {
+                int enriched = collectEnrichedModels(enrichment.getModels(), deadlineNanos, models, logger);
+                if (enriched < fleetMetrics.size()) {
+                    // If every metric dealt with was deleted, none of them is listed again either.
+                    String lastMetricName = models.isEmpty()
+                            ? pageToken.getLastMetricName()
+                            : models.get(models.size() - 1).getMetricName();
+                    nextToken = new PageToken(pageToken.getServiceToken(), lastMetricName).encode();
+                    logger.info(() -> String.format("List time budget ran out after enriching %d of %d metrics.",
+                            enriched, fleetMetrics.size()));
+                }
+            } catch (RuntimeException e) {
+                return Translator.translateExceptionToProgressEvent(request.getDesiredResourceState(), e, logger);
+            } finally {
+                enrichment.stop();
+            }
+        } else {
+            models = fleetMetrics.stream()
+                    .map(fleetMetricNameAndArn -> ResourceModel.builder()
+                            .metricName(fleetMetricNameAndArn.metricName())
+                            .metricArn(fleetMetricNameAndArn.metricArn())
+                            .build())
+                    .collect(Collectors.toList());
+        }
 
-        logger.log(String.format("Listed %s resources for accountId %s.",
+        logger.info(() -> String.format("Listed %s resources for accountId %s.",
                 ResourceModel.TYPE_NAME, request.getAwsAccountId()));
 
         return ProgressEvent.<ResourceModel, CallbackContext>builder()
                 .resourceModels(models)
-                .nextToken(listFleetMetricsResponse.nextToken())
+                .nextToken(nextToken)
                 .status(OperationStatus.SUCCESS)
                 .build();
     }
+
+    /**
+     * Leaves out the metrics of a page listed again that an earlier invocation already returned, i.e. those up to
+     * and including the last one it returned. Metrics created or deleted in the meantime don't shift that point.
+     * Should that metric itself have been deleted, the whole page is returned again, since a metric returned twice
+     * does less harm than one left out.
+     */
+    private static List<FleetMetricNameAndArn> skipReturned(
+            List<FleetMetricNameAndArn> fleetMetrics, String lastMetricName) {
+
+        if (lastMetricName == null) {
+            return fleetMetrics;
+        }
+        for (int i = 0; i < fleetMetrics.size(); i++) {
+            if (lastMetricName.equals(fleetMetrics.get(i).metricName())) {
+                return fleetMetrics.subList(i + 1, fleetMetrics.size());
+            }
+        }
+        return fleetMetrics;
+    }
+
+    /**
+     * Describes the metrics and lists their tags on at most listConcurrency threads of the shared pool.
+     * Every worker takes the next metric in page order, so the metrics are enriched roughly in order,
+     * and stops taking metrics once the deadline has passed or the enrichment has been stopped.
+     */
+    private Enrichment enrich(
+            ApiInvoker invoker,
+            List<FleetMetricNameAndArn> fleetMetrics,
+            long deadlineNanos,
+            HandlerLogger logger) {
+
+        List<CompletableFuture<ResourceModel>> enrichedModels = new ArrayList<>(fleetMetrics.size());
+        for (int i = 0; i < fleetMetrics.size(); i++) {
+            enrichedModels.add(new CompletableFuture<>());
+        }
+
+        AtomicInteger nextMetric = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        Runnable worker = () -> {
+            while (!stopped.get()) {
+                int i = nextMetric.getAndIncrement();
+                // The first metric is taken even past the deadline, since the caller waits for it regardless.
+                if (i >= fleetMetrics.size() || (i > 0 && nanoTime.getAsLong() - deadlineNanos >= 0)) {
+                    return;
+                }
+                try {
+                    enrichedModels.get(i).complete(describe(invoker, fleetMetrics.get(i), stopped, logger));
+                } catch (RuntimeException e) {
+                    enrichedModels.get(i).completeExceptionally(e);
+                }
+            }
+        };
+
+        int workerCount = Math.min(Math.max(1, config.getListConcurrency()), fleetMetrics.size());
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = CompletableFuture.runAsync(worker, SharedExecutor.get());
+        }
+        // Once every model is done, the workers have nothing left to do.
+        CompletableFuture.allOf(enrichedModels.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> stopped.set(true));
+        return new Enrichment(enrichedModels, stopped, CompletableFuture.allOf(workers));
+    }
+
+    /**
+     * Adds the enriched models to the result in page order, until one isn't done by the deadline.
+     * The first model is always waited for, so every page makes progress however small the budget.
+     * A metric deleted since it was listed is left out.
+     *
+     * @return how many metrics of the page were dealt with.
+     */
+    private int collectEnrichedModels(
+            List<CompletableFuture<ResourceModel>> enrichedModels,
+            long deadlineNanos,
+            List<ResourceModel> models,
+            HandlerLogger logger) {
+
+        for (int i = 0; i < enrichedModels.size(); i++) {
+            try {
+                CompletableFuture<ResourceModel> model = enrichedModels.get(i);
+                models.add(i == 0
+                        ? model.get()
+                        : model.get(Math.max(0, deadlineNanos - nanoTime.getAsLong()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                return i;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return i;
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof ResourceNotFoundException)) {
+                    throw e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                }
+                int skipped = i;
+                logger.debug(() -> String.format("Metric %d of the page was deleted since it was listed.", skipped));
+            }
+        }
+        return enrichedModels.size();
+    }
+
+    private ResourceModel describe(
+            ApiInvoker invoker, FleetMetricNameAndArn fleetMetric, AtomicBoolean stopped, HandlerLogger logger) {
+
+        DescribeFleetMetricRequest describeFleetMetricRequest = DescribeFleetMetricRequest.builder()
+                .metricName(fleetMetric.metricName())
+                .build();
+        DescribeFleetMetricResponse describeFleetMetricResponse =
+                invoker.invoke(describeFleetMetricRequest, iotClient::describeFleetMetric);
+        logger.debug(() -> String.format("Called Describe for %s.", fleetMetric.metricArn()));
+        if (stopped.get()) {
+            // Nobody waits for this model any more, so its tags aren't worth another call.
+            throw new CancellationException();
+        }
+
+        ResourceModel model = Translator.translateFromDescribeResponse(describeFleetMetricResponse);
+        model.setTags(Translator.translateTagsToCfn(
+                HandlerUtils.listTags(iotClient, invoker, fleetMetric.metricArn(), logger)));
+        return model;
+    }
+
+    /**
+     * The enriched models of a page, and the workers enriching them.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static final class Enrichment {
+
+        // One future per metric, in page order. Metrics no worker got to are never completed.
+        private final List<CompletableFuture<ResourceModel>> models;
+        private final AtomicBoolean stopped;
+        private final CompletableFuture<Void> workers;
+
+        /**
+         * Keeps the workers from starting any more calls, and waits for the calls they already started so that
+         * none of them outlives the invocation. Every worker has at most one call in flight.
+         */
+        void stop() {
+            stopped.set(true);
+            models.forEach(model -> model.cancel(false));
+            HandlerUtils.awaitQuietly(workers);
+        }
+    }
+
+    /**
+     * The nextToken ListHandler returns. When the time budget runs out partway through a page, the page has
+     * to be listed again with the token it was listed with, and the metrics up to the last one returned skipped.
+     * Otherwise it's the service's token as is, so callers that don't enrich see no difference.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    @VisibleForTesting
+    static final class PageToken {
+
+        private static final String PREFIX = "enriched:";
+
+        private final String serviceToken;
+        // The last metric of the page already returned, or null to start at the beginning of the page.
+        private final String lastMetricName;
+
+        static PageToken parse(String nextToken) {
+            if (nextToken == null || !nextToken.startsWith(PREFIX)) {
+                return new PageToken(nextToken, null);
+            }
+            // enriched:<last metric name, base64>:<service token, empty for the first page>
+            String[] parts = nextToken.substring(PREFIX.length()).split(":", 2);
+            String serviceToken = parts.length < 2 || parts[1].isEmpty() ? null : parts[1];
+            return new PageToken(serviceToken,
+                    new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8));
+        }
+
+        String encode() {
+            if (lastMetricName == null) {
+                return serviceToken;
+            }
+            // The name is encoded, so that a colon in it can't be mistaken for the separator.
+            return PREFIX + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(lastMetricName.getBytes(StandardCharsets.UTF_8))
+                    + ":" + (serviceToken == null ? "" : serviceToken);
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package com.amazonaws.iot.fleetmetric;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Iterates over the items of a paginated IoT API, fetching the next page in the background
+ * while the caller is still going through the current one.
+ *
+ * The first page is fetched on the calling thread, and the background fetching only starts if it has a
+ * next token, so a single-page result, the usual case for tags, costs no thread hop. At most prefetchDepth
+ * fetched pages wait for the caller at a time. A failed fetch is rethrown when the caller reaches that
+ * page, and nothing after it is fetched. Closing the paginator stops the fetching, e.g. when the caller
+ * gives up partway through.
+ */
+final class PrefetchingPaginator<T> implements Iterator<T>, AutoCloseable {
+
+    static final int DEFAULT_PREFETCH_DEPTH = 2;
+
+    /**
+     * One page of items, and the token of the next page, or null for the last one.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Page<T> {
+        private final List<T> items;
+        private final String nextToken;
+    }
+
+    private final Function<String, Page<T>> fetchPage;
+    private final ExecutorService executor;
+    private final BlockingQueue<CompletableFuture<Page<T>>> prefetchedPages;
+
+    private volatile boolean closed;
+    private Future<?> prefetching;
+    private Iterator<T> currentPage = Collections.emptyIterator();
+    private boolean started;
+    private boolean lastPage;
+
+    /**
+     * @param fetchPage fetches the page for the given token, null for the first page.
+     */
+    PrefetchingPaginator(Function<String, Page<T>> fetchPage) {
+        this(fetchPage, DEFAULT_PREFETCH_DEPTH, SharedExecutor.get());
+    }
+
+    PrefetchingPaginator(Function<String, Page<T>> fetchPage, int prefetchDepth, ExecutorService executor) {
+        this.fetchPage = fetchPage;
+        this.executor = executor;
+        this.prefetchedPages = new ArrayBlockingQueue<>(Math.max(1, prefetchDepth));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (lastPage || closed) {
+                return false;
+            }
+            Page<T> page = nextPage();
+            currentPage = page.getItems().iterator();
+            lastPage = page.getNextToken() == null;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentPage.next();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (prefetching != null) {
+            prefetching.cancel(true);
+        }
+        prefetchedPages.clear();
+    }
+
+    private Page<T> nextPage() {
+        if (!started) {
+            started = true;
+            Page<T> firstPage = fetchPage.apply(null);
+            if (firstPage.getNextToken() != null) {
+                String nextToken = firstPage.getNextToken();
+                prefetching = executor.submit(() -> prefetch(nextToken));
+            }
+            return firstPage;
+        }
+
+        CompletableFuture<Page<T>> page;
+        try {
+            page = prefetchedPages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for the next page.", e);
+        }
+        try {
+            return HandlerUtils.join(page);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void prefetch(String firstToken) {
+        String nextToken = firstToken;
+        try {
+            while (nextToken != null && !closed) {
+                CompletableFuture<Page<T>> page = new CompletableFuture<>();
+                try {
+                    Page<T> fetched = fetchPage.apply(nextToken);
+                    page.complete(fetched);
+                    nextToken = fetched.getNextToken();
+                } catch (RuntimeException | Error e) {
+                    // Handed to the caller, which would otherwise wait for this page forever.
+                    page.completeExceptionally(e);
+                    nextToken = null;
+                }
+                if (!closed) {
+                    // Blocks while prefetchDepth pages are already waiting.
+                    prefetchedPages.put(page);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for room in the queue.
+            Thread.currentThread().interrupt();
+        }
+    }
+}
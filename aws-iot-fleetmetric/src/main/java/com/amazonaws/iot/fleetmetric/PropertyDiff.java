@@ -0,0 +1,59 @@
+package com.amazonaws.iot.fleetmetric;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compares the mutable properties of two fleet metric models.
+ *
+ * A property the desired model leaves unset is not treated as a change, because UpdateFleetMetric
+ * leaves unset fields untouched as well. MetricName, MetricArn, the read-only properties and Tags
+ * are not compared; tags are reconciled separately with TagResource and UntagResource.
+ */
+final class PropertyDiff {
+
+    private PropertyDiff() {
+    }
+
+    /**
+     * @return the schema names of the properties whose desired value differs from the baseline,
+     * in schema order. Empty if UpdateFleetMetric would be a no-op.
+     */
+    static Set<String> getChangedProperties(ResourceModel desired, ResourceModel baseline) {
+        Set<String> changedProperties = new LinkedHashSet<>();
+        addIfChanged(changedProperties, "Description", desired.getDescription(), baseline.getDescription());
+        addIfChanged(changedProperties, "QueryString", desired.getQueryString(), baseline.getQueryString());
+        addIfChanged(changedProperties, "Period", desired.getPeriod(), baseline.getPeriod());
+        addIfChanged(changedProperties, "AggregationField",
+                desired.getAggregationField(), baseline.getAggregationField());
+        addIfChanged(changedProperties, "QueryVersion", desired.getQueryVersion(), baseline.getQueryVersion());
+        addIfChanged(changedProperties, "IndexName", desired.getIndexName(), baseline.getIndexName());
+        addIfChanged(changedProperties, "Unit", desired.getUnit(), baseline.getUnit());
+        if (desired.getAggregationType() != null
+                && !isSameAggregationType(desired.getAggregationType(), baseline.getAggregationType())) {
+            changedProperties.add("AggregationType");
+        }
+        return changedProperties;
+    }
+
+    private static void addIfChanged(Set<String> changedProperties, String propertyName,
+                                     Object desiredValue, Object baselineValue) {
+        if (desiredValue != null && !desiredValue.equals(baselineValue)) {
+            changedProperties.add(propertyName);
+        }
+    }
+
+    // AggregationType values are declared with insertionOrder false, so their order doesn't matter.
+    private static boolean isSameAggregationType(AggregationType desired, AggregationType baseline) {
+        return baseline != null
+                && Objects.equals(desired.getName(), baseline.getName())
+                && Objects.equals(toSet(desired.getValues()), toSet(baseline.getValues()));
+    }
+
+    private static Set<String> toSet(List<String> values) {
+        return values == null ? null : new HashSet<>(values);
+    }
+}
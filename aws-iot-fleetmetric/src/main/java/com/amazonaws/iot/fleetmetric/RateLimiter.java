@@ -0,0 +1,247 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces the IoT calls of this container to a rate per API, so that handlers running at once stay within the
+ * account's TPS quotas instead of finding out from a ThrottlingException.
+ *
+ * Each API has its own token bucket, which allows a burst of one second's worth of calls and then the rate.
+ * The bucket is kept as the time the next call would be allowed at without the burst (the generic cell rate
+ * algorithm), so a call takes a token with one compare-and-set, without a lock; the APIs don't share any state.
+ * A call that would have to wait longer than {@link #MAX_WAIT_MILLIS} doesn't wait and fails with a
+ * {@link RejectedException} instead, which {@link Translator} reports as Throttling. Unlike a ThrottlingException,
+ * it doesn't slow the rate down, isn't retried within the invocation and doesn't count towards the circuit breaker,
+ * since IoT was never called.
+ *
+ * The quota is per account and region, and other containers and clients use it too, so the configured rate is
+ * only an upper bound. The rate adapts like TCP congestion control (AIMD): it halves when IoT throttles a call,
+ * at most once per second, and grows back by a fiftieth of the configured rate with each call that succeeds.
+ *
+ * Like the IotClient, one limiter lives for the life of the container and is shared by all handlers.
+ */
+class RateLimiter {
+
+    static final long MAX_WAIT_MILLIS = 2_000L;
+    static final double BURST_SECONDS = 1.0;
+    static final double DECREASE_FACTOR = 0.5;
+    static final double INCREASE_FRACTION = 1.0 / 50;
+    static final double MIN_RATE_FRACTION = 1.0 / 20;
+    static final long DECREASE_INTERVAL_MILLIS = 1_000L;
+
+    // The key of the rate for the APIs not given a rate of their own.
+    static final String ANY_API = "*";
+
+    /**
+     * Never waits. What handlers use unless rate limits are configured.
+     */
+    static final RateLimiter DISABLED = new RateLimiter(Collections.emptyMap(), System::nanoTime, Sleeper.THREAD);
+
+    private static RateLimiter shared;
+
+    /**
+     * How the caller waits for its turn. Tests pass one that advances a fake clock.
+     */
+    interface Sleeper {
+        Sleeper THREAD = TimeUnit.NANOSECONDS::sleep;
+
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private final Map<String, Double> ratesByApi;
+    private final LongSupplier nanoTime;
+    private final Sleeper sleeper;
+    private final Map<String, Bucket> bucketsByApi = new ConcurrentHashMap<>();
+
+    /**
+     * @param ratesByApi calls per second by API name, e.g. DescribeFleetMetric, with {@link #ANY_API} for the others.
+     *                   An API without a rate isn't limited.
+     */
+    @VisibleForTesting
+    RateLimiter(Map<String, Double> ratesByApi, LongSupplier nanoTime, Sleeper sleeper) {
+        this.ratesByApi = Collections.unmodifiableMap(new HashMap<>(ratesByApi));
+        this.nanoTime = nanoTime;
+        this.sleeper = sleeper;
+    }
+
+    static synchronized RateLimiter getShared(Map<String, Double> ratesByApi) {
+        if (shared == null) {
+            shared = new RateLimiter(ratesByApi, System::nanoTime, Sleeper.THREAD);
+        }
+        return shared;
+    }
+
+    /**
+     * Parses rates like "DescribeFleetMetric=10,ListTagsForResource=10,*=5". A typo fails the container start.
+     */
+    static Map<String, Double> parseRates(String rates) {
+        Map<String, Double> result = new HashMap<>();
+        if (rates == null) {
+            return result;
+        }
+        for (String entry : rates.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] apiAndRate = entry.split("=");
+            double rate = apiAndRate.length == 2 ? Double.parseDouble(apiAndRate[1].trim()) : -1;
+            if (rate <= 0) {
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "Expected a positive rate per API like DescribeFleetMetric=10, got %s", entry));
+            }
+            result.put(apiAndRate[0].trim(), rate);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until the API may be called.
+     *
+     * @throws RejectedException if that would take longer than {@link #MAX_WAIT_MILLIS}.
+     */
+    void acquire(String api) {
+        Bucket bucket = getBucket(api);
+        if (bucket == null) {
+            return;
+        }
+        long waitNanos = bucket.take(nanoTime.getAsLong());
+        if (waitNanos < 0) {
+            throw new RejectedException(api, bucket.getRate());
+        }
+        if (waitNanos > 0) {
+            try {
+                sleeper.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call " + api, e);
+            }
+        }
+    }
+
+    /**
+     * Called when IoT throttled a call to the API: halves its rate.
+     */
+    void onThrottled(String api) {
+        Bucket bucket = getBucket(api);
+        if (bucket != null) {
+            bucket.decrease(nanoTime.getAsLong());
+        }
+    }
+
+    /**
+     * Called when a call to the API succeeded: grows its rate back towards the configured one.
+     */
+    void onSuccess(String api) {
+        Bucket bucket = getBucket(api);
+        if (bucket != null) {
+            bucket.increase();
+        }
+    }
+
+    /**
+     * @return the rate the API is limited to now, or null if it isn't limited.
+     */
+    Double getRate(String api) {
+        Bucket bucket = getBucket(api);
+        return bucket == null ? null : bucket.getRate();
+    }
+
+    private Bucket getBucket(String api) {
+        Bucket bucket = bucketsByApi.get(api);
+        if (bucket != null) {
+            return bucket;
+        }
+        Double rate = ratesByApi.containsKey(api) ? ratesByApi.get(api) : ratesByApi.get(ANY_API);
+        return rate == null ? null : bucketsByApi.computeIfAbsent(api, ignored -> new Bucket(rate));
+    }
+
+    private static final class Bucket {
+
+        private final double configuredRate;
+        // The current rate, as the bits of a double, so that it can be updated with compare-and-set.
+        private final AtomicLong rateBits;
+        // When the next call would be allowed if there were no burst.
+        private final AtomicLong theoreticalArrivalNanos = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong lastDecreaseNanos = new AtomicLong(Long.MIN_VALUE);
+
+        private Bucket(double configuredRate) {
+            this.configuredRate = configuredRate;
+            this.rateBits = new AtomicLong(Double.doubleToLongBits(configuredRate));
+        }
+
+        private double getRate() {
+            return Double.longBitsToDouble(rateBits.get());
+        }
+
+        /**
+         * @return how long to wait before calling, or -1 if that's longer than the caller may wait,
+         * in which case no token is taken.
+         */
+        private long take(long now) {
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / getRate());
+            long burstNanos = (long) (TimeUnit.SECONDS.toNanos(1) * BURST_SECONDS);
+            while (true) {
+                long arrival = theoreticalArrivalNanos.get();
+                long next = Math.max(arrival, now) + intervalNanos;
+                long waitNanos = Math.max(0, next - burstNanos - now);
+                if (waitNanos > TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS)) {
+                    return -1;
+                }
+                if (theoreticalArrivalNanos.compareAndSet(arrival, next)) {
+                    return waitNanos;
+                }
+            }
+        }
+
+        private void decrease(long now) {
+            // Calls throttled together are one congestion signal, not one each.
+            long last = lastDecreaseNanos.get();
+            if (last != Long.MIN_VALUE && now - last < TimeUnit.MILLISECONDS.toNanos(DECREASE_INTERVAL_MILLIS)) {
+                return;
+            }
+            if (lastDecreaseNanos.compareAndSet(last, now)) {
+                update(Math.max(getRate() * DECREASE_FACTOR, configuredRate * MIN_RATE_FRACTION));
+            }
+        }
+
+        private void increase() {
+            while (true) {
+                long bits = rateBits.get();
+                double rate = Double.longBitsToDouble(bits);
+                if (rate >= configuredRate) {
+                    return;
+                }
+                double increased = Math.min(rate + configuredRate * INCREASE_FRACTION, configuredRate);
+                if (rateBits.compareAndSet(bits, Double.doubleToLongBits(increased))) {
+                    return;
+                }
+            }
+        }
+
+        private void update(double rate) {
+            rateBits.set(Double.doubleToLongBits(rate));
+        }
+    }
+
+    /**
+     * Thrown instead of calling an API that this container is already calling at its rate.
+     */
+    static final class RejectedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String api, double rate) {
+            super(String.format(Locale.ROOT,
+                    "%s is limited to %.1f calls per second in this container", api, rate));
+        }
+    }
+}
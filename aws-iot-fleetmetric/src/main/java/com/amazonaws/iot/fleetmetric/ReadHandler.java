@@ -2,75 +2,208 @@ package com.amazonaws.iot.fleetmetric;
 
 import com.google.common.annotations.VisibleForTesting;
 import lombok.RequiredArgsConstructor;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
-import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
-import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RequiredArgsConstructor
-public class ReadHandler extends BaseHandler<CallbackContext> {
+public class ReadHandler extends BaseHandlerStd {
 
     private final IotClient iotClient;
+    private final HandlerConfig config;
 
     public ReadHandler() {
-        iotClient = IotClient.builder().build();
+        this(ClientBuilder.getClient(), HandlerConfig.fromEnvironment());
+    }
+
+    public ReadHandler(IotClient iotClient) {
+        this(iotClient, new HandlerConfig());
+    }
+
+    @Override
+    protected HandlerConfig getConfig() {
+        return config;
     }
 
     @Override
-    public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
-            AmazonWebServicesClientProxy proxy,
+    protected Action getAction() {
+        return Action.READ;
+    }
+
+    @Override
+    protected ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            ApiInvoker invoker,
             ResourceHandlerRequest<ResourceModel> request,
             CallbackContext callbackContext,
-            Logger logger) {
+            HandlerLogger logger) {
+
+        String cacheKey = FleetMetricCache.key(request);
+        // Taken before Describe, so that what a write in the meantime made stale isn't cached.
+        long cacheGeneration = config.getDescribeCache().generation(cacheKey);
+        FleetMetricCache.CachedMetric cached = config.getDescribeCache().get(cacheKey);
+        if (cached != null) {
+            logger.debug(() -> String.format("Described %s from the cache.", cached.getDescribeResponse().metricArn()));
+            return ProgressEvent.defaultSuccessHandler(toResourceModel(cached.getDescribeResponse(), cached.getTags()));
+        }
+
+        // An expired entry whose tags Describe may let us reuse.
+        FleetMetricCache.CachedMetric revalidatable = config.getDescribeCache().getRevalidatable(cacheKey);
+
+        if (config.isAsync(Action.READ)) {
+            return handleRequestAsync(invoker, request, cacheKey, cacheGeneration, revalidatable, logger);
+        }
+
+        ResourceModel model = request.getDesiredResourceState();
+
+        // The ARN is deterministic, so we can list the tags while Describe is still in flight.
+        // If the request doesn't let us derive it, we fall back to listing the tags after Describe.
+        // If Describe may revalidate the cached tags, we don't list them before we know.
+        String derivedArn = HandlerUtils.getFleetMetricArn(request, model.getMetricName());
+        CompletableFuture<List<software.amazon.awssdk.services.iot.model.Tag>> derivedArnTags = null;
+        if (derivedArn != null && revalidatable == null) {
+            derivedArnTags = CompletableFuture.supplyAsync(
+                    () -> listTags(invoker, derivedArn, logger), SharedExecutor.get());
+        }
+
+        try {
+            DescribeFleetMetricRequest describeFleetMetricRequest = DescribeFleetMetricRequest.builder()
+                    .metricName(model.getMetricName())
+                    .build();
+
+            DescribeFleetMetricResponse describeFleetMetricResponse;
+            try {
+                describeFleetMetricResponse = invoker.invoke(
+                        describeFleetMetricRequest, iotClient::describeFleetMetric);
+            } catch (RuntimeException e) {
+                return Translator.translateExceptionToProgressEvent(model, e, logger);
+            }
+
+            String metricArn = describeFleetMetricResponse.metricArn();
+            logger.debug(() -> String.format("Called Describe for %s.", metricArn));
+
+            // Now call ListTagsForResource, because describe API doesn't provide the tags.
+            List<software.amazon.awssdk.services.iot.model.Tag> iotTags;
+            if (revalidatable != null && revalidatable.isSameVersion(describeFleetMetricResponse)) {
+                logger.debug(() -> String.format("Version of %s unchanged, reusing the cached tags.", metricArn));
+                iotTags = revalidatable.getTags();
+            } else if (derivedArnTags != null && derivedArn.equals(metricArn)) {
+                iotTags = HandlerUtils.join(derivedArnTags);
+            } else {
+                if (derivedArnTags != null) {
+                    logger.debug(() -> String.format("Derived ARN %s doesn't match %s, listing tags again.",
+                            derivedArn, metricArn));
+                }
+                iotTags = listTags(invoker, metricArn, logger);
+                logger.debug(() -> String.format("Called ListTags for %s.", metricArn));
+            }
+
+            logger.info(() -> String.format("Successfully described %s.", metricArn));
+
+            cache(cacheKey, cacheGeneration, revalidatable, describeFleetMetricResponse, iotTags);
+            config.getArnResolver().remember(request, metricArn);
+            return ProgressEvent.defaultSuccessHandler(toResourceModel(describeFleetMetricResponse, iotTags));
+        } finally {
+            // Describe failed or found another ARN: the tags listed for the derived one aren't needed, but the call
+            // mustn't outlive the invocation and its call metrics.
+            if (derivedArnTags != null) {
+                HandlerUtils.awaitQuietly(derivedArnTags);
+            }
+        }
+    }
+
+    /**
+     * Same calls as the synchronous path, made through IotAsyncClient. Describe and the tag listing for
+     * the derived ARN are both in flight at once, and no handler thread blocks while they are.
+     */
+    private ProgressEvent<ResourceModel, CallbackContext> handleRequestAsync(
+            ApiInvoker invoker,
+            ResourceHandlerRequest<ResourceModel> request,
+            String cacheKey,
+            long cacheGeneration,
+            FleetMetricCache.CachedMetric revalidatable,
+            HandlerLogger logger) {
 
         ResourceModel model = request.getDesiredResourceState();
+        IotAsyncClient iotAsyncClient = config.getAsyncClient().get();
+
+        String derivedArn = HandlerUtils.getFleetMetricArn(request, model.getMetricName());
+        CompletableFuture<List<software.amazon.awssdk.services.iot.model.Tag>> derivedArnTags =
+                derivedArn == null || revalidatable != null
+                ? null
+                : HandlerUtils.listTagsAsync(iotAsyncClient, invoker, derivedArn, logger);
 
         DescribeFleetMetricRequest describeFleetMetricRequest = DescribeFleetMetricRequest.builder()
                 .metricName(model.getMetricName())
                 .build();
 
-        DescribeFleetMetricResponse describeFleetMetricResponse;
+        CompletableFuture<ResourceModel> responseModel = invoker
+                .invokeAsync(describeFleetMetricRequest, iotAsyncClient::describeFleetMetric)
+                .thenCompose(describeFleetMetricResponse -> {
+                    String metricArn = describeFleetMetricResponse.metricArn();
+                    logger.debug(() -> String.format("Called Describe for %s.", metricArn));
+
+                    CompletableFuture<List<software.amazon.awssdk.services.iot.model.Tag>> iotTags;
+                    if (revalidatable != null && revalidatable.isSameVersion(describeFleetMetricResponse)) {
+                        logger.debug(() -> String.format("Version of %s unchanged, reusing the cached tags.",
+                                metricArn));
+                        iotTags = CompletableFuture.completedFuture(revalidatable.getTags());
+                    } else if (derivedArnTags != null && derivedArn.equals(metricArn)) {
+                        iotTags = derivedArnTags;
+                    } else {
+                        if (derivedArnTags != null) {
+                            logger.debug(() -> String.format("Derived ARN %s doesn't match %s, listing tags again.",
+                                    derivedArn, metricArn));
+                        }
+                        iotTags = HandlerUtils.listTagsAsync(iotAsyncClient, invoker, metricArn, logger);
+                    }
+
+                    return iotTags.thenApply(tags -> {
+                        cache(cacheKey, cacheGeneration, revalidatable, describeFleetMetricResponse, tags);
+                        config.getArnResolver().remember(request, metricArn);
+                        return toResourceModel(describeFleetMetricResponse, tags);
+                    });
+                });
+
         try {
-            describeFleetMetricResponse = proxy.injectCredentialsAndInvokeV2(
-                    describeFleetMetricRequest, iotClient::describeFleetMetric);
+            ProgressEvent<ResourceModel, CallbackContext> progressEvent =
+                    ProgressEvent.defaultSuccessHandler(HandlerUtils.join(responseModel));
+            logger.info(() -> String.format("Successfully described %s.", progressEvent.getResourceModel().getMetricArn()));
+            return progressEvent;
         } catch (RuntimeException e) {
             return Translator.translateExceptionToProgressEvent(model, e, logger);
+        } finally {
+            // As on the synchronous path, the tags listed for the derived ARN may not have been needed.
+            if (derivedArnTags != null) {
+                HandlerUtils.awaitQuietly(derivedArnTags);
+            }
         }
+    }
+
+    private void cache(String cacheKey,
+                       long cacheGeneration,
+                       FleetMetricCache.CachedMetric revalidatable,
+                       DescribeFleetMetricResponse describeFleetMetricResponse,
+                       List<software.amazon.awssdk.services.iot.model.Tag> iotTags) {
+        if (revalidatable != null && revalidatable.isSameVersion(describeFleetMetricResponse)) {
+            config.getDescribeCache().revalidate(cacheKey, cacheGeneration, revalidatable, describeFleetMetricResponse);
+        } else {
+            config.getDescribeCache().put(cacheKey, cacheGeneration, describeFleetMetricResponse, iotTags);
+        }
+    }
 
-        String metricArn = describeFleetMetricResponse.metricArn();
-        logger.log(String.format("Called Describe for %s.", metricArn));
-
-        // Now call ListTagsForResource, because describe API doesn't provide the tags.
-        List<software.amazon.awssdk.services.iot.model.Tag> iotTags = listTags(proxy, metricArn, logger);
-        logger.log(String.format("Called ListTags for %s.", metricArn));
-
-        Set<Tag> responseTags = Translator.translateTagsToCfn(iotTags);
-
-        logger.log(String.format("Successfully described %s.", metricArn));
-
-        return ProgressEvent.defaultSuccessHandler(
-                ResourceModel.builder()
-                        .metricName(describeFleetMetricResponse.metricName())
-                        .metricArn(describeFleetMetricResponse.metricArn())
-                        .description(describeFleetMetricResponse.description())
-                        .queryString(describeFleetMetricResponse.queryString())
-                        .period(describeFleetMetricResponse.period())
-                        .aggregationField(describeFleetMetricResponse.aggregationField())
-                        .queryVersion(describeFleetMetricResponse.queryVersion())
-                        .indexName(describeFleetMetricResponse.indexName())
-                        .unit(describeFleetMetricResponse.unitAsString())
-                        .aggregationType(AggregationType.builder()
-                                .name(describeFleetMetricResponse.aggregationType().nameAsString())
-                                .values(describeFleetMetricResponse.aggregationType().values())
-                                .build())
-                        .tags(responseTags)
-                        .build());
+    private static ResourceModel toResourceModel(
+            DescribeFleetMetricResponse describeFleetMetricResponse,
+            List<software.amazon.awssdk.services.iot.model.Tag> iotTags) {
+        ResourceModel model = Translator.translateFromDescribeResponse(describeFleetMetricResponse);
+        model.setTags(Translator.translateTagsToCfn(iotTags));
+        return model;
     }
 
     // This facilitates mocking in the unit tests.
@@ -78,8 +211,8 @@ public class ReadHandler extends BaseHandler<CallbackContext> {
     // to the constructor, but the framework requires the constructor to have 0 args.
     @VisibleForTesting
     List<software.amazon.awssdk.services.iot.model.Tag> listTags(
-            AmazonWebServicesClientProxy proxy,
-            String resourceArn, Logger logger) {
-        return HandlerUtils.listTags(iotClient, proxy, resourceArn, logger);
+            ApiInvoker invoker,
+            String resourceArn, HandlerLogger logger) {
+        return HandlerUtils.listTags(iotClient, invoker, resourceArn, logger);
     }
 }
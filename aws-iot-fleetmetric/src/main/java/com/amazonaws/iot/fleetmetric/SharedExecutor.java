@@ -0,0 +1,40 @@
+package com.amazonaws.iot.fleetmetric;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the thread pool handlers use to run independent IoT calls concurrently.
+ *
+ * Like the IotClient, the pool lives for the life of the container. Its threads are daemon threads,
+ * so they never keep the JVM alive once the handler wrapper is done.
+ */
+final class SharedExecutor {
+
+    private static final String THREAD_NAME_PREFIX = "fleetmetric-worker-";
+
+    private SharedExecutor() {
+    }
+
+    static ExecutorService get() {
+        return LazyHolder.EXECUTOR;
+    }
+
+    private static final class LazyHolder {
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory());
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.annotations.VisibleForTesting;
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shares one DescribeFleetMetric or ListTagsForResource call among the handlers that make it at the same time.
+ *
+ * When the handlers run in a long-lived process, e.g. through HandlerWrapperExecutable, CloudFormation can read
+ * the same metric from several requests at once. The first of them makes the call; the others, until it
+ * completes, join it and get its outcome, response or exception, instead of making the same call again.
+ * A call is keyed by account, region, API and resource, and is evicted as soon as it completes, so nothing is
+ * kept past that: reusing results for longer is what {@link FleetMetricCache} is for. The key doesn't include the
+ * credentials of the caller, so a joiner may get what another caller in the same account was allowed to read,
+ * which is why sharing is off unless switched on.
+ *
+ * A call in flight may have started before a write to the metric that a joiner should see. So an invocation
+ * stops sharing once it has written, see {@link ApiInvoker}, and {@link BaseHandlerStd} forgets the calls in flight
+ * for a metric once a handler that writes is done with it. Calls made after that start afresh.
+ *
+ * The calls in flight are kept in a ConcurrentHashMap, so joining or making one takes no lock.
+ * Like the IotClient, one instance lives for the life of the container and is shared by all handlers.
+ */
+class SingleFlight {
+
+    /**
+     * Never shares. What handlers use unless sharing is switched on.
+     */
+    static final SingleFlight DISABLED = new SingleFlight(false);
+
+    private static SingleFlight shared;
+
+    private final boolean enabled;
+    private final Map<String, CompletableFuture<Object>> callsInFlight = new ConcurrentHashMap<>();
+
+    @VisibleForTesting
+    SingleFlight(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    static synchronized SingleFlight getShared() {
+        if (shared == null) {
+            shared = new SingleFlight(true);
+        }
+        return shared;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the key of the call, or null if it's not one that is shared.
+     */
+    static String key(String accountId, String region, AwsRequest request) {
+        if (request instanceof DescribeFleetMetricRequest) {
+            return key(accountId, region, "DescribeFleetMetric", ((DescribeFleetMetricRequest) request).metricName());
+        }
+        if (request instanceof ListTagsForResourceRequest) {
+            ListTagsForResourceRequest listTagsRequest = (ListTagsForResourceRequest) request;
+            String resource = listTagsRequest.nextToken() == null
+                    ? listTagsRequest.resourceArn()
+                    : listTagsRequest.resourceArn() + "?nextToken=" + listTagsRequest.nextToken();
+            return key(accountId, region, "ListTagsForResource", resource);
+        }
+        return null;
+    }
+
+    private static String key(String accountId, String region, String api, String resource) {
+        return accountId + "/" + region + "/" + api + "/" + resource;
+    }
+
+    /**
+     * Makes the call, unless the same one is in flight, in which case runs onJoined and returns that one's outcome.
+     * A call that throws instead of returning a future fails the returned future and shares the exception the
+     * same way.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> call, Runnable onJoined) {
+        if (!enabled || key == null) {
+            return call(call);
+        }
+
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = callsInFlight.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            onJoined.run();
+            // A copy, so that a joiner can't complete the call for the others.
+            return (CompletableFuture<T>) inFlight.thenApply(Function.identity());
+        }
+
+        CompletableFuture<T> response = call(call);
+        response.whenComplete((value, e) -> {
+            // Evicted before it completes, so that whoever sees it complete can't join it any more.
+            callsInFlight.remove(key, flight);
+            if (e == null) {
+                flight.complete(value);
+            } else {
+                flight.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    private static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            return HandlerUtils.failedFuture(e);
+        }
+    }
+
+    /**
+     * Stops the calls in flight for the metric the request is about from being joined. They still complete.
+     */
+    void forget(ResourceHandlerRequest<ResourceModel> request) {
+        ResourceModel model = request.getDesiredResourceState();
+        if (!enabled || model == null || model.getMetricName() == null) {
+            return;
+        }
+        String describeKey = key(request.getAwsAccountId(), request.getRegion(), "DescribeFleetMetric",
+                model.getMetricName());
+        String listTagsKey = key(request.getAwsAccountId(), request.getRegion(), "ListTagsForResource",
+                HandlerUtils.getFleetMetricArn(request, model.getMetricName()));
+        callsInFlight.keySet().removeIf(key -> key.equals(describeKey) || key.equals(listTagsKey)
+                || key.startsWith(listTagsKey + "?"));
+    }
+
+    @VisibleForTesting
+    int getCallsInFlight() {
+        return callsInFlight.size();
+    }
+}
@@ -1,6 +1,8 @@
 package com.amazonaws.iot.fleetmetric;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
 import software.amazon.awssdk.services.iot.model.InternalFailureException;
 import software.amazon.awssdk.services.iot.model.InvalidRequestException;
@@ -11,11 +13,12 @@ import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.iot.model.Tag;
 import software.amazon.awssdk.services.iot.model.ThrottlingException;
 import software.amazon.awssdk.services.iot.model.UnauthorizedException;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
-import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 
+import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -32,7 +35,7 @@ import java.util.stream.Collectors;
 public class Translator {
 
     static ProgressEvent<ResourceModel, CallbackContext> translateExceptionToProgressEvent(
-            ResourceModel model, Exception e, Logger logger) {
+            ResourceModel model, Exception e, HandlerLogger logger) {
 
         HandlerErrorCode errorCode = translateExceptionToErrorCode(e, logger);
         ProgressEvent<ResourceModel, CallbackContext> progressEvent =
@@ -48,10 +51,26 @@ public class Translator {
     }
 
 
-    static HandlerErrorCode translateExceptionToErrorCode(Exception e, Logger logger) {
-        logger.log(String.format("Translating exception \"%s\", stack trace: %s",
+    static HandlerErrorCode translateExceptionToErrorCode(Exception e, HandlerLogger logger) {
+        HandlerErrorCode errorCode = classifyException(e);
+        if (errorCode != null) {
+            // A service error we know is an expected outcome, and its stack trace only leads into the SDK,
+            // so we don't pay for capturing it.
+            logger.info(() -> "Translating " + e.getClass().getSimpleName() + " \"" + e.getMessage() + "\" to "
+                    + errorCode);
+            return errorCode;
+        }
+
+        // Any other exception at this point is unexpected, so it's logged at every level but OFF.
+        logger.warn(() -> String.format("Unexpected exception \"%s\", stack trace: %s",
                 e.getMessage(), ExceptionUtils.getStackTrace(e)));
+        return HandlerErrorCode.InternalFailure;
+    }
 
+    /**
+     * @return the error code for a service error we know, or null for any other exception.
+     */
+    private static HandlerErrorCode classifyException(Exception e) {
         // For Throttling and InternalFailure, we want CFN to retry, and it will do so based on the error code.
         // Reference with Retriable/Terminal in comments for each: https://tinyurl.com/y378qdno
         if (e instanceof ResourceAlreadyExistsException) {
@@ -68,17 +87,60 @@ public class Translator {
             return HandlerErrorCode.Throttling;
         } else if (e instanceof ResourceNotFoundException) {
             return HandlerErrorCode.NotFound;
+        } else if (e instanceof VersionConflictException) {
+            // Someone else changed the metric since we read it. Retriable, once the new version has been read.
+            return HandlerErrorCode.ResourceConflict;
         } else if (e instanceof IotException && ((IotException) e).statusCode() == 403) {
             return HandlerErrorCode.AccessDenied;
         } else if (e instanceof IndexNotReadyException) {
             return HandlerErrorCode.GeneralServiceException;
-        } else {
-            logger.log(String.format("Unexpected exception \"%s\"", e.getMessage()));
-            // Any other exception at this point is unexpected.k
+        } else if (e instanceof Deadline.ExpiredException || e instanceof ApiCallTimeoutException) {
+            // The invocation ran out of time. Retriable, with a fresh invocation.
             return HandlerErrorCode.InternalFailure;
+        } else if (e instanceof RateLimiter.RejectedException) {
+            // This container is calling IoT at its rate. Retriable, once the calls before it are made.
+            return HandlerErrorCode.Throttling;
+        } else if (e instanceof CircuitBreaker.OpenException) {
+            // IoT keeps failing in the region. Retriable, once the circuit lets calls through again.
+            return HandlerErrorCode.ServiceInternalError;
+        } else {
+            return null;
         }
     }
 
+    /**
+     * Builds a model from the Describe response. Describe doesn't return tags, so they're left unset.
+     */
+    static ResourceModel translateFromDescribeResponse(DescribeFleetMetricResponse response) {
+        AggregationType aggregationType = null;
+        if (response.aggregationType() != null) {
+            aggregationType = AggregationType.builder()
+                    .name(response.aggregationType().nameAsString())
+                    .values(response.aggregationType().values())
+                    .build();
+        }
+        return ResourceModel.builder()
+                .metricName(response.metricName())
+                .metricArn(response.metricArn())
+                .description(response.description())
+                .queryString(response.queryString())
+                .period(response.period())
+                .aggregationField(response.aggregationField())
+                .queryVersion(response.queryVersion())
+                .indexName(response.indexName())
+                .unit(response.unitAsString())
+                .aggregationType(aggregationType)
+                .creationDate(toEpochSeconds(response.creationDate()))
+                .lastModifiedDate(toEpochSeconds(response.lastModifiedDate()))
+                .version(response.version() == null ? null : response.version().doubleValue())
+                .build();
+    }
+
+    // The schema declares the dates as numbers, so we use seconds since the epoch, keeping the milliseconds.
+    private static Double toEpochSeconds(Instant instant) {
+        return instant == null ? null : instant.toEpochMilli() / 1000.0;
+    }
+
     static Set<Tag> translateTagsToSdk(Map<String, String> tags) {
 
         if (tags == null) {
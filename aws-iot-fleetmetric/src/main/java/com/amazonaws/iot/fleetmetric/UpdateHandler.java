@@ -2,6 +2,7 @@ package com.amazonaws.iot.fleetmetric;
 
 import com.google.common.annotations.VisibleForTesting;
 import lombok.RequiredArgsConstructor;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.AggregationType;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
@@ -10,100 +11,390 @@ import software.amazon.awssdk.services.iot.model.Tag;
 import software.amazon.awssdk.services.iot.model.TagResourceRequest;
 import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
 import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
 import software.amazon.awssdk.utils.StringUtils;
-import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
-import software.amazon.cloudformation.proxy.Logger;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static com.amazonaws.iot.fleetmetric.HandlerUtils.AWS_SYSTEM_TAG_PREFIX;
 
 @RequiredArgsConstructor
-public class UpdateHandler extends BaseHandler<CallbackContext> {
+public class UpdateHandler extends BaseHandlerStd {
 
     private final IotClient iotClient;
+    private final HandlerConfig config;
 
     public UpdateHandler() {
-        iotClient = IotClient.builder().build();
+        this(ClientBuilder.getClient(), HandlerConfig.fromEnvironment());
+    }
+
+    public UpdateHandler(IotClient iotClient) {
+        this(iotClient, new HandlerConfig());
+    }
+
+    @Override
+    protected HandlerConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    protected Action getAction() {
+        return Action.UPDATE;
     }
 
     @Override
-    public ProgressEvent<ResourceModel, CallbackContext> handleRequest(
-            AmazonWebServicesClientProxy proxy,
+    protected ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+            ApiInvoker invoker,
             ResourceHandlerRequest<ResourceModel> request,
             CallbackContext callbackContext,
-            Logger logger) {
+            HandlerLogger logger) {
 
         ResourceModel desiredModel = request.getDesiredResourceState();
         String desiredArn = desiredModel.getMetricArn();
         if (!StringUtils.isEmpty(desiredArn)) {
-            logger.log(String.format("MetricArn is read-only, but the caller passed %s. Ignored.", desiredModel.getMetricArn()));
+            logger.info(() -> String.format("MetricArn is read-only, but the caller passed %s. Ignored.", desiredModel.getMetricArn()));
         }
 
-        try {
-            UpdateFleetMetricRequest updateFleetMetricRequest = UpdateFleetMetricRequest.builder()
-                    .metricName(desiredModel.getMetricName())
-                    .description(desiredModel.getDescription())
-                    .queryString(desiredModel.getQueryString())
-                    .period(desiredModel.getPeriod())
-                    .aggregationField(desiredModel.getAggregationField())
-                    .queryVersion(desiredModel.getQueryVersion())
-                    .indexName(desiredModel.getIndexName())
-                    .unit(desiredModel.getUnit())
-                    .aggregationType(AggregationType.builder()
-                            .name(desiredModel.getAggregationType().getName())
-                            .values(desiredModel.getAggregationType().getValues())
-                            .build())
-                    .build();
+        if (config.isAsync(Action.UPDATE)) {
+            return handleRequestAsync(invoker, request, callbackContext, logger);
+        }
+
+        // The update runs as a sequence of steps, one IoT call each. When a step fails and is retried
+        // through a callback, the context says which steps are done and carries what they found,
+        // so the callback picks up at the failed step and no completed call is made again.
+        CallbackContext context = callbackContext == null ? new CallbackContext() : callbackContext;
+        HandlerStep step = context.getResumeStep() == null
+                ? getFirstStep(request, context, logger)
+                : context.getResumeStep();
+        while (step != null) {
+            try {
+                step = runStep(step, invoker, request, context, logger);
+            } catch (VersionConflictException e) {
+                // The metric changed since the version we read. Read it again, and with it its new version,
+                // so the callback decides afresh whether and how to update.
+                logger.info(() -> String.format("%s is no longer at version %d, describing it again.",
+                        desiredModel.getMetricName(), context.getExpectedVersion()));
+                context.setExpectedVersion(null);
+                return config.getThrottlingRetryPolicy().translateExceptionToProgressEvent(
+                        desiredModel, context, HandlerStep.DESCRIBE, e, logger);
+            } catch (RuntimeException e) {
+                return config.getThrottlingRetryPolicy().translateExceptionToProgressEvent(
+                        desiredModel, context, step, e, logger);
+            }
+        }
 
-            proxy.injectCredentialsAndInvokeV2(updateFleetMetricRequest,
-                    iotClient::updateFleetMetric);
+        return ProgressEvent.defaultSuccessHandler(request.getDesiredResourceState());
+    }
 
-            logger.log(String.format("UpdateFleetMetric for %s.", desiredModel.getMetricName()));
-        } catch (RuntimeException e) {
-            ProgressEvent<ResourceModel, CallbackContext> event = Translator.translateExceptionToProgressEvent(desiredModel, e, logger);
-            return event;
+    /**
+     * Describe tells whether UpdateFleetMetric would change anything, and gives the ARN for tagging.
+     * When the template changes a property, UpdateFleetMetric is called regardless, so only the ARN is
+     * needed, and that can usually be resolved without a call. When the update expects a version,
+     * that has to be known without a call too.
+     */
+    private HandlerStep getFirstStep(ResourceHandlerRequest<ResourceModel> request,
+                                     CallbackContext context,
+                                     HandlerLogger logger) {
+        ResourceModel previousModel = request.getPreviousResourceState();
+        if (previousModel == null
+                || PropertyDiff.getChangedProperties(request.getDesiredResourceState(), previousModel).isEmpty()) {
+            return HandlerStep.DESCRIBE;
+        }
+        String metricArn = config.getArnResolver().resolve(request);
+        if (metricArn == null) {
+            return HandlerStep.DESCRIBE;
+        }
+        Long knownVersion = null;
+        if (config.isExpectedVersionUpdate()) {
+            knownVersion = getKnownVersion(request);
+            if (knownVersion == null) {
+                return HandlerStep.DESCRIBE;
+            }
         }
+        logger.debug(() -> String.format("Resolved %s without DescribeFleetMetric.", metricArn));
+        context.setMetricArn(metricArn);
+        context.setExpectedVersion(knownVersion);
+        return HandlerStep.UPDATE;
+    }
 
-        // For an existing resource, we have to update via TagResource API, Update API doesn't take tags.
-        try {
-            DescribeFleetMetricRequest describeFleetMetricRequest = DescribeFleetMetricRequest.builder()
-                    .metricName(desiredModel.getMetricName())
-                    .build();
-            DescribeFleetMetricResponse describeFleetMetricResponse = proxy.injectCredentialsAndInvokeV2(
-                    describeFleetMetricRequest, iotClient::describeFleetMetric);
-            String actualArn = describeFleetMetricResponse.metricArn();
+    /**
+     * The version this container last read, or else the version CloudFormation recorded. If either is out of date,
+     * the update fails with a version conflict rather than overwriting a change it didn't see.
+     * CreateFleetMetric doesn't return the version, so neither is known until a Read has described the metric.
+     *
+     * @return the version the metric should be at, or null if only Describe can tell.
+     */
+    private Long getKnownVersion(ResourceHandlerRequest<ResourceModel> request) {
+        FleetMetricCache.CachedMetric cached = config.getDescribeCache().getRevalidatable(FleetMetricCache.key(request));
+        if (cached != null && cached.getDescribeResponse().version() != null) {
+            return cached.getDescribeResponse().version();
+        }
+        ResourceModel previousModel = request.getPreviousResourceState();
+        if (previousModel != null && previousModel.getVersion() != null
+                && Objects.equals(previousModel.getMetricName(), request.getDesiredResourceState().getMetricName())) {
+            return previousModel.getVersion().longValue();
+        }
+        return null;
+    }
 
-            logger.log(String.format("DescribeFleetMetric for %s.", desiredModel.getMetricName()));
+    /**
+     * Runs one step and records its outcome in the context.
+     *
+     * @return the step to run next, or null if the update is complete.
+     */
+    private HandlerStep runStep(HandlerStep step,
+                                ApiInvoker invoker,
+                                ResourceHandlerRequest<ResourceModel> request,
+                                CallbackContext context,
+                                HandlerLogger logger) {
+        ResourceModel desiredModel = request.getDesiredResourceState();
+        switch (step) {
+            case DESCRIBE:
+                // Describe first: the live state tells us whether UpdateFleetMetric would change anything,
+                // and we need the ARN for tagging anyway, because the Update API doesn't take tags.
+                DescribeFleetMetricResponse describeFleetMetricResponse = invoker.invoke(
+                        translateToDescribeRequest(desiredModel), iotClient::describeFleetMetric);
+                logger.debug(() -> String.format("DescribeFleetMetric for %s.", desiredModel.getMetricName()));
+                context.setMetricArn(describeFleetMetricResponse.metricArn());
+                config.getArnResolver().remember(request, describeFleetMetricResponse.metricArn());
+                if (config.isExpectedVersionUpdate()) {
+                    context.setExpectedVersion(describeFleetMetricResponse.version());
+                }
+
+                if (getChangedProperties(request, describeFleetMetricResponse, logger).isEmpty()) {
+                    logger.info(() -> String.format("No property of %s changed, skipping UpdateFleetMetric.",
+                            context.getMetricArn()));
+                    return HandlerStep.LIST_TAGS;
+                }
+                return HandlerStep.UPDATE;
+
+            case UPDATE:
+                invoker.invoke(translateToUpdateRequest(desiredModel, context.getExpectedVersion()),
+                        iotClient::updateFleetMetric);
+                logger.debug(() -> String.format("UpdateFleetMetric for %s.", desiredModel.getMetricName()));
+                return HandlerStep.LIST_TAGS;
+
+            case LIST_TAGS:
+                planTagChanges(invoker, request, context, logger);
+                return HandlerStep.TAG_RESOURCE;
+
+            case TAG_RESOURCE:
+                if (!context.getTagsToAttach().isEmpty()) {
+                    TagResourceRequest tagResourceRequest = TagResourceRequest.builder()
+                            .resourceArn(context.getMetricArn())
+                            .tags(Translator.translateTagsToSdk(context.getTagsToAttach()))
+                            .build();
+                    invoker.invoke(tagResourceRequest, iotClient::tagResource);
+                    logger.debug(() -> String.format("Called TagResource for %s.", context.getMetricArn()));
+                }
+                return HandlerStep.UNTAG_RESOURCE;
+
+            case UNTAG_RESOURCE:
+                if (!context.getTagKeysToDetach().isEmpty()) {
+                    UntagResourceRequest untagResourceRequest = UntagResourceRequest.builder()
+                            .resourceArn(context.getMetricArn())
+                            .tagKeys(context.getTagKeysToDetach())
+                            .build();
+                    invoker.invoke(untagResourceRequest, iotClient::untagResource);
+                    logger.debug(() -> String.format("Called UntagResource for %s.", context.getMetricArn()));
+                }
+                return null;
+
+            default:
+                throw new IllegalStateException("UpdateHandler has no step " + step);
+        }
+    }
+
+    /**
+     * Same calls as the synchronous path, made through IotAsyncClient. Describe runs concurrently with
+     * the tag listing for the derived ARN, and UpdateFleetMetric with the tag listing for the actual one.
+     * As on the synchronous path, the tags are only changed once UpdateFleetMetric has succeeded or was
+     * skipped, so a failed update leaves the metric as it was; TagResource and UntagResource then run
+     * concurrently. Since the steps overlap, a throttled call makes the callback start over from Describe;
+     * every step is idempotent.
+     */
+    private ProgressEvent<ResourceModel, CallbackContext> handleRequestAsync(
+            ApiInvoker invoker,
+            ResourceHandlerRequest<ResourceModel> request,
+            CallbackContext callbackContext,
+            HandlerLogger logger) {
 
-            updateTags(proxy, request, actualArn, logger);
+        ResourceModel desiredModel = request.getDesiredResourceState();
+        IotAsyncClient iotAsyncClient = config.getAsyncClient().get();
+
+        String derivedArn = HandlerUtils.getFleetMetricArn(request, desiredModel.getMetricName());
+        CompletableFuture<List<Tag>> derivedArnTags = derivedArn == null
+                ? null
+                : HandlerUtils.listTagsAsync(iotAsyncClient, invoker, derivedArn, logger);
+
+        CompletableFuture<Void> result = invoker
+                .invokeAsync(translateToDescribeRequest(desiredModel),
+                        iotAsyncClient::describeFleetMetric)
+                .thenCompose(describeFleetMetricResponse -> {
+                    String actualArn = describeFleetMetricResponse.metricArn();
+                    logger.debug(() -> String.format("DescribeFleetMetric for %s.", desiredModel.getMetricName()));
+
+                    CompletableFuture<?> update;
+                    if (getChangedProperties(request, describeFleetMetricResponse, logger).isEmpty()) {
+                        logger.info(() -> String.format("No property of %s changed, skipping UpdateFleetMetric.", actualArn));
+                        update = CompletableFuture.completedFuture(null);
+                    } else {
+                        Long expectedVersion = config.isExpectedVersionUpdate()
+                                ? describeFleetMetricResponse.version()
+                                : null;
+                        update = invoker.invokeAsync(translateToUpdateRequest(desiredModel, expectedVersion),
+                                iotAsyncClient::updateFleetMetric)
+                                .thenRun(() -> logger.debug(() -> String.format(
+                                        "UpdateFleetMetric for %s.", desiredModel.getMetricName())));
+                    }
+
+                    CompletableFuture<List<Tag>> currentTags;
+                    if (derivedArnTags != null && derivedArn.equals(actualArn)) {
+                        currentTags = derivedArnTags;
+                    } else {
+                        if (derivedArnTags != null) {
+                            logger.debug(() -> String.format("Derived ARN %s doesn't match %s, listing tags again.",
+                                    derivedArn, actualArn));
+                        }
+                        currentTags = HandlerUtils.listTagsAsync(iotAsyncClient, invoker, actualArn, logger);
+                    }
+                    // Both are waited for, even if one fails, so that neither call outlives the invocation.
+                    return CompletableFuture.allOf(update, currentTags).thenCompose(ignored -> updateTagsAsync(
+                            invoker, iotAsyncClient, request, actualArn, new HashSet<>(currentTags.join()), logger));
+                });
+
+        try {
+            HandlerUtils.join(result);
         } catch (RuntimeException e) {
-            return Translator.translateExceptionToProgressEvent(desiredModel, e, logger);
+            return config.getThrottlingRetryPolicy().translateExceptionToProgressEvent(
+                    desiredModel, callbackContext, HandlerStep.DESCRIBE, e, logger);
+        } finally {
+            // Describe failed or found another ARN: the tags listed for the derived one aren't needed, but the call
+            // mustn't outlive the invocation and its call metrics.
+            if (derivedArnTags != null) {
+                HandlerUtils.awaitQuietly(derivedArnTags);
+            }
         }
 
         return ProgressEvent.defaultSuccessHandler(request.getDesiredResourceState());
     }
 
-    @VisibleForTesting
-    void updateTags(AmazonWebServicesClientProxy proxy,
-                    ResourceHandlerRequest<ResourceModel> request,
-                    String resourceArn,
-                    Logger logger) {
+    private CompletableFuture<Void> updateTagsAsync(
+            ApiInvoker invoker,
+            IotAsyncClient iotAsyncClient,
+            ResourceHandlerRequest<ResourceModel> request,
+            String resourceArn,
+            Set<Tag> currentTags,
+            HandlerLogger logger) {
+
+        Set<Tag> desiredTags = getDesiredTags(request, resourceArn, logger);
+        Set<String> tagKeysToDetach = getTagKeysToDetach(currentTags, desiredTags);
+        Set<Tag> tagsToAttach = getTagsToAttach(currentTags, desiredTags);
+
+        CompletableFuture<?> tagging = CompletableFuture.completedFuture(null);
+        if (!tagsToAttach.isEmpty()) {
+            TagResourceRequest tagResourceRequest = TagResourceRequest.builder()
+                    .resourceArn(resourceArn)
+                    .tags(tagsToAttach)
+                    .build();
+            tagging = invoker.invokeAsync(tagResourceRequest, iotAsyncClient::tagResource)
+                    .thenRun(() -> logger.debug(() -> String.format("Called TagResource for %s.", resourceArn)));
+        }
+
+        CompletableFuture<?> untagging = CompletableFuture.completedFuture(null);
+        if (!tagKeysToDetach.isEmpty()) {
+            UntagResourceRequest untagResourceRequest = UntagResourceRequest.builder()
+                    .resourceArn(resourceArn)
+                    .tagKeys(tagKeysToDetach)
+                    .build();
+            untagging = invoker.invokeAsync(untagResourceRequest, iotAsyncClient::untagResource)
+                    .thenRun(() -> logger.debug(() -> String.format("Called UntagResource for %s.", resourceArn)));
+        }
+
+        return CompletableFuture.allOf(tagging, untagging);
+    }
+
+    private static DescribeFleetMetricRequest translateToDescribeRequest(ResourceModel model) {
+        return DescribeFleetMetricRequest.builder()
+                .metricName(model.getMetricName())
+                .build();
+    }
+
+    /**
+     * @param expectedVersion the version the metric must be at for the update to go through, or null for any.
+     */
+    private static UpdateFleetMetricRequest translateToUpdateRequest(ResourceModel model, Long expectedVersion) {
+        return UpdateFleetMetricRequest.builder()
+                .metricName(model.getMetricName())
+                .description(model.getDescription())
+                .queryString(model.getQueryString())
+                .period(model.getPeriod())
+                .aggregationField(model.getAggregationField())
+                .queryVersion(model.getQueryVersion())
+                .indexName(model.getIndexName())
+                .unit(model.getUnit())
+                .aggregationType(AggregationType.builder()
+                        .name(model.getAggregationType().getName())
+                        .values(model.getAggregationType().getValues())
+                        .build())
+                .expectedVersion(expectedVersion)
+                .build();
+    }
+
+    // The live state, not the previous state, decides whether to update, so that out-of-band
+    // changes are still overwritten. The previous state only tells us where a change came from.
+    private static Set<String> getChangedProperties(
+            ResourceHandlerRequest<ResourceModel> request,
+            DescribeFleetMetricResponse describeFleetMetricResponse,
+            HandlerLogger logger) {
+
+        ResourceModel desiredModel = request.getDesiredResourceState();
+        Set<String> changedProperties = PropertyDiff.getChangedProperties(
+                desiredModel, Translator.translateFromDescribeResponse(describeFleetMetricResponse));
+        if (request.getPreviousResourceState() != null) {
+            logger.debug(() -> String.format("Properties changed in the template: %s, properties differing from %s: %s.",
+                    PropertyDiff.getChangedProperties(desiredModel, request.getPreviousResourceState()),
+                    describeFleetMetricResponse.metricArn(), changedProperties));
+        }
+        return changedProperties;
+    }
+
+    /**
+     * Works out which tags TagResource and UntagResource need to change, and keeps the result in the context.
+     */
+    private void planTagChanges(ApiInvoker invoker,
+                                ResourceHandlerRequest<ResourceModel> request,
+                                CallbackContext context,
+                                HandlerLogger logger) {
+        String resourceArn = context.getMetricArn();
         // Note: we're intentionally getting currentTags by calling ListTags rather than getting
         // the previous state from CFN. This is in order to overwrite out-of-band changes.
         // For example, if we used request.getPreviousResourceTags instead of ListTags, if a user added a new tag
         // via TagResource and didn't add it to the template, we wouldn't know about it and wouldn't untag it.
         // Yet we should, otherwise the resource wouldn't equate the template.
-        Set<Tag> currentTags = listTags(proxy, resourceArn, logger);
+        Set<Tag> currentTags = listTags(invoker, resourceArn, logger);
+
+        Set<Tag> desiredTags = getDesiredTags(request, resourceArn, logger);
+        context.setTagsToAttach(getTagsToAttach(currentTags, desiredTags).stream()
+                .collect(Collectors.toMap(Tag::key, Tag::value)));
+        context.setTagKeysToDetach(new ArrayList<>(getTagKeysToDetach(currentTags, desiredTags)));
+    }
 
+    private static Set<Tag> getDesiredTags(ResourceHandlerRequest<ResourceModel> request,
+                                           String resourceArn,
+                                           HandlerLogger logger) {
         // Combine all tags in one map that we'll use for the request
         Map<String, String> allDesiredTagsMap = new HashMap<>();
         if (request.getDesiredResourceTags() != null) {
@@ -123,40 +414,30 @@ public class UpdateHandler extends BaseHandler<CallbackContext> {
         } else {
             // System tags should never get updated as they are the stack id, stack name,
             // and logical resource id.
-            logger.log("Unexpectedly, system tags are null in the update request for " + resourceArn);
+            logger.warn(() -> "Unexpectedly, system tags are null in the update request for " + resourceArn);
         }
-        Set<Tag> desiredTags = Translator.translateTagsToSdk(allDesiredTagsMap);
+        return Translator.translateTagsToSdk(allDesiredTagsMap);
+    }
+
+    @VisibleForTesting
+    static Set<String> getTagKeysToDetach(Set<Tag> currentTags, Set<Tag> desiredTags) {
         Set<String> desiredTagKeys = desiredTags.stream()
                 .map(Tag::key)
                 .collect(Collectors.toSet());
 
         // TODO add system tags back once FleetMetric auth is ready
-        Set<String> tagKeysToDetach = currentTags.stream()
+        return currentTags.stream()
                 .filter(tag -> !tag.key().startsWith(AWS_SYSTEM_TAG_PREFIX))
                 .filter(tag -> !desiredTagKeys.contains(tag.key()))
                 .map(Tag::key)
                 .collect(Collectors.toSet());
-        Set<Tag> tagsToAttach = desiredTags.stream()
+    }
+
+    @VisibleForTesting
+    static Set<Tag> getTagsToAttach(Set<Tag> currentTags, Set<Tag> desiredTags) {
+        return desiredTags.stream()
                 .filter(tag -> !currentTags.contains(tag))
                 .collect(Collectors.toSet());
-
-        if (!tagsToAttach.isEmpty()) {
-            TagResourceRequest tagResourceRequest = TagResourceRequest.builder()
-                    .resourceArn(resourceArn)
-                    .tags(tagsToAttach)
-                    .build();
-            proxy.injectCredentialsAndInvokeV2(tagResourceRequest, iotClient::tagResource);
-            logger.log(String.format("Called TagResource for %s.", resourceArn));
-        }
-
-        if (!tagKeysToDetach.isEmpty()) {
-            UntagResourceRequest untagResourceRequest = UntagResourceRequest.builder()
-                    .resourceArn(resourceArn)
-                    .tagKeys(tagKeysToDetach)
-                    .build();
-            proxy.injectCredentialsAndInvokeV2(untagResourceRequest, iotClient::untagResource);
-            logger.log(String.format("Called UntagResource for %s.", resourceArn));
-        }
     }
 
     // This facilitates mocking in the unit tests.
@@ -164,10 +445,10 @@ public class UpdateHandler extends BaseHandler<CallbackContext> {
     // to the constructor, but the framework requires the constructor to have 0 args.
     @VisibleForTesting
     Set<Tag> listTags(
-            AmazonWebServicesClientProxy proxy,
+            ApiInvoker invoker,
             String resourceArn,
-            Logger logger) {
-        List<Tag> tags = HandlerUtils.listTags(iotClient, proxy, resourceArn, logger);
+            HandlerLogger logger) {
+        List<Tag> tags = HandlerUtils.listTags(iotClient, invoker, resourceArn, logger);
         return new HashSet<>(tags);
     }
 }
@@ -0,0 +1,384 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
+import software.amazon.awssdk.services.iot.model.UntagResourceResponse;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ApiInvokerTest {
+
+    private static final long TIMESTAMP = 1622505600000L;
+    private static final String ACCOUNT_ID = "123456789012";
+    private static final String REGION = "us-east-1";
+
+    private static final DescribeFleetMetricRequest DESCRIBE_REQUEST =
+            DescribeFleetMetricRequest.builder().metricName(FLEET_METRIC_NAME).build();
+    private static final ListTagsForResourceRequest LIST_TAGS_REQUEST =
+            ListTagsForResourceRequest.builder().resourceArn(FLEET_METRIC_ARN).build();
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    // Every call to the fake clock moves it 15ms forward, so every call takes 15ms.
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private ApiInvoker invoker;
+
+    @BeforeEach
+    public void setup() {
+        invoker = new ApiInvoker(proxy, () -> nanoTime.getAndAdd(TimeUnit.MILLISECONDS.toNanos(15)));
+    }
+
+    @Test
+    public void logMetrics_SuccessAndFailure_OneEmbeddedMetricLine() {
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder().build())
+                .thenThrow(ThrottlingException.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(ListTagsForResourceRequest.class), any()))
+                .thenReturn(ListTagsForResourceResponse.builder().build());
+
+        invoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+        invoker.invoke(LIST_TAGS_REQUEST, request -> ListTagsForResourceResponse.builder().build());
+        assertThatThrownBy(() -> invoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(ThrottlingException.class);
+
+        invoker.logMetrics(Action.UPDATE, TIMESTAMP, logger);
+
+        ArgumentCaptor<String> logLine = ArgumentCaptor.forClass(String.class);
+        verify(logger).log(logLine.capture());
+        assertThat(logLine.getValue()).isEqualTo("{\"_aws\":{\"Timestamp\":1622505600000,"
+                + "\"CloudWatchMetrics\":[{\"Namespace\":\"IoTFleetMetricResourceProvider\","
+                + "\"Dimensions\":[[\"Action\"]],\"Metrics\":["
+                + "{\"Name\":\"DescribeFleetMetric.Latency\",\"Unit\":\"Milliseconds\"},"
+                + "{\"Name\":\"DescribeFleetMetric.Calls\",\"Unit\":\"Count\"},"
+                + "{\"Name\":\"DescribeFleetMetric.Errors\",\"Unit\":\"Count\"},"
+                + "{\"Name\":\"ListTagsForResource.Latency\",\"Unit\":\"Milliseconds\"},"
+                + "{\"Name\":\"ListTagsForResource.Calls\",\"Unit\":\"Count\"},"
+                + "{\"Name\":\"ListTagsForResource.Errors\",\"Unit\":\"Count\"}]}]},"
+                + "\"Action\":\"UPDATE\","
+                + "\"DescribeFleetMetric.Latency\":[15, 15],\"DescribeFleetMetric.Calls\":2,"
+                + "\"DescribeFleetMetric.Errors\":1,\"DescribeFleetMetric.Exceptions\":[\"ThrottlingException\"],"
+                + "\"ListTagsForResource.Latency\":[15],\"ListTagsForResource.Calls\":1,"
+                + "\"ListTagsForResource.Errors\":0}");
+    }
+
+    @Test
+    public void invokeAsync_Fails_RecordsCauseWhenComplete() {
+        CompletableFuture<DescribeFleetMetricResponse> response = new CompletableFuture<>();
+        doReturn(response).when(proxy).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+
+        CompletableFuture<DescribeFleetMetricResponse> recorded =
+                invoker.invokeAsync(DESCRIBE_REQUEST, request -> response);
+        assertThat(invoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP)).isNull();
+
+        response.completeExceptionally(ThrottlingException.builder().build());
+
+        assertThat(recorded.isCompletedExceptionally()).isTrue();
+        assertThat(invoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("\"Action\":\"READ\"")
+                .contains("\"DescribeFleetMetric.Calls\":1")
+                .contains("\"DescribeFleetMetric.Exceptions\":[\"ThrottlingException\"]");
+    }
+
+    @Test
+    public void logMetrics_NoCalls_LogsNothing() {
+        invoker.logMetrics(Action.CREATE, TIMESTAMP, logger);
+
+        verifyNoInteractions(logger);
+    }
+
+    @Test
+    public void invoke_Throttled_SlowsRateLimiterDown() {
+        RateLimiter rateLimiter = new RateLimiter(ImmutableMap.of("DescribeFleetMetric", 10.0),
+                () -> 0L, nanos -> { });
+        ApiInvoker limitedInvoker = new ApiInvoker(proxy, rateLimiter, Deadline.NONE,
+                CallRetryPolicy.NONE, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build())
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+
+        assertThatThrownBy(() -> limitedInvoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(ThrottlingException.class);
+        assertThat(rateLimiter.getRate("DescribeFleetMetric")).isEqualTo(5.0);
+
+        limitedInvoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+        assertThat(rateLimiter.getRate("DescribeFleetMetric")).isBetween(5.1, 5.3);
+    }
+
+    @Test
+    public void invoke_RateLimiterWaitTooLong_RejectsWithoutCallingOrSlowingDown() {
+        // One call per minute, so the second call would wait far longer than allowed.
+        RateLimiter rateLimiter = new RateLimiter(ImmutableMap.of("*", 1.0 / 60), () -> 0L, nanos -> { });
+        ApiInvoker limitedInvoker = new ApiInvoker(proxy, rateLimiter, Deadline.NONE,
+                CallRetryPolicy.NONE, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+
+        limitedInvoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+        assertThatThrownBy(() -> limitedInvoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(RateLimiter.RejectedException.class);
+
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        assertThat(rateLimiter.getRate("DescribeFleetMetric")).isEqualTo(1.0 / 60);
+        assertThat(limitedInvoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("\"DescribeFleetMetric.Calls\":1,");
+    }
+
+    @Test
+    public void invoke_DeadlineNearAfterFirstCall_NextCallNotStarted() {
+        AtomicLong clock = new AtomicLong();
+        Deadline deadline = new Deadline(5_000L, clock::get);
+        ApiInvoker limitedInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, deadline,
+                CallRetryPolicy.NONE, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> {
+                    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(3_500L));
+                    return DescribeFleetMetricResponse.builder().build();
+                });
+
+        limitedInvoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+        assertThatThrownBy(() -> limitedInvoker.invoke(LIST_TAGS_REQUEST,
+                request -> ListTagsForResourceResponse.builder().build()))
+                .isInstanceOf(Deadline.ExpiredException.class)
+                .hasMessageContaining("ListTagsForResource");
+
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void invoke_DeadlinePassedBeforeFirstCall_StillCalls() {
+        Deadline deadline = new Deadline(0L, () -> 0L);
+        ApiInvoker limitedInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, deadline,
+                CallRetryPolicy.NONE, nanoTime::get);
+        replaceOverrideConfigurationAndCall();
+        AtomicReference<DescribeFleetMetricRequest> sent = new AtomicReference<>();
+
+        limitedInvoker.invoke(DESCRIBE_REQUEST, request -> {
+            sent.set(request);
+            return DescribeFleetMetricResponse.builder().build();
+        });
+
+        assertThat(sent.get().overrideConfiguration().get().apiCallTimeout().get())
+                .isEqualTo(Duration.ofMillis(Deadline.MIN_CALL_MILLIS));
+    }
+
+    @Test
+    public void invokeAsync_ProxyReplacesOverrideConfiguration_TimeoutStillSent() {
+        Deadline deadline = new Deadline(10_000L, () -> 0L);
+        ApiInvoker limitedInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, deadline,
+                CallRetryPolicy.NONE, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(withCredentialsOnly(invocation.getArgument(0))));
+        AtomicReference<DescribeFleetMetricRequest> sent = new AtomicReference<>();
+
+        limitedInvoker.invokeAsync(DESCRIBE_REQUEST, request -> {
+            sent.set(request);
+            return CompletableFuture.completedFuture(DescribeFleetMetricResponse.builder().build());
+        }).join();
+
+        assertThat(sent.get().overrideConfiguration().get().apiCallTimeout().get())
+                .isEqualTo(Duration.ofMillis(10_000L - Deadline.RESERVE_MILLIS));
+    }
+
+    // Does what the real proxy does: calls with a copy of the request whose override configuration carries
+    // the credentials and nothing else.
+    private void replaceOverrideConfigurationAndCall() {
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(withCredentialsOnly(invocation.getArgument(0))));
+    }
+
+    private static DescribeFleetMetricRequest withCredentialsOnly(DescribeFleetMetricRequest request) {
+        return request.toBuilder()
+                .overrideConfiguration(AwsRequestOverrideConfiguration.builder().build())
+                .build();
+    }
+
+    @Test
+    public void invoke_TransientFailures_RetriedUntilInvocationBudgetSpent() {
+        CallRetryPolicy retryPolicy = new CallRetryPolicy(2, 100L, 2_000L, () -> 0.5, nanos -> { });
+        ApiInvoker retryingInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, Deadline.NONE,
+                retryPolicy, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(InternalFailureException.builder().build())
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(ListTagsForResourceRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        retryingInvoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+        // Describe took one of the two retries, so ListTags gets only the other one.
+        assertThatThrownBy(() -> retryingInvoker.invoke(LIST_TAGS_REQUEST,
+                request -> ListTagsForResourceResponse.builder().build()))
+                .isInstanceOf(ThrottlingException.class);
+
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(ListTagsForResourceRequest.class), any());
+    }
+
+    @Test
+    public void invoke_NoTimeLeftForRetry_NotRetried() {
+        CallRetryPolicy retryPolicy = new CallRetryPolicy(2, 100L, 2_000L, () -> 0.5, nanos -> { });
+        ApiInvoker retryingInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, new Deadline(2_000L, () -> 0L),
+                retryPolicy, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        assertThatThrownBy(() -> retryingInvoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(ThrottlingException.class);
+
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void invokeAsync_TransientFailure_Retried() {
+        CallRetryPolicy retryPolicy = new CallRetryPolicy(1, 100L, 2_000L, () -> 0.5, nanos -> { });
+        ApiInvoker retryingInvoker = new ApiInvoker(proxy, RateLimiter.DISABLED, Deadline.NONE,
+                retryPolicy, nanoTime::get);
+        CompletableFuture<DescribeFleetMetricResponse> throttled = new CompletableFuture<>();
+        throttled.completeExceptionally(ThrottlingException.builder().build());
+        DescribeFleetMetricResponse describeResponse = DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .build();
+        doReturn(throttled).doReturn(CompletableFuture.completedFuture(describeResponse))
+                .when(proxy).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+
+        DescribeFleetMetricResponse response = HandlerUtils.join(
+                retryingInvoker.invokeAsync(DESCRIBE_REQUEST, request -> throttled));
+
+        assertThat(response).isSameAs(describeResponse);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+        assertThat(retryingInvoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("\"DescribeFleetMetric.Calls\":2");
+    }
+
+    @Test
+    public void invoke_CircuitOpens_RejectsWithoutCallingAndLogsTransition() {
+        HandlerConfig config = new HandlerConfig();
+        config.setCircuitBreaker(new CircuitBreaker(1, 30_000L, nanoTime::get));
+        config.setCallRetryPolicy(new CallRetryPolicy(2, 100L, 2_000L, () -> 0.5, nanos -> { }));
+        ApiInvoker breakingInvoker = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(InternalFailureException.builder().build());
+
+        // The failure opens the circuit, so it isn't retried into it.
+        assertThatThrownBy(() -> breakingInvoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(InternalFailureException.class);
+        assertThatThrownBy(() -> breakingInvoker.invoke(DESCRIBE_REQUEST,
+                request -> DescribeFleetMetricResponse.builder().build()))
+                .isInstanceOf(CircuitBreaker.OpenException.class);
+
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        assertThat(breakingInvoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("{\"Name\":\"DescribeFleetMetric.CircuitOpened\",\"Unit\":\"Count\"}")
+                .contains("\"DescribeFleetMetric.Calls\":1")
+                .contains("\"DescribeFleetMetric.CircuitOpened\":1")
+                .contains("\"DescribeFleetMetric.CircuitRejected\":1");
+    }
+
+    @Test
+    public void invoke_ProbeSucceeds_LogsHalfOpenedAndClosed() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 30_000L, nanoTime::get);
+        circuitBreaker.onResult(REGION, "DescribeFleetMetric", InternalFailureException.builder().build());
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        HandlerConfig config = new HandlerConfig();
+        config.setCircuitBreaker(circuitBreaker);
+        ApiInvoker breakingInvoker = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+
+        breakingInvoker.invoke(DESCRIBE_REQUEST, request -> DescribeFleetMetricResponse.builder().build());
+
+        assertThat(breakingInvoker.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("\"DescribeFleetMetric.CircuitHalfOpened\":1")
+                .contains("\"DescribeFleetMetric.CircuitClosed\":1")
+                .doesNotContain("CircuitRejected");
+    }
+
+    @Test
+    public void invokeAsync_SameDescribeInFlight_JoinedAndCounted() {
+        HandlerConfig config = new HandlerConfig();
+        config.setSingleFlight(new SingleFlight(true));
+        ApiInvoker leader = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        ApiInvoker joiner = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        CompletableFuture<DescribeFleetMetricResponse> response = new CompletableFuture<>();
+        doReturn(response).when(proxy).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+
+        CompletableFuture<DescribeFleetMetricResponse> led = leader.invokeAsync(DESCRIBE_REQUEST, request -> response);
+        CompletableFuture<DescribeFleetMetricResponse> joined =
+                joiner.invokeAsync(DESCRIBE_REQUEST, request -> response);
+        DescribeFleetMetricResponse describeResponse = DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .build();
+        response.complete(describeResponse);
+
+        assertThat(HandlerUtils.join(led)).isSameAs(describeResponse);
+        assertThat(HandlerUtils.join(joined)).isSameAs(describeResponse);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+        assertThat(joiner.toEmbeddedMetricFormat(Action.READ, TIMESTAMP))
+                .contains("\"DescribeFleetMetric.Calls\":0")
+                .contains("\"DescribeFleetMetric.Joined\":1");
+    }
+
+    @Test
+    public void invokeAsync_AfterWrite_NotJoined() {
+        HandlerConfig config = new HandlerConfig();
+        config.setSingleFlight(new SingleFlight(true));
+        ApiInvoker reader = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        ApiInvoker writer = new ApiInvoker(proxy, config, ACCOUNT_ID, REGION, nanoTime::get);
+        CompletableFuture<DescribeFleetMetricResponse> response = new CompletableFuture<>();
+        doReturn(response).when(proxy).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+        when(proxy.injectCredentialsAndInvokeV2(any(UntagResourceRequest.class), any()))
+                .thenReturn(UntagResourceResponse.builder().build());
+
+        reader.invokeAsync(DESCRIBE_REQUEST, request -> response);
+        writer.invoke(UntagResourceRequest.builder().resourceArn(FLEET_METRIC_ARN).build(),
+                request -> UntagResourceResponse.builder().build());
+        // The Describe in flight may have started before the untagging.
+        writer.invokeAsync(DESCRIBE_REQUEST, request -> response);
+
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2Async(any(DescribeFleetMetricRequest.class), any());
+    }
+}
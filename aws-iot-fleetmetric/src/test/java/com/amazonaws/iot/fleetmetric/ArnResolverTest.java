@@ -0,0 +1,94 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ArnResolverTest {
+
+    private static final String SEEN_ARN = "arn:aws:iot:us-east-1:123456789012:fleetmetric/Seen";
+    private static final String PREVIOUS_ARN = "arn:aws:iot:us-east-1:123456789012:fleetmetric/Previous";
+
+    private final ArnResolver resolver = new ArnResolver(2);
+
+    @Test
+    public void resolve_PreviousStateHasArn_PreviousArn() {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(true, ResourceModel.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(PREVIOUS_ARN)
+                .build());
+        resolver.remember(request, SEEN_ARN);
+
+        assertThat(resolver.resolve(request)).isEqualTo(PREVIOUS_ARN);
+    }
+
+    @Test
+    public void resolve_ArnSeenBefore_SeenArn() {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(true, null);
+        resolver.remember(request, SEEN_ARN);
+
+        assertThat(resolver.resolve(request)).isEqualTo(SEEN_ARN);
+    }
+
+    @Test
+    public void resolve_NothingSeen_DerivedArn() {
+        assertThat(resolver.resolve(getRequest(true, null))).isEqualTo(FLEET_METRIC_ARN);
+    }
+
+    @Test
+    public void resolve_NothingToGoBy_Null() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        assertThat(resolver.resolve(request)).isNull();
+    }
+
+    @Test
+    public void forget_SeenArn_FallsBackToDerivedArn() {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(true, null);
+        resolver.remember(request, SEEN_ARN);
+
+        resolver.forget(request);
+
+        assertThat(resolver.resolve(request)).isEqualTo(FLEET_METRIC_ARN);
+    }
+
+    @Test
+    public void remember_Full_EvictsLeastRecentlyUsed() {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(false, null);
+        resolver.remember(request, SEEN_ARN);
+        for (String metricName : new String[] {"Other1", "Other2"}) {
+            resolver.remember(ResourceHandlerRequest.<ResourceModel>builder()
+                    .desiredResourceState(ResourceModel.builder().metricName(metricName).build())
+                    .build(), SEEN_ARN);
+        }
+
+        assertThat(resolver.resolve(request)).isNull();
+    }
+
+    @Test
+    public void resolve_DescribeOnly_AlwaysNull() {
+        ResourceHandlerRequest<ResourceModel> request = getRequest(true, ResourceModel.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(PREVIOUS_ARN)
+                .build());
+
+        assertThat(ArnResolver.DESCRIBE_ONLY.resolve(request)).isNull();
+    }
+
+    // A request that can derive the ARN, or only has the account.
+    private static ResourceHandlerRequest<ResourceModel> getRequest(boolean derivable, ResourceModel previousModel) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .previousResourceState(previousModel)
+                .awsPartition(derivable ? "aws" : null)
+                .region(derivable ? "us-east-1" : null)
+                .awsAccountId("123456789012")
+                .build();
+    }
+}
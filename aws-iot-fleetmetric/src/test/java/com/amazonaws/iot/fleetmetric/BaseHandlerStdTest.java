@@ -0,0 +1,105 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class BaseHandlerStdTest {
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    @Test
+    public void handleRequest_HandlerThrows_BufferedLinesFlushed() {
+        BaseHandlerStd handler = new TestHandler(Action.READ, new HandlerConfig(), handlerLogger -> {
+            handlerLogger.info(() -> "first");
+            handlerLogger.info(() -> "second");
+            throw new IllegalStateException("unexpected");
+        });
+
+        assertThatThrownBy(() -> handler.handleRequest(proxy, ResourceHandlerRequest.<ResourceModel>builder().build(),
+                null, logger))
+                .isInstanceOf(IllegalStateException.class);
+
+        // No IoT call was made, so there's no metrics line.
+        verify(logger).log("first\nsecond");
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void handleRequest_WriteAction_InvalidatesCachedMetric() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsAccountId("123456789012")
+                .region("us-east-1")
+                .build();
+        String key = FleetMetricCache.key(request);
+
+        for (Action action : Action.values()) {
+            HandlerConfig config = new HandlerConfig();
+            config.setDescribeCache(new FleetMetricCache(60_000L, 10, System::nanoTime));
+            config.getDescribeCache().put(key, config.getDescribeCache().generation(key),
+                    DescribeFleetMetricResponse.builder().build(), Collections.emptyList());
+
+            new TestHandler(action, config, handlerLogger -> ProgressEvent.defaultSuccessHandler(null))
+                    .handleRequest(proxy, request, null, logger);
+
+            boolean writes = action == Action.CREATE || action == Action.UPDATE || action == Action.DELETE;
+            assertThat(config.getDescribeCache().get(key) == null).isEqualTo(writes);
+        }
+    }
+
+    private static final class TestHandler extends BaseHandlerStd {
+
+        private final Action action;
+        private final HandlerConfig config;
+        private final Function<HandlerLogger, ProgressEvent<ResourceModel, CallbackContext>> body;
+
+        private TestHandler(Action action,
+                            HandlerConfig config,
+                            Function<HandlerLogger, ProgressEvent<ResourceModel, CallbackContext>> body) {
+            this.action = action;
+            this.config = config;
+            this.body = body;
+        }
+
+        @Override
+        protected ProgressEvent<ResourceModel, CallbackContext> handleRequest(
+                ApiInvoker invoker,
+                ResourceHandlerRequest<ResourceModel> request,
+                CallbackContext callbackContext,
+                HandlerLogger handlerLogger) {
+            return body.apply(handlerLogger);
+        }
+
+        @Override
+        protected HandlerConfig getConfig() {
+            return config;
+        }
+
+        @Override
+        protected Action getAction() {
+            return action;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class BufferedLoggerTest {
+
+    private static final String[] LINES = {
+            "Called Describe for arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric.",
+            "Called Update for arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric.",
+            "Called ListTags for arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric.",
+            "Called TagResource for arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric.",
+            "Called UntagResource for arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric.",
+            "Successfully updated arn:aws:iot:us-east-1:123456789012:fleetmetric/TestMetric."
+    };
+
+    @Mock
+    private Logger logger;
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    public void flush_SeveralLines_OneWriteWithTheSameContent() {
+        List<String> unbuffered = new ArrayList<>();
+        BufferedLogger bufferedLogger = new BufferedLogger(logger);
+
+        for (String line : LINES) {
+            unbuffered.add(line);
+            bufferedLogger.log(line);
+        }
+        verifyNoInteractions(logger);
+        bufferedLogger.flush();
+
+        verify(logger).log(String.join("\n", unbuffered));
+    }
+
+    @Test
+    public void flush_Empty_LogsNothing() {
+        BufferedLogger bufferedLogger = new BufferedLogger(logger);
+
+        bufferedLogger.flush();
+        bufferedLogger.log("line");
+        bufferedLogger.flush();
+        bufferedLogger.flush();
+
+        verify(logger).log("line");
+    }
+
+    @Test
+    public void log_PastMaxSize_Flushes() {
+        BufferedLogger bufferedLogger = new BufferedLogger(logger, LINES[0].length() * 2, 60_000L, nanoTime::get);
+
+        for (String line : LINES) {
+            bufferedLogger.log(line);
+        }
+        bufferedLogger.flush();
+
+        ArgumentCaptor<String> writes = ArgumentCaptor.forClass(String.class);
+        verify(logger, times(3)).log(writes.capture());
+        assertThat(String.join("\n", writes.getAllValues())).isEqualTo(String.join("\n", LINES));
+    }
+
+    @Test
+    public void log_OldestLinePastMaxAge_Flushes() {
+        BufferedLogger bufferedLogger = new BufferedLogger(logger, Integer.MAX_VALUE, 1_000L, nanoTime::get);
+
+        bufferedLogger.log(LINES[0]);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        bufferedLogger.log(LINES[1]);
+        verifyNoInteractions(logger);
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        bufferedLogger.log(LINES[2]);
+        verify(logger).log(LINES[0] + "\n" + LINES[1] + "\n" + LINES[2]);
+
+        // The age starts again with the next line.
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(900));
+        bufferedLogger.log(LINES[3]);
+        bufferedLogger.flush();
+        verify(logger).log(LINES[3]);
+    }
+}
@@ -0,0 +1,191 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.InvalidRequestException;
+import software.amazon.awssdk.services.iot.model.IotException;
+import software.amazon.awssdk.services.iot.model.ServiceUnavailableException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CallRetryPolicyTest {
+
+    private static final String METRIC_NAME = "Metric";
+    private static final String DESCRIBE = "DescribeFleetMetric";
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    @Test
+    public void isRetryable_TransientErrors_True() {
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, ThrottlingException.builder().build())).isTrue();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, InternalFailureException.builder().build())).isTrue();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, ServiceUnavailableException.builder().build())).isTrue();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, IotException.builder().statusCode(502).build())).isTrue();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE,
+                SdkClientException.builder().message("connection reset").build())).isTrue();
+    }
+
+    @Test
+    public void isRetryable_OtherErrors_False() {
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, InvalidRequestException.builder().build())).isFalse();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, VersionConflictException.builder().build())).isFalse();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, IotException.builder().statusCode(403).build())).isFalse();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE,
+                ApiCallTimeoutException.builder().message("timed out").build())).isFalse();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, new Deadline.ExpiredException(DESCRIBE, 0L))).isFalse();
+        assertThat(CallRetryPolicy.isRetryable(DESCRIBE, new RateLimiter.RejectedException(DESCRIBE, 1.0)))
+                .isFalse();
+    }
+
+    @Test
+    public void isRetryable_NotIdempotent_OnlyWhenThrottled() {
+        for (String api : new String[] {"CreateFleetMetric", "UpdateFleetMetric"}) {
+            assertThat(CallRetryPolicy.isRetryable(api, ThrottlingException.builder().build())).isTrue();
+            assertThat(CallRetryPolicy.isRetryable(api, InternalFailureException.builder().build())).isFalse();
+            assertThat(CallRetryPolicy.isRetryable(api, IotException.builder().statusCode(502).build())).isFalse();
+            assertThat(CallRetryPolicy.isRetryable(api, SdkClientException.builder().message("connection reset")
+                    .build())).isFalse();
+        }
+        for (String api : new String[] {"ListTagsForResource", "TagResource", "UntagResource", "DeleteFleetMetric"}) {
+            assertThat(CallRetryPolicy.isRetryable(api, InternalFailureException.builder().build())).isTrue();
+        }
+    }
+
+    @Test
+    public void getDelayMillis_FullJitterUpToCappedBackoff() {
+        CallRetryPolicy policy = new CallRetryPolicy(3, 100L, 2_000L, () -> 0.5, nanos -> { });
+
+        assertThat(policy.getDelayMillis(0)).isEqualTo(50L);
+        assertThat(policy.getDelayMillis(2)).isEqualTo(200L);
+        assertThat(policy.getDelayMillis(10)).isEqualTo(1_000L);
+        assertThat(new CallRetryPolicy(3, 100L, 2_000L, () -> 0.0, nanos -> { }).getDelayMillis(4)).isEqualTo(0L);
+    }
+
+    @Test
+    public void read_TransientFailures_RetriedWithinInvocation() {
+        FakeIotClient iotClient = getIotClient();
+        iotClient.addFault("DescribeFleetMetric",
+                FakeIotClient.Fault.times(2, () -> InternalFailureException.builder().build()));
+
+        ProgressEvent<ResourceModel, CallbackContext> read = new ReadHandler(iotClient, getConfig())
+                .handleRequest(proxy, getRequest(), null, logger);
+
+        assertThat(read.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(iotClient.getCallCount("DescribeFleetMetric")).isEqualTo(3);
+    }
+
+    @Test
+    public void read_FailingAlways_BudgetBoundsCalls() {
+        FakeIotClient iotClient = getIotClient();
+        iotClient.addFault("DescribeFleetMetric",
+                FakeIotClient.Fault.times(Integer.MAX_VALUE, () -> InternalFailureException.builder().build()));
+
+        ProgressEvent<ResourceModel, CallbackContext> read = new ReadHandler(iotClient, getConfig())
+                .handleRequest(proxy, getRequest(), null, logger);
+
+        // One call and the invocation's 3 retries; CloudFormation retries the handler from there.
+        assertThat(read.getErrorCode()).isEqualTo(HandlerErrorCode.InternalFailure);
+        assertThat(iotClient.getCallCount("DescribeFleetMetric")).isEqualTo(4);
+    }
+
+    @Test
+    public void create_InternalFailure_NotRetriedWithinInvocation() {
+        FakeIotClient iotClient = getIotClient();
+        iotClient.addFault("CreateFleetMetric",
+                FakeIotClient.Fault.times(1, () -> InternalFailureException.builder().build()));
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder()
+                        .metricName("NewMetric")
+                        .queryString("*")
+                        .aggregationType(AggregationType.builder()
+                                .name("Statistics")
+                                .values(Collections.singletonList("sum"))
+                                .build())
+                        .build())
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+
+        ProgressEvent<ResourceModel, CallbackContext> create = new CreateHandler(iotClient, getConfig())
+                .handleRequest(proxy, request, null, logger);
+
+        // The failed call may have created the metric, so it's up to CloudFormation to retry the handler.
+        assertThat(create.getErrorCode()).isEqualTo(HandlerErrorCode.InternalFailure);
+        assertThat(iotClient.getCallCount("CreateFleetMetric")).isEqualTo(1);
+    }
+
+    @Test
+    public void delete_ThrottledAlways_AmplificationBoundedByBothLayers() {
+        FakeIotClient iotClient = getIotClient();
+        iotClient.addFault("DeleteFleetMetric",
+                FakeIotClient.Fault.times(Integer.MAX_VALUE, () -> ThrottlingException.builder().build()));
+        DeleteHandler handler = new DeleteHandler(iotClient, getConfig());
+
+        int invocations = 0;
+        CallbackContext callbackContext = null;
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent;
+        do {
+            progressEvent = handler.handleRequest(proxy, getRequest(), callbackContext, logger);
+            callbackContext = progressEvent.getCallbackContext();
+            invocations++;
+        } while (progressEvent.getStatus() == OperationStatus.IN_PROGRESS);
+
+        // The first invocation and 5 callbacks, each calling DeleteFleetMetric once and retrying it 3 times.
+        // With the SDK retrying too, each of those calls would have been up to 4 more.
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+        assertThat(invocations).isEqualTo(1 + CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS);
+        assertThat(iotClient.getCallCount("DeleteFleetMetric")).isEqualTo(invocations * 4);
+        assertThat(iotClient.getCallCount("DescribeFleetMetric")).isEqualTo(1);
+    }
+
+    private FakeIotClient getIotClient() {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+        FakeIotClient iotClient = new FakeIotClient();
+        iotClient.createFleetMetric(CreateFleetMetricRequest.builder().metricName(METRIC_NAME).queryString("*").build());
+        return iotClient;
+    }
+
+    private static HandlerConfig getConfig() {
+        HandlerConfig config = new HandlerConfig();
+        config.setCallRetryPolicy(new CallRetryPolicy(3, 100L, 2_000L, () -> 0.5, nanos -> { }));
+        config.setThrottlingRetryPolicy(new CallbackRetryPolicy(
+                CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS, 2, 60, () -> 0.5));
+        return config;
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> getRequest() {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder().metricName(METRIC_NAME).build())
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
+}
@@ -0,0 +1,294 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
+import software.amazon.awssdk.services.iot.model.InvalidRequestException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class CallbackRetryPolicyTest {
+
+    private static final Instant NOW = Instant.parse("2021-06-01T00:00:00Z");
+
+    @Mock
+    private HandlerLogger logger;
+
+    @Test
+    public void translateExceptionToProgressEvent_FirstThrottle_CallsBackAtStep() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.CREATE, ThrottlingException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(2);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.CREATE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+        assertThat(progressEvent.getResourceModel()).isEqualTo(FLEET_METRIC_RESOURCE_MODEL);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_CallbackBelowLogLevel_NotLogged() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+        Logger cloudFormationLogger = mock(Logger.class);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.CREATE, ThrottlingException.builder().build(),
+                new HandlerLogger(cloudFormationLogger, HandlerLogger.Level.WARN));
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        verifyNoInteractions(cloudFormationLogger);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_ThrottledAgain_CountsAttemptsAndKeepsContext() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.TAG_RESOURCE);
+        callbackContext.setRetryAttempt(2);
+        callbackContext.setMetricArn(TestConstants.FLEET_METRIC_ARN);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.TAG_RESOURCE,
+                ThrottlingException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(8);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(3);
+        assertThat(progressEvent.getCallbackContext().getMetricArn()).isEqualTo(TestConstants.FLEET_METRIC_ARN);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_AttemptsUsedUp_FailsWithThrottling() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.5);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DELETE);
+        callbackContext.setRetryAttempt(3);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.DELETE,
+                ThrottlingException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_ThrottledAtNextStep_StartsFreshCount() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.5);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DESCRIBE);
+        callbackContext.setRetryAttempt(3);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.UPDATE,
+                ThrottlingException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.UPDATE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_RateLimiterRejected_CallsBackWithoutUsingAttempt() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.UPDATE);
+        callbackContext.setRetryAttempt(3);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.UPDATE,
+                new RateLimiter.RejectedException("UpdateFleetMetric", 1.0), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(16);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.UPDATE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(3);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_VersionConflict_CallsBackAtGivenStep() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.DESCRIBE,
+                VersionConflictException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DESCRIBE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_VersionConflictAttemptsUsedUp_FailsWithResourceConflict() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.5);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DESCRIBE);
+        callbackContext.setRetryAttempt(3);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.DESCRIBE,
+                VersionConflictException.builder().message("version mismatch").build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.ResourceConflict);
+        assertThat(progressEvent.getMessage()).isEqualTo("version mismatch");
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_NotThrottling_FailsRightAway() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy();
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.CREATE, InvalidRequestException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.InvalidRequest);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_FirstIndexNotReady_SetsDeadlineAndCallsBack() {
+        CallbackRetryPolicy policy = getIndexWaitPolicy(600, NOW);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.CREATE, IndexNotReadyException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(10);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.CREATE);
+        assertThat(progressEvent.getCallbackContext().getIndexWaitAttempt()).isEqualTo(1);
+        assertThat(progressEvent.getCallbackContext().getIndexReadyDeadline())
+                .isEqualTo(NOW.plusSeconds(600).toEpochMilli());
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_IndexStillNotReady_IncreasesDelayAndKeepsDeadline() {
+        CallbackRetryPolicy policy = getIndexWaitPolicy(600, NOW);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.UPDATE);
+        callbackContext.setRetryAttempt(2);
+        callbackContext.setIndexWaitAttempt(2);
+        callbackContext.setIndexReadyDeadline(NOW.plusSeconds(300).toEpochMilli());
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.UPDATE,
+                IndexNotReadyException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(40);
+        assertThat(progressEvent.getCallbackContext().getIndexWaitAttempt()).isEqualTo(3);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(0);
+        assertThat(progressEvent.getCallbackContext().getIndexReadyDeadline())
+                .isEqualTo(NOW.plusSeconds(300).toEpochMilli());
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_IndexNotReadyNearDeadline_CallsBackAtDeadline() {
+        CallbackRetryPolicy policy = getIndexWaitPolicy(600, NOW);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setIndexWaitAttempt(5);
+        callbackContext.setIndexReadyDeadline(NOW.plusSeconds(30).toEpochMilli());
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.CREATE,
+                IndexNotReadyException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(30);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_IndexNotReadyAfterDeadline_FailsNotStabilized() {
+        CallbackRetryPolicy policy = getIndexWaitPolicy(600, NOW);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setIndexWaitAttempt(9);
+        callbackContext.setIndexReadyDeadline(NOW.minusSeconds(1).toEpochMilli());
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.CREATE,
+                IndexNotReadyException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.NotStabilized);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_IndexWaitDisabled_FailsRightAway() {
+        CallbackRetryPolicy policy = getIndexWaitPolicy(0, NOW);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.CREATE, IndexNotReadyException.builder().build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.GeneralServiceException);
+    }
+
+    @Test
+    public void getIndexWaitDelaySeconds_VerifyBounds() {
+        assertThat(CallbackRetryPolicy.getIndexWaitDelaySeconds(0)).isEqualTo(10);
+        assertThat(CallbackRetryPolicy.getIndexWaitDelaySeconds(2)).isEqualTo(40);
+        assertThat(CallbackRetryPolicy.getIndexWaitDelaySeconds(4)).isEqualTo(120);
+        assertThat(CallbackRetryPolicy.getIndexWaitDelaySeconds(100)).isEqualTo(120);
+    }
+
+    @Test
+    public void getDelaySeconds_VerifyBounds() {
+        assertThat(new CallbackRetryPolicy(5, 2, 60, () -> 0.0).getDelaySeconds(0)).isEqualTo(1);
+        assertThat(new CallbackRetryPolicy(5, 2, 60, () -> 1.0).getDelaySeconds(3)).isEqualTo(16);
+        assertThat(new CallbackRetryPolicy(5, 2, 60, () -> 1.0).getDelaySeconds(10)).isEqualTo(60);
+        assertThat(new CallbackRetryPolicy(5, 2, 60, () -> 1.0).getDelaySeconds(100)).isEqualTo(60);
+    }
+
+    private static CallbackRetryPolicy getIndexWaitPolicy(int indexReadyTimeoutSeconds, Instant now) {
+        return new CallbackRetryPolicy(3, 2, 60, () -> 0.5, indexReadyTimeoutSeconds,
+                Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_DeadlineExpired_CallsBackRightAwayWithoutAttempt() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.TAG_RESOURCE);
+        callbackContext.setRetryAttempt(2);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, callbackContext, HandlerStep.TAG_RESOURCE,
+                new Deadline.ExpiredException("TagResource", 500L), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(0);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.TAG_RESOURCE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(2);
+    }
+
+    @Test
+    public void translateExceptionToProgressEvent_ApiCallTimeout_RetriedLikeThrottling() {
+        CallbackRetryPolicy policy = new CallbackRetryPolicy(3, 2, 60, () -> 0.99);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = policy.translateExceptionToProgressEvent(
+                FLEET_METRIC_RESOURCE_MODEL, null, HandlerStep.UPDATE,
+                ApiCallTimeoutException.builder().message("timed out").build(), logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(2);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+    }
+}
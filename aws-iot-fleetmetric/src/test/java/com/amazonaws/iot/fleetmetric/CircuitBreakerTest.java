@@ -0,0 +1,195 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CircuitBreakerTest {
+
+    private static final String REGION = "us-east-1";
+    private static final String API = "DescribeFleetMetric";
+    private static final long OPEN_MILLIS = 30_000L;
+    private static final String METRIC_NAME = "Metric";
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MILLIS, nanoTime::get);
+
+    @Test
+    public void isFailure_InternalErrorsAndTimeouts() {
+        assertThat(CircuitBreaker.isFailure(InternalFailureException.builder().build())).isTrue();
+        assertThat(CircuitBreaker.isFailure(ApiCallTimeoutException.builder().message("timed out").build())).isTrue();
+        assertThat(CircuitBreaker.isFailure(ThrottlingException.builder().build())).isFalse();
+        assertThat(CircuitBreaker.isFailure(ResourceNotFoundException.builder().build())).isFalse();
+        assertThat(CircuitBreaker.isFailure(null)).isFalse();
+    }
+
+    @Test
+    public void onResult_FailuresInterruptedByAnswer_StaysClosed() {
+        fail(2);
+        assertThat(breaker.onResult(REGION, API, ResourceNotFoundException.builder().build())).isNull();
+        fail(2);
+
+        assertThat(breaker.getState(REGION, API)).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.acquire(REGION, API)).isNull();
+    }
+
+    @Test
+    public void onResult_ThresholdReached_OpensForThatRegionAndApiOnly() {
+        fail(2);
+        assertThat(breaker.onResult(REGION, API, InternalFailureException.builder().build()))
+                .isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThatThrownBy(() -> breaker.acquire(REGION, API))
+                .isInstanceOf(CircuitBreaker.OpenException.class)
+                .hasMessageContaining("retry in 30000 ms");
+        assertThat(breaker.acquire("eu-west-1", API)).isNull();
+        assertThat(breaker.acquire(REGION, "ListTagsForResource")).isNull();
+    }
+
+    @Test
+    public void acquire_OpenDurationPassed_LetsOneProbeThrough() {
+        open();
+        advance(OPEN_MILLIS - 1);
+        assertThatThrownBy(() -> breaker.acquire(REGION, API)).isInstanceOf(CircuitBreaker.OpenException.class);
+
+        advance(1);
+        assertThat(breaker.acquire(REGION, API)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(() -> breaker.acquire(REGION, API)).isInstanceOf(CircuitBreaker.OpenException.class);
+
+        assertThat(breaker.onResult(REGION, API, null)).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.acquire(REGION, API)).isNull();
+    }
+
+    @Test
+    public void onResult_ProbeFails_OpensAgain() {
+        open();
+        advance(OPEN_MILLIS);
+        breaker.acquire(REGION, API);
+
+        assertThat(breaker.onResult(REGION, API, ApiCallTimeoutException.builder().message("timed out").build()))
+                .isEqualTo(CircuitBreaker.State.OPEN);
+        advance(OPEN_MILLIS - 1);
+        assertThatThrownBy(() -> breaker.acquire(REGION, API)).isInstanceOf(CircuitBreaker.OpenException.class);
+        advance(1);
+        assertThat(breaker.acquire(REGION, API)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    public void acquire_ProbeNeverReported_AnotherProbeAfterOpenDuration() {
+        open();
+        advance(OPEN_MILLIS);
+        breaker.acquire(REGION, API);
+
+        advance(OPEN_MILLIS);
+
+        // Still half-open, so the state doesn't move, but the call is let through.
+        assertThat(breaker.acquire(REGION, API)).isNull();
+        assertThat(breaker.getState(REGION, API)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    public void onResult_LateFailureOfCallStartedBeforeOpening_DoesNotExtendOpen() {
+        open();
+        advance(OPEN_MILLIS / 2);
+        assertThat(breaker.onResult(REGION, API, InternalFailureException.builder().build())).isNull();
+
+        advance(OPEN_MILLIS / 2);
+        assertThat(breaker.acquire(REGION, API)).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    public void disabled_NeverOpens() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(CircuitBreaker.DISABLED.onResult(REGION, API, InternalFailureException.builder().build()))
+                    .isNull();
+        }
+
+        assertThat(CircuitBreaker.DISABLED.acquire(REGION, API)).isNull();
+        assertThat(CircuitBreaker.DISABLED.getState(REGION, API)).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void read_InternalFailureBurst_FailsFastThenProbesAndCloses() {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+        FakeIotClient iotClient = new FakeIotClient();
+        iotClient.createFleetMetric(
+                CreateFleetMetricRequest.builder().metricName(METRIC_NAME).queryString("*").build());
+        iotClient.addFault(API, FakeIotClient.Fault.times(3, () -> InternalFailureException.builder().build()));
+        HandlerConfig config = new HandlerConfig();
+        config.setCircuitBreaker(breaker);
+        ReadHandler handler = new ReadHandler(iotClient, config);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(handler.handleRequest(proxy, getRequest(), null, logger).getErrorCode())
+                    .isEqualTo(HandlerErrorCode.InternalFailure);
+        }
+        ProgressEvent<ResourceModel, CallbackContext> rejected =
+                handler.handleRequest(proxy, getRequest(), null, logger);
+
+        assertThat(rejected.getErrorCode()).isEqualTo(HandlerErrorCode.ServiceInternalError);
+        assertThat(iotClient.getCallCount(API)).isEqualTo(3);
+
+        advance(OPEN_MILLIS);
+        ProgressEvent<ResourceModel, CallbackContext> probe =
+                handler.handleRequest(proxy, getRequest(), null, logger);
+
+        assertThat(probe.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(iotClient.getCallCount(API)).isEqualTo(4);
+        assertThat(breaker.getState(FakeIotClient.REGION, API)).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.onResult(REGION, API, InternalFailureException.builder().build());
+        }
+    }
+
+    private void open() {
+        fail(3);
+        assertThat(breaker.getState(REGION, API)).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void advance(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> getRequest() {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder().metricName(METRIC_NAME).build())
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
+}
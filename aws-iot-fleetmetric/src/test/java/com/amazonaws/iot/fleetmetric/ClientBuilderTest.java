@@ -0,0 +1,83 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.iot.IotClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientBuilderTest {
+
+    private static final int THREAD_COUNT = 16;
+    private static final String REGION_PROPERTY = "aws.region";
+
+    // What the region property was before, so that the other test classes in the JVM don't see this one's.
+    private static String previousRegion;
+
+    @BeforeAll
+    public static void setup() {
+        // Building the client resolves the region, which isn't set outside of Lambda.
+        previousRegion = System.getProperty(REGION_PROPERTY);
+        System.setProperty(REGION_PROPERTY, "us-east-1");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        if (previousRegion == null) {
+            System.clearProperty(REGION_PROPERTY);
+        } else {
+            System.setProperty(REGION_PROPERTY, previousRegion);
+        }
+    }
+
+    @Test
+    public void getClient_CalledRepeatedly_ReturnsSameInstance() {
+        IotClient first = ClientBuilder.getClient();
+        IotClient second = ClientBuilder.getClient();
+
+        assertThat(first).isNotNull();
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    public void getOverrideConfiguration_RetryBudget_SdkRetriesOnlyWithoutIt() {
+        assertThat(ClientBuilder.getOverrideConfiguration(3).retryPolicy().get().numRetries()).isEqualTo(0);
+        assertThat(ClientBuilder.getOverrideConfiguration(0).retryPolicy().get().numRetries()).isGreaterThan(0);
+    }
+
+    @Test
+    public void getClient_CalledConcurrently_BuildsOneClient() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<IotClient>> futures = new ArrayList<>();
+            Callable<IotClient> task = () -> {
+                start.await();
+                return ClientBuilder.getClient();
+            };
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            Set<IotClient> clients = ConcurrentHashMap.newKeySet();
+            for (Future<IotClient> future : futures) {
+                clients.add(future.get());
+            }
+            assertThat(clients).hasSize(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
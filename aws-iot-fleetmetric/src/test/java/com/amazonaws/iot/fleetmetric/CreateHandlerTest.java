@@ -7,13 +7,16 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.CreateFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.ResourceAlreadyExistsException;
+import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
 import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
 import software.amazon.cloudformation.exceptions.CfnAlreadyExistsException;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
@@ -39,6 +42,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -57,7 +61,7 @@ public class CreateHandlerTest {
 
     @BeforeEach
     public void setup() {
-        handler = new CreateHandler(mock(IotClient.class));
+        handler = new CreateHandler(mock(IotClient.class), getRetryingConfig());
     }
 
     @AfterEach
@@ -213,4 +217,247 @@ public class CreateHandlerTest {
         assertThat(response.getStatus()).isEqualTo(OperationStatus.FAILED);
         assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
     }
+
+    @Test
+    public void handleRequest_OptimisticCreate_OnlyCreateCall() {
+        // A fresh model, since the handler sets the ARN on it.
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .queryString(FLEET_METRIC_QUERY_STRING)
+                        .aggregationType(FLEET_METRIC_RESOURCE_MODEL.getAggregationType())
+                        .period(FLEET_METRIC_PERIOD)
+                        .build())
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .desiredResourceTags(DESIRED_TAGS)
+                .build();
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenReturn(CreateFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(FLEET_METRIC_ARN)
+                        .build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response =
+                getOptimisticHandler().handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_OptimisticCreateAlreadyExists_VerifyTranslation() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .desiredResourceTags(DESIRED_TAGS)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenThrow(ResourceAlreadyExistsException.builder().build());
+
+        assertThatThrownBy(() ->
+                getOptimisticHandler().handleRequest(proxy, request, null, logger))
+                .isInstanceOf(CfnAlreadyExistsException.class);
+    }
+
+    @Test
+    public void handleRequest_OptimisticCreateIndexNotEnabled_VerifyTranslation() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response =
+                getOptimisticHandler().handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+    }
+
+    @Test
+    public void handleRequest_CreateThrottled_CallsBackAtCreate() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackDelaySeconds()).isPositive();
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.CREATE);
+        assertThat(response.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_CreateTimedOut_CallsBackAtDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenThrow(ApiCallTimeoutException.builder().message("timed out").build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DESCRIBE);
+        assertThat(response.getCallbackContext().isCreateTimedOut()).isTrue();
+    }
+
+    @Test
+    public void handleRequest_ResumedAfterCreateTimedOutButCreated_Succeeds() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(getDesiredModel())
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DESCRIBE);
+        callbackContext.setRetryAttempt(1);
+        callbackContext.setCreateTimedOut(true);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(FLEET_METRIC_ARN)
+                        .queryString(FLEET_METRIC_QUERY_STRING)
+                        .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                        .period(FLEET_METRIC_PERIOD)
+                        .build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response =
+                handler.handleRequest(proxy, request, callbackContext, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        verify(proxy, never()).injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ResumedAfterCreateTimedOutOtherMetricExists_AlreadyExists() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(getDesiredModel())
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DESCRIBE);
+        callbackContext.setCreateTimedOut(true);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(FLEET_METRIC_ARN)
+                        .queryString("otherQueryString")
+                        .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                        .period(FLEET_METRIC_PERIOD)
+                        .build());
+
+        assertThatThrownBy(() -> handler.handleRequest(proxy, request, callbackContext, logger))
+                .isInstanceOf(CfnAlreadyExistsException.class);
+    }
+
+    @Test
+    public void handleRequest_IndexNotReady_WaitsAtCreate() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenThrow(IndexNotReadyException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackDelaySeconds()).isEqualTo(CallbackRetryPolicy.INDEX_WAIT_BASE_DELAY_SECONDS);
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.CREATE);
+        assertThat(response.getCallbackContext().getIndexReadyDeadline()).isNotNull();
+    }
+
+    @Test
+    public void handleRequest_DescribeThrottled_CallsBackAtDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DESCRIBE);
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ResumedAtCreate_SkipsDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .queryString(FLEET_METRIC_QUERY_STRING)
+                        .aggregationType(FLEET_METRIC_RESOURCE_MODEL.getAggregationType())
+                        .period(FLEET_METRIC_PERIOD)
+                        .build())
+                .logicalResourceIdentifier(FLEET_METRIC_LOGICAL_RESOURCE_IDENTIFIER)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.CREATE);
+        callbackContext.setRetryAttempt(1);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any()))
+                .thenReturn(CreateFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(FLEET_METRIC_ARN)
+                        .build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response =
+                handler.handleRequest(proxy, request, callbackContext, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        verify(proxy).injectCredentialsAndInvokeV2(any(CreateFleetMetricRequest.class), any());
+    }
+
+    // A model of its own, since a handler that succeeds sets its MetricArn.
+    private static ResourceModel getDesiredModel() {
+        return ResourceModel.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .queryString(FLEET_METRIC_QUERY_STRING)
+                .aggregationType(FLEET_METRIC_RESOURCE_MODEL.getAggregationType())
+                .period(FLEET_METRIC_PERIOD)
+                .build();
+    }
+
+    private CreateHandler getOptimisticHandler() {
+        HandlerConfig config = new HandlerConfig();
+        config.setOptimisticCreate(true);
+        return new CreateHandler(mock(IotClient.class), config);
+    }
+
+    // Throttling retries and the index wait are off unless configured, so the tests of the callbacks turn them on.
+    private static HandlerConfig getRetryingConfig() {
+        HandlerConfig config = new HandlerConfig();
+        config.setThrottlingRetryPolicy(new CallbackRetryPolicy(CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS, 900));
+        return config;
+    }
 }
@@ -0,0 +1,91 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeadlineTest {
+
+    private static final DescribeFleetMetricRequest DESCRIBE_REQUEST =
+            DescribeFleetMetricRequest.builder().metricName(FLEET_METRIC_NAME).build();
+
+    private final AtomicLong nanoTime = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    private void advanceMillis(long millis) {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void getRemainingMillis_CountsFromCreation() {
+        Deadline deadline = new Deadline(10_000L, nanoTime::get);
+
+        advanceMillis(4_000L);
+
+        assertThat(deadline.getRemainingMillis()).isEqualTo(6_000L);
+    }
+
+    @Test
+    public void hasTimeForCall_LessThanReserveAndShortestCallLeft_False() {
+        Deadline deadline = new Deadline(5_000L, nanoTime::get);
+
+        advanceMillis(5_000L - Deadline.RESERVE_MILLIS - Deadline.MIN_CALL_MILLIS);
+        assertThat(deadline.hasTimeForCall()).isTrue();
+
+        advanceMillis(1L);
+        assertThat(deadline.hasTimeForCall()).isFalse();
+    }
+
+    @Test
+    public void limit_SetsApiCallTimeoutToWhatIsLeftLessReserve() {
+        Deadline deadline = new Deadline(10_000L, nanoTime::get);
+        advanceMillis(4_000L);
+
+        DescribeFleetMetricRequest limited = deadline.limit(DESCRIBE_REQUEST);
+
+        assertThat(limited.metricName()).isEqualTo(FLEET_METRIC_NAME);
+        assertThat(limited.overrideConfiguration().get().apiCallTimeout().get())
+                .isEqualTo(Duration.ofMillis(6_000L - Deadline.RESERVE_MILLIS));
+    }
+
+    @Test
+    public void limit_AlmostNothingLeft_ShortestCall() {
+        Deadline deadline = new Deadline(1_000L, nanoTime::get);
+        advanceMillis(2_000L);
+
+        DescribeFleetMetricRequest limited = deadline.limit(DESCRIBE_REQUEST);
+
+        assertThat(limited.overrideConfiguration().get().apiCallTimeout().get())
+                .isEqualTo(Duration.ofMillis(Deadline.MIN_CALL_MILLIS));
+    }
+
+    @Test
+    public void limit_OverrideConfigurationSet_KeepsIt() {
+        Deadline deadline = new Deadline(10_000L, nanoTime::get);
+        DescribeFleetMetricRequest request = DESCRIBE_REQUEST.toBuilder()
+                .overrideConfiguration(AwsRequestOverrideConfiguration.builder()
+                        .apiCallAttemptTimeout(Duration.ofMillis(500L))
+                        .build())
+                .build();
+
+        DescribeFleetMetricRequest limited = deadline.limit(request);
+
+        assertThat(limited.overrideConfiguration().get().apiCallAttemptTimeout().get())
+                .isEqualTo(Duration.ofMillis(500L));
+        assertThat(limited.overrideConfiguration().get().apiCallTimeout().get())
+                .isEqualTo(Duration.ofMillis(10_000L - Deadline.RESERVE_MILLIS));
+    }
+
+    @Test
+    public void none_NeverExpiresAndLeavesRequestsAlone() {
+        assertThat(Deadline.NONE.hasTimeForCall()).isTrue();
+        assertThat(Deadline.NONE.getRemainingMillis()).isEqualTo(Long.MAX_VALUE);
+        assertThat(Deadline.NONE.limit(DESCRIBE_REQUEST)).isSameAs(DESCRIBE_REQUEST);
+    }
+}
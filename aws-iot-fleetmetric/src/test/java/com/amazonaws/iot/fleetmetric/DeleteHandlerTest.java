@@ -10,9 +10,11 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.DeleteFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.InvalidRequestException;
 import software.amazon.awssdk.services.iot.model.IotRequest;
 import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
@@ -20,10 +22,14 @@ import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -43,7 +49,7 @@ public class DeleteHandlerTest {
 
     @BeforeEach
     public void setup() {
-        handler = new DeleteHandler(mock(IotClient.class));
+        handler = new DeleteHandler(mock(IotClient.class), getRetryingConfig());
     }
 
     @AfterEach
@@ -76,6 +82,54 @@ public class DeleteHandlerTest {
         assertThat(deleteRequest.metricName()).isEqualTo(FLEET_METRIC_NAME);
     }
 
+    @Test
+    public void handleRequest_DeleteThrottled_LogsCallMetrics() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(DeleteFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        handler.handleRequest(proxy, request, null, logger);
+
+        // The metrics are the last line of the invocation.
+        ArgumentCaptor<String> logLines = ArgumentCaptor.forClass(String.class);
+        verify(logger, atLeastOnce()).log(logLines.capture());
+        String metricsLine = logLines.getAllValues().get(logLines.getAllValues().size() - 1);
+        assertThat(metricsLine)
+                .startsWith("{\"_aws\":")
+                .contains("\"Action\":\"DELETE\"")
+                .contains("\"DescribeFleetMetric.Calls\":1,\"DescribeFleetMetric.Errors\":0")
+                .contains("\"DeleteFleetMetric.Calls\":1,\"DeleteFleetMetric.Errors\":1")
+                .contains("\"DeleteFleetMetric.Exceptions\":[\"ThrottlingException\"]");
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_DebugLevel_LinesWrittenOnceBeforeMetrics() {
+        HandlerConfig config = new HandlerConfig();
+        config.setLogLevel(HandlerLogger.Level.DEBUG);
+        handler = new DeleteHandler(mock(IotClient.class), config);
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        handler.handleRequest(proxy, request, null, logger);
+
+        // The Describe and Delete lines in one write, then the metrics.
+        ArgumentCaptor<String> logLines = ArgumentCaptor.forClass(String.class);
+        verify(logger, times(2)).log(logLines.capture());
+        String[] lines = logLines.getAllValues().get(0).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).startsWith("Called Describe for");
+        assertThat(lines[1]).startsWith("Deleted");
+        assertThat(logLines.getAllValues().get(1)).startsWith("{\"_aws\":");
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(), any());
+    }
+
     @Test
     public void handleRequest_DescribeThrowsNotFound_VerifyTranslation() {
         ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
@@ -106,4 +160,103 @@ public class DeleteHandlerTest {
                 handler.handleRequest(proxy, request, null, logger);
         assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
     }
+
+    @Test
+    public void handleRequest_DeleteThrottled_CallsBackAtDelete() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        // Strict stubs would flag the unstubbed Describe call as an argument mismatch.
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(any(DeleteFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent =
+                handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isPositive();
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DELETE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(1);
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(DeleteFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ResumedAtDelete_SkipsDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DELETE);
+        callbackContext.setRetryAttempt(1);
+
+        ProgressEvent<ResourceModel, CallbackContext> response =
+                handler.handleRequest(proxy, request, callbackContext, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        verify(proxy).injectCredentialsAndInvokeV2(any(DeleteFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ThrottlingRetriesUsedUp_VerifyTranslation() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.DESCRIBE);
+        callbackContext.setRetryAttempt(CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ThrottlingException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent =
+                handler.handleRequest(proxy, request, callbackContext, logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+    }
+
+    @Test
+    public void handleRequest_DeadlineNearAfterDescribe_CallsBackAtDelete() {
+        AtomicLong nanoTime = new AtomicLong();
+        HandlerConfig config = new HandlerConfig();
+        config.setInvocationDeadline(() -> new Deadline(3_000L, nanoTime::get));
+        DeleteHandler deadlineHandler = new DeleteHandler(mock(IotClient.class), config);
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        // Describe takes 2 of the 3 seconds, which leaves too little for Delete.
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> {
+                    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(2));
+                    return DescribeFleetMetricResponse.builder().build();
+                });
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent =
+                deadlineHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(progressEvent.getCallbackDelaySeconds()).isEqualTo(0);
+        assertThat(progressEvent.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DELETE);
+        assertThat(progressEvent.getCallbackContext().getRetryAttempt()).isEqualTo(0);
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+
+        // The callback gets a fresh deadline, and deletes without describing again.
+        ProgressEvent<ResourceModel, CallbackContext> resumed =
+                deadlineHandler.handleRequest(proxy, request, progressEvent.getCallbackContext(), logger);
+
+        assertThat(resumed.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy).injectCredentialsAndInvokeV2(any(DeleteFleetMetricRequest.class), any());
+    }
+
+    // Throttling retries and the index wait are off unless configured, so the tests of the callbacks turn them on.
+    private static HandlerConfig getRetryingConfig() {
+        HandlerConfig config = new HandlerConfig();
+        config.setThrottlingRetryPolicy(new CallbackRetryPolicy(CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS, 900));
+        return config;
+    }
 }
@@ -0,0 +1,450 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.AggregationType;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.DeleteFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DeleteFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.FleetMetricNameAndArn;
+import software.amazon.awssdk.services.iot.model.IotRequest;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsResponse;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.ResourceAlreadyExistsException;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.Tag;
+import software.amazon.awssdk.services.iot.model.TagResourceRequest;
+import software.amazon.awssdk.services.iot.model.TagResourceResponse;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
+import software.amazon.awssdk.services.iot.model.UntagResourceResponse;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory IoT that keeps the fleet metrics and their tags, for running the handlers against realistic
+ * call sequences and load without an account. Pass it wherever a handler takes an IotClient.
+ *
+ * It behaves like the service where the handlers can tell: names are unique, every update bumps the version
+ * and honors expectedVersion, deleting a missing metric succeeds, and listings are paginated. On top of that,
+ * each API, named as in the call metrics, e.g. "DescribeFleetMetric", can be given
+ *  - a latency distribution, slept on every call;
+ *  - a TPS quota, past which calls throw ThrottlingException, with a burst of one second's worth;
+ *  - faults, which make calls throw the exceptions they supply.
+ *
+ * It's thread-safe, so that concurrent handlers can share it.
+ */
+class FakeIotClient implements IotClient {
+
+    static final String REGION = "us-east-1";
+    static final String ACCOUNT_ID = "123456789012";
+    static final int MAX_LIST_RESULTS = 250;
+    static final int DEFAULT_TAG_PAGE_SIZE = 50;
+
+    /**
+     * How long a call takes, drawn anew for every call.
+     */
+    interface Latency {
+        long nextMillis();
+
+        static Latency none() {
+            return () -> 0L;
+        }
+
+        static Latency fixed(long millis) {
+            return () -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis, Random random) {
+            return () -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+        }
+
+        /**
+         * Service latencies have a long tail. With a sigma of 0.5, p99 is about three times the median.
+         */
+        static Latency logNormal(long medianMillis, double sigma, Random random) {
+            return () -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    /**
+     * Decides whether a call fails.
+     */
+    interface Fault {
+        /**
+         * @return the exception the call throws, or null if it goes through.
+         */
+        RuntimeException next(IotRequest request);
+
+        /**
+         * Fails the next count calls.
+         */
+        static Fault times(int count, Supplier<? extends RuntimeException> exception) {
+            AtomicInteger remaining = new AtomicInteger(count);
+            return request -> remaining.getAndDecrement() > 0 ? exception.get() : null;
+        }
+
+        /**
+         * Fails calls at random, each with the given probability.
+         */
+        static Fault rate(double probability, Supplier<? extends RuntimeException> exception, Random random) {
+            return request -> random.nextDouble() < probability ? exception.get() : null;
+        }
+    }
+
+    private static final class FleetMetric {
+        private DescribeFleetMetricResponse describeResponse;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+    }
+
+    // Ordered by name, so that a listing is stable while metrics come and go.
+    private final TreeMap<String, FleetMetric> metricsByName = new TreeMap<>();
+
+    private final Clock clock;
+    private final LongSupplier nanoTime;
+    private final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> quotas = new ConcurrentHashMap<>();
+    private final Map<String, List<Fault>> faults = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> callCounts = new ConcurrentHashMap<>();
+    private volatile Latency defaultLatency = Latency.none();
+    private volatile int tagPageSize = DEFAULT_TAG_PAGE_SIZE;
+
+    FakeIotClient() {
+        this(Clock.systemUTC(), System::nanoTime);
+    }
+
+    /**
+     * @param clock    dates the metrics are created and modified at.
+     * @param nanoTime refills the TPS quotas.
+     */
+    FakeIotClient(Clock clock, LongSupplier nanoTime) {
+        this.clock = clock;
+        this.nanoTime = nanoTime;
+    }
+
+    static String getArn(String metricName) {
+        return String.format("arn:aws:iot:%s:%s:fleetmetric/%s", REGION, ACCOUNT_ID, metricName);
+    }
+
+    void setDefaultLatency(Latency latency) {
+        this.defaultLatency = latency;
+    }
+
+    void setLatency(String api, Latency latency) {
+        latencies.put(api, latency);
+    }
+
+    void setTpsQuota(String api, double tps) {
+        quotas.put(api, new TokenBucket(tps));
+    }
+
+    void addFault(String api, Fault fault) {
+        faults.computeIfAbsent(api, key -> new CopyOnWriteArrayList<>()).add(fault);
+    }
+
+    void setTagPageSize(int tagPageSize) {
+        this.tagPageSize = tagPageSize;
+    }
+
+    int getCallCount(String api) {
+        AtomicInteger count = callCounts.get(api);
+        return count == null ? 0 : count.get();
+    }
+
+    synchronized int getMetricCount() {
+        return metricsByName.size();
+    }
+
+    @Override
+    public CreateFleetMetricResponse createFleetMetric(CreateFleetMetricRequest request) {
+        call("CreateFleetMetric", request);
+        synchronized (this) {
+            if (metricsByName.containsKey(request.metricName())) {
+                throw ResourceAlreadyExistsException.builder()
+                        .message("Fleet metric " + request.metricName() + " already exists.")
+                        .resourceArn(getArn(request.metricName()))
+                        .build();
+            }
+            Instant now = clock.instant();
+            FleetMetric metric = new FleetMetric();
+            metric.describeResponse = DescribeFleetMetricResponse.builder()
+                    .metricName(request.metricName())
+                    .metricArn(getArn(request.metricName()))
+                    .queryString(request.queryString())
+                    .aggregationType(request.aggregationType())
+                    .period(request.period())
+                    .aggregationField(request.aggregationField())
+                    .description(request.description())
+                    .queryVersion(request.queryVersion())
+                    .indexName(request.indexName())
+                    .unit(request.unit())
+                    .creationDate(now)
+                    .lastModifiedDate(now)
+                    .version(1L)
+                    .build();
+            if (request.tags() != null) {
+                request.tags().forEach(tag -> metric.tags.put(tag.key(), tag.value()));
+            }
+            metricsByName.put(request.metricName(), metric);
+            return CreateFleetMetricResponse.builder()
+                    .metricName(request.metricName())
+                    .metricArn(metric.describeResponse.metricArn())
+                    .build();
+        }
+    }
+
+    @Override
+    public DescribeFleetMetricResponse describeFleetMetric(DescribeFleetMetricRequest request) {
+        call("DescribeFleetMetric", request);
+        synchronized (this) {
+            return getMetric(request.metricName()).describeResponse;
+        }
+    }
+
+    @Override
+    public UpdateFleetMetricResponse updateFleetMetric(UpdateFleetMetricRequest request) {
+        call("UpdateFleetMetric", request);
+        synchronized (this) {
+            FleetMetric metric = getMetric(request.metricName());
+            DescribeFleetMetricResponse current = metric.describeResponse;
+            checkVersion(request.expectedVersion(), current);
+            // Like the service, fields the request leaves unset keep their value.
+            DescribeFleetMetricResponse.Builder updated = current.toBuilder()
+                    .lastModifiedDate(clock.instant())
+                    .version(current.version() + 1);
+            if (request.queryString() != null) {
+                updated.queryString(request.queryString());
+            }
+            AggregationType aggregationType = request.aggregationType();
+            if (aggregationType != null) {
+                updated.aggregationType(aggregationType);
+            }
+            if (request.period() != null) {
+                updated.period(request.period());
+            }
+            if (request.aggregationField() != null) {
+                updated.aggregationField(request.aggregationField());
+            }
+            if (request.description() != null) {
+                updated.description(request.description());
+            }
+            if (request.queryVersion() != null) {
+                updated.queryVersion(request.queryVersion());
+            }
+            if (request.indexName() != null) {
+                updated.indexName(request.indexName());
+            }
+            if (request.unit() != null) {
+                updated.unit(request.unit());
+            }
+            metric.describeResponse = updated.build();
+            return UpdateFleetMetricResponse.builder().build();
+        }
+    }
+
+    @Override
+    public DeleteFleetMetricResponse deleteFleetMetric(DeleteFleetMetricRequest request) {
+        call("DeleteFleetMetric", request);
+        synchronized (this) {
+            FleetMetric metric = metricsByName.get(request.metricName());
+            // Deleting a metric that doesn't exist succeeds.
+            if (metric != null) {
+                checkVersion(request.expectedVersion(), metric.describeResponse);
+                metricsByName.remove(request.metricName());
+            }
+            return DeleteFleetMetricResponse.builder().build();
+        }
+    }
+
+    /**
+     * The token is the name of the last metric of the previous page.
+     */
+    @Override
+    public ListFleetMetricsResponse listFleetMetrics(ListFleetMetricsRequest request) {
+        call("ListFleetMetrics", request);
+        int maxResults = request.maxResults() == null
+                ? MAX_LIST_RESULTS
+                : Math.max(1, Math.min(MAX_LIST_RESULTS, request.maxResults()));
+        synchronized (this) {
+            Map<String, FleetMetric> remaining = request.nextToken() == null
+                    ? metricsByName
+                    : metricsByName.tailMap(request.nextToken(), false);
+            List<FleetMetricNameAndArn> page = new ArrayList<>();
+            for (FleetMetric metric : remaining.values()) {
+                if (page.size() == maxResults) {
+                    break;
+                }
+                page.add(FleetMetricNameAndArn.builder()
+                        .metricName(metric.describeResponse.metricName())
+                        .metricArn(metric.describeResponse.metricArn())
+                        .build());
+            }
+            String nextToken = remaining.size() > page.size() ? page.get(page.size() - 1).metricName() : null;
+            return ListFleetMetricsResponse.builder()
+                    .fleetMetrics(page)
+                    .nextToken(nextToken)
+                    .build();
+        }
+    }
+
+    /**
+     * The token is the index of the first tag of the page.
+     */
+    @Override
+    public ListTagsForResourceResponse listTagsForResource(ListTagsForResourceRequest request) {
+        call("ListTagsForResource", request);
+        int pageSize = tagPageSize;
+        synchronized (this) {
+            List<Tag> tags = new ArrayList<>();
+            getMetricByArn(request.resourceArn()).tags.forEach((key, value) ->
+                    tags.add(Tag.builder().key(key).value(value).build()));
+            int from = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+            int to = Math.min(tags.size(), from + pageSize);
+            return ListTagsForResourceResponse.builder()
+                    .tags(new ArrayList<>(tags.subList(from, to)))
+                    .nextToken(to < tags.size() ? String.valueOf(to) : null)
+                    .build();
+        }
+    }
+
+    @Override
+    public TagResourceResponse tagResource(TagResourceRequest request) {
+        call("TagResource", request);
+        synchronized (this) {
+            FleetMetric metric = getMetricByArn(request.resourceArn());
+            request.tags().forEach(tag -> metric.tags.put(tag.key(), tag.value()));
+            return TagResourceResponse.builder().build();
+        }
+    }
+
+    @Override
+    public UntagResourceResponse untagResource(UntagResourceRequest request) {
+        call("UntagResource", request);
+        synchronized (this) {
+            FleetMetric metric = getMetricByArn(request.resourceArn());
+            request.tagKeys().forEach(metric.tags::remove);
+            return UntagResourceResponse.builder().build();
+        }
+    }
+
+    @Override
+    public String serviceName() {
+        return "iot";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Everything a call goes through before it reaches the metrics: the quota, the latency and the faults.
+     * A throttled call fails right away, like on the service.
+     */
+    private void call(String api, IotRequest request) {
+        callCounts.computeIfAbsent(api, key -> new AtomicInteger()).incrementAndGet();
+
+        TokenBucket quota = quotas.get(api);
+        if (quota != null && !quota.tryAcquire(nanoTime.getAsLong())) {
+            throw ThrottlingException.builder().message("Rate exceeded for " + api + ".").statusCode(400).build();
+        }
+
+        long latencyMillis = latencies.getOrDefault(api, defaultLatency).nextMillis();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        for (Fault fault : faults.getOrDefault(api, new ArrayList<>())) {
+            RuntimeException exception = fault.next(request);
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
+
+    private FleetMetric getMetric(String metricName) {
+        FleetMetric metric = metricsByName.get(metricName);
+        if (metric == null) {
+            throw ResourceNotFoundException.builder()
+                    .message("Fleet metric " + metricName + " does not exist.")
+                    .build();
+        }
+        return metric;
+    }
+
+    private FleetMetric getMetricByArn(String resourceArn) {
+        for (FleetMetric metric : metricsByName.values()) {
+            if (metric.describeResponse.metricArn().equals(resourceArn)) {
+                return metric;
+            }
+        }
+        throw ResourceNotFoundException.builder()
+                .message("Resource " + resourceArn + " does not exist.")
+                .build();
+    }
+
+    private static void checkVersion(Long expectedVersion, DescribeFleetMetricResponse current) {
+        if (expectedVersion != null && !expectedVersion.equals(current.version())) {
+            throw VersionConflictException.builder()
+                    .message(String.format("Fleet metric %s is at version %d, not %d.",
+                            current.metricName(), current.version(), expectedVersion))
+                    .build();
+        }
+    }
+
+    /**
+     * Holds up to one second's worth of calls, and refills continuously.
+     */
+    private static final class TokenBucket {
+        private final double tps;
+        private double tokens;
+        private long refilledAtNanos;
+        private boolean started;
+
+        private TokenBucket(double tps) {
+            this.tps = tps;
+            this.tokens = tps;
+        }
+
+        private synchronized boolean tryAcquire(long nowNanos) {
+            // Concurrent calls may read the clock in one order and get here in another. The bucket never goes back.
+            if (!started || nowNanos - refilledAtNanos > 0) {
+                if (started) {
+                    double elapsedSeconds = (nowNanos - refilledAtNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+                    tokens = Math.min(tps, tokens + elapsedSeconds * tps);
+                }
+                refilledAtNanos = nowNanos;
+            }
+            started = true;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
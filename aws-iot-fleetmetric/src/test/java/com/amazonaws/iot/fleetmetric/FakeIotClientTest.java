@@ -0,0 +1,262 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DeleteFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsResponse;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.ResourceAlreadyExistsException;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.iot.model.Tag;
+import software.amazon.awssdk.services.iot.model.TagResourceRequest;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class FakeIotClientTest {
+
+    private static final Instant NOW = Instant.parse("2021-06-01T00:00:00Z");
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private final FakeIotClient iotClient = new FakeIotClient(Clock.fixed(NOW, ZoneOffset.UTC), nanoTime::get);
+
+    @Test
+    public void createFleetMetric_ThenDescribe_FirstVersion() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+
+        DescribeFleetMetricResponse response = describe("Metric");
+
+        assertThat(response.metricArn()).isEqualTo(FakeIotClient.getArn("Metric"));
+        assertThat(response.queryString()).isEqualTo("*");
+        assertThat(response.version()).isEqualTo(1L);
+        assertThat(response.creationDate()).isEqualTo(NOW);
+        assertThat(response.lastModifiedDate()).isEqualTo(NOW);
+    }
+
+    @Test
+    public void createFleetMetric_Exists_AlreadyExists() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+
+        assertThatThrownBy(() -> iotClient.createFleetMetric(getCreateRequest("Metric")))
+                .isInstanceOf(ResourceAlreadyExistsException.class);
+    }
+
+    @Test
+    public void updateFleetMetric_BumpsVersionAndKeepsUnsetFields() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+
+        iotClient.updateFleetMetric(UpdateFleetMetricRequest.builder()
+                .metricName("Metric")
+                .description("updated")
+                .expectedVersion(1L)
+                .build());
+
+        DescribeFleetMetricResponse response = describe("Metric");
+        assertThat(response.description()).isEqualTo("updated");
+        assertThat(response.queryString()).isEqualTo("*");
+        assertThat(response.version()).isEqualTo(2L);
+    }
+
+    @Test
+    public void updateFleetMetric_OtherVersionExpected_VersionConflict() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+
+        assertThatThrownBy(() -> iotClient.updateFleetMetric(UpdateFleetMetricRequest.builder()
+                .metricName("Metric")
+                .expectedVersion(2L)
+                .build()))
+                .isInstanceOf(VersionConflictException.class);
+        assertThat(describe("Metric").version()).isEqualTo(1L);
+    }
+
+    @Test
+    public void deleteFleetMetric_Missing_Succeeds() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+
+        iotClient.deleteFleetMetric(DeleteFleetMetricRequest.builder().metricName("Metric").build());
+        iotClient.deleteFleetMetric(DeleteFleetMetricRequest.builder().metricName("Metric").build());
+
+        assertThatThrownBy(() -> describe("Metric")).isInstanceOf(ResourceNotFoundException.class);
+        assertThat(iotClient.getMetricCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void listFleetMetrics_MorePagesThanMaxResults_PaginatesByName() {
+        for (String name : Arrays.asList("E", "D", "C", "B", "A")) {
+            iotClient.createFleetMetric(getCreateRequest(name));
+        }
+
+        ListFleetMetricsResponse first = iotClient.listFleetMetrics(ListFleetMetricsRequest.builder()
+                .maxResults(2).build());
+        ListFleetMetricsResponse second = iotClient.listFleetMetrics(ListFleetMetricsRequest.builder()
+                .maxResults(2).nextToken(first.nextToken()).build());
+        ListFleetMetricsResponse third = iotClient.listFleetMetrics(ListFleetMetricsRequest.builder()
+                .maxResults(2).nextToken(second.nextToken()).build());
+
+        assertThat(getNames(first)).isEqualTo("A,B");
+        assertThat(getNames(second)).isEqualTo("C,D");
+        assertThat(getNames(third)).isEqualTo("E");
+        assertThat(third.nextToken()).isNull();
+    }
+
+    @Test
+    public void listTagsForResource_MoreTagsThanPageSize_Paginates() {
+        iotClient.setTagPageSize(2);
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+        iotClient.tagResource(TagResourceRequest.builder()
+                .resourceArn(FakeIotClient.getArn("Metric"))
+                .tags(getTag("k1"), getTag("k2"), getTag("k3"))
+                .build());
+
+        ListTagsForResourceResponse firstPage = iotClient.listTagsForResource(ListTagsForResourceRequest.builder()
+                .resourceArn(FakeIotClient.getArn("Metric")).build());
+
+        assertThat(firstPage.tags()).hasSize(2);
+        assertThat(firstPage.nextToken()).isNotNull();
+        assertThat(iotClient.getCallCount("ListTagsForResource")).isEqualTo(1);
+    }
+
+    @Test
+    public void tagResource_UnknownArn_NotFound() {
+        assertThatThrownBy(() -> iotClient.tagResource(TagResourceRequest.builder()
+                .resourceArn(FakeIotClient.getArn("Missing"))
+                .tags(getTag("k1"))
+                .build()))
+                .isInstanceOf(ResourceNotFoundException.class);
+    }
+
+    @Test
+    public void tpsQuota_PastBurst_ThrottlesUntilRefilled() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+        iotClient.setTpsQuota("DescribeFleetMetric", 2);
+
+        describe("Metric");
+        describe("Metric");
+        assertThatThrownBy(() -> describe("Metric")).isInstanceOf(ThrottlingException.class);
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        describe("Metric");
+        assertThatThrownBy(() -> describe("Metric")).isInstanceOf(ThrottlingException.class);
+        assertThat(iotClient.getCallCount("DescribeFleetMetric")).isEqualTo(5);
+    }
+
+    @Test
+    public void fault_Times_FailsThatManyCalls() {
+        iotClient.createFleetMetric(getCreateRequest("Metric"));
+        iotClient.addFault("DescribeFleetMetric",
+                FakeIotClient.Fault.times(2, () -> InternalFailureException.builder().build()));
+
+        assertThatThrownBy(() -> describe("Metric")).isInstanceOf(InternalFailureException.class);
+        assertThatThrownBy(() -> describe("Metric")).isInstanceOf(InternalFailureException.class);
+        assertThat(describe("Metric").metricName()).isEqualTo("Metric");
+    }
+
+    @Test
+    public void handlers_CreateReadUpdateDelete_AgainstTheFake() {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+
+        ResourceModel model = ResourceModel.builder()
+                .metricName("Metric")
+                .queryString("*")
+                .aggregationType(AggregationType.builder().name("Statistics").values(Arrays.asList("count")).build())
+                .build();
+        ProgressEvent<ResourceModel, CallbackContext> created = new CreateHandler(iotClient)
+                .handleRequest(proxy, getRequest(model, null), null, logger);
+        assertThat(created.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+
+        ResourceModel updatedModel = ResourceModel.builder()
+                .metricName("Metric")
+                .queryString("thingName:*")
+                .aggregationType(model.getAggregationType())
+                .build();
+        ProgressEvent<ResourceModel, CallbackContext> updated = new UpdateHandler(iotClient)
+                .handleRequest(proxy, getRequest(updatedModel, model), null, logger);
+        assertThat(updated.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+
+        ProgressEvent<ResourceModel, CallbackContext> read = new ReadHandler(iotClient)
+                .handleRequest(proxy, getRequest(ResourceModel.builder().metricName("Metric").build(), null),
+                        null, logger);
+        assertThat(read.getResourceModel().getQueryString()).isEqualTo("thingName:*");
+        assertThat(read.getResourceModel().getVersion()).isEqualTo(2.0);
+        assertThat(read.getResourceModel().getTags()).hasSize(1);
+
+        ProgressEvent<ResourceModel, CallbackContext> deleted = new DeleteHandler(iotClient)
+                .handleRequest(proxy, getRequest(updatedModel, null), null, logger);
+        assertThat(deleted.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+
+        ProgressEvent<ResourceModel, CallbackContext> readAfterDelete = new ReadHandler(iotClient)
+                .handleRequest(proxy, getRequest(updatedModel, null), null, logger);
+        assertThat(readAfterDelete.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+    }
+
+    private DescribeFleetMetricResponse describe(String metricName) {
+        return iotClient.describeFleetMetric(DescribeFleetMetricRequest.builder().metricName(metricName).build());
+    }
+
+    private static CreateFleetMetricRequest getCreateRequest(String metricName) {
+        return CreateFleetMetricRequest.builder()
+                .metricName(metricName)
+                .queryString("*")
+                .build();
+    }
+
+    private static Tag getTag(String key) {
+        return Tag.builder().key(key).value(key + "-value").build();
+    }
+
+    private static String getNames(ListFleetMetricsResponse response) {
+        return response.fleetMetrics().stream()
+                .map(metric -> metric.metricName())
+                .collect(Collectors.joining(","));
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> getRequest(ResourceModel desired, ResourceModel previous) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(desired)
+                .previousResourceState(previous)
+                .desiredResourceTags(ImmutableMap.of("Team", "fleet"))
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
+}
@@ -0,0 +1,159 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static com.amazonaws.iot.fleetmetric.TestConstants.SDK_MODEL_TAG;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FleetMetricCacheTest {
+
+    private static final DescribeFleetMetricResponse DESCRIBE_RESPONSE = DescribeFleetMetricResponse.builder()
+            .metricName(FLEET_METRIC_NAME)
+            .metricArn(FLEET_METRIC_ARN)
+            .build();
+
+    private static final DescribeFleetMetricResponse VERSIONED_RESPONSE = DESCRIBE_RESPONSE.toBuilder()
+            .version(3L)
+            .lastModifiedDate(Instant.ofEpochSecond(1_700_000_000L))
+            .build();
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private final FleetMetricCache cache = new FleetMetricCache(5_000L, 2, nanoTime::get);
+
+    @Test
+    public void get_WithinTtl_ReturnsWhatWasPut() {
+        cache.put("key", cache.generation("key"), DESCRIBE_RESPONSE, Collections.singletonList(SDK_MODEL_TAG));
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(4_999));
+
+        FleetMetricCache.CachedMetric cached = cache.get("key");
+
+        assertThat(cached.getDescribeResponse()).isEqualTo(DESCRIBE_RESPONSE);
+        assertThat(cached.getTags()).isEqualTo(Collections.singletonList(SDK_MODEL_TAG));
+    }
+
+    @Test
+    public void get_PastTtl_ExpiredButRevalidatable() {
+        cache.put("key", cache.generation("key"), DESCRIBE_RESPONSE, Collections.emptyList());
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5_000));
+
+        assertThat(cache.get("key")).isNull();
+        assertThat(cache.getRevalidatable("key").getDescribeResponse()).isEqualTo(DESCRIBE_RESPONSE);
+    }
+
+    @Test
+    public void getRevalidatable_PastRevalidationWindow_EntryDropped() {
+        cache.put("key", cache.generation("key"), DESCRIBE_RESPONSE, Collections.emptyList());
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(5_000L * FleetMetricCache.REVALIDATION_WINDOW_TTLS));
+
+        assertThat(cache.getRevalidatable("key")).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void revalidate_FreshAgainButWindowUnchanged() {
+        cache.put("key", cache.generation("key"), VERSIONED_RESPONSE, Collections.singletonList(SDK_MODEL_TAG));
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(50_000));
+        FleetMetricCache.CachedMetric expired = cache.getRevalidatable("key");
+
+        cache.revalidate("key", cache.generation("key"), expired, VERSIONED_RESPONSE);
+
+        assertThat(cache.get("key").getTags()).isEqualTo(Collections.singletonList(SDK_MODEL_TAG));
+        // The tags were listed 60 seconds before this, so they can't be revalidated any longer.
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(10_000));
+        assertThat(cache.getRevalidatable("key")).isNull();
+    }
+
+    @Test
+    public void isSameVersion_ComparesVersionAndLastModifiedDate() {
+        cache.put("key", cache.generation("key"), VERSIONED_RESPONSE, Collections.emptyList());
+        FleetMetricCache.CachedMetric cached = cache.get("key");
+
+        assertThat(cached.isSameVersion(VERSIONED_RESPONSE.toBuilder().queryString("changed").build())).isTrue();
+        assertThat(cached.isSameVersion(VERSIONED_RESPONSE.toBuilder().version(4L).build())).isFalse();
+        // Recreated with the same name.
+        assertThat(cached.isSameVersion(VERSIONED_RESPONSE.toBuilder()
+                .lastModifiedDate(Instant.ofEpochSecond(1_700_000_100L)).build())).isFalse();
+        // No validators, nothing to compare.
+        assertThat(cached.isSameVersion(DESCRIBE_RESPONSE)).isFalse();
+    }
+
+    @Test
+    public void put_Full_EvictsLeastRecentlyUsed() {
+        cache.put("first", cache.generation("first"), DESCRIBE_RESPONSE, Collections.emptyList());
+        cache.put("second", cache.generation("second"), DESCRIBE_RESPONSE, Collections.emptyList());
+        // Reading the first entry makes the second the least recently used.
+        assertThat(cache.get("first")).isNotNull();
+
+        cache.put("third", cache.generation("third"), DESCRIBE_RESPONSE, Collections.emptyList());
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("second")).isNull();
+        assertThat(cache.get("first")).isNotNull();
+        assertThat(cache.get("third")).isNotNull();
+    }
+
+    @Test
+    public void invalidate_RemovesEntry() {
+        cache.put("key", cache.generation("key"), DESCRIBE_RESPONSE, Collections.emptyList());
+
+        cache.invalidate("key");
+        cache.invalidate(null);
+
+        assertThat(cache.get("key")).isNull();
+    }
+
+    @Test
+    public void put_InvalidatedSinceGenerationTaken_NotStored() {
+        long generation = cache.generation("key");
+        cache.invalidate("key");
+
+        cache.put("key", generation, DESCRIBE_RESPONSE, Collections.emptyList());
+        assertThat(cache.get("key")).isNull();
+
+        cache.put("key", cache.generation("key"), DESCRIBE_RESPONSE, Collections.emptyList());
+        assertThat(cache.get("key")).isNotNull();
+    }
+
+    @Test
+    public void put_GenerationEvictedSinceInvalidated_NotStored() {
+        long generation = cache.generation("key");
+        cache.invalidate("key");
+        // The cache keeps the generations of two keys, so those of the others evict that of "key".
+        cache.invalidate("first");
+        cache.invalidate("second");
+
+        cache.put("key", generation, DESCRIBE_RESPONSE, Collections.emptyList());
+        assertThat(cache.get("key")).isNull();
+    }
+
+    @Test
+    public void put_Disabled_NothingStored() {
+        FleetMetricCache.DISABLED.put("key", 0L, DESCRIBE_RESPONSE, Collections.emptyList());
+
+        assertThat(FleetMetricCache.DISABLED.get("key")).isNull();
+        assertThat(FleetMetricCache.DISABLED.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void key_AccountRegionAndName() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsAccountId("123456789012")
+                .region("us-east-1")
+                .build();
+
+        assertThat(FleetMetricCache.key(request)).isEqualTo("123456789012/us-east-1/" + FLEET_METRIC_NAME);
+        assertThat(FleetMetricCache.key(ResourceHandlerRequest.<ResourceModel>builder().build())).isNull();
+    }
+}
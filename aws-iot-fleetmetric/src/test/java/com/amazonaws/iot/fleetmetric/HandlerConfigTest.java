@@ -0,0 +1,264 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.HandlerErrorCode;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class HandlerConfigTest {
+
+    @Test
+    public void newConfig_KeepsOriginalBehavior() {
+        assertThat(new HandlerConfig().isOptimisticCreate()).isFalse();
+    }
+
+    @Test
+    public void fromEnvironment_NothingSet_KeepsOriginalBehavior() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get);
+
+        assertThat(config.isOptimisticCreate()).isFalse();
+    }
+
+    @Test
+    public void fromEnvironment_OptimisticCreateSet_Enabled() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.OPTIMISTIC_CREATE_ENV, "true")::get);
+
+        assertThat(config.isOptimisticCreate()).isTrue();
+    }
+
+    @Test
+    public void fromEnvironment_AsyncHandlersSet_ParsesActions() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.ASYNC_HANDLERS_ENV, "Read, update")::get);
+
+        assertThat(config.isAsync(Action.READ)).isTrue();
+        assertThat(config.isAsync(Action.UPDATE)).isTrue();
+        assertThat(config.isAsync(Action.CREATE)).isFalse();
+    }
+
+    @Test
+    public void fromEnvironment_ThrottlingRetriesSet_CallsBack() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.THROTTLING_RETRIES_ENV, "5")::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, ThrottlingException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+    }
+
+    @Test
+    public void fromEnvironment_NothingSet_ThrottledCallFailsRightAway() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, ThrottlingException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+    }
+
+    @Test
+    public void fromEnvironment_ThrottlingRetriesDisabled_FailsRightAway() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.THROTTLING_RETRIES_ENV, "0")::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, ThrottlingException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+    }
+
+    @Test
+    public void fromEnvironment_IndexReadyTimeoutDisabled_FailsRightAway() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.INDEX_READY_TIMEOUT_ENV, "0")::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, IndexNotReadyException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.GeneralServiceException);
+    }
+
+    @Test
+    public void fromEnvironment_NothingSet_IndexNotReadyFailsRightAway() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, IndexNotReadyException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.GeneralServiceException);
+    }
+
+    @Test
+    public void fromEnvironment_IndexReadyTimeoutSet_WaitsForIndex() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.INDEX_READY_TIMEOUT_ENV, "900")::get);
+
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent = config.getThrottlingRetryPolicy()
+                .translateExceptionToProgressEvent(TestConstants.FLEET_METRIC_RESOURCE_MODEL, null,
+                        HandlerStep.CREATE, IndexNotReadyException.builder().build(), mock(HandlerLogger.class));
+
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+    }
+
+    @Test
+    public void fromEnvironment_LogLevelSet_ParsesLevel() {
+        assertThat(new HandlerConfig().getLogLevel()).isEqualTo(HandlerLogger.Level.INFO);
+        assertThat(HandlerConfig.fromEnvironment(ImmutableMap.of(HandlerConfig.LOG_LEVEL_ENV, " debug")::get)
+                .getLogLevel()).isEqualTo(HandlerLogger.Level.DEBUG);
+    }
+
+    @Test
+    public void fromEnvironment_ListEnrichmentSet_ParsesSettings() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(ImmutableMap.of(
+                HandlerConfig.LIST_ENRICHMENT_ENV, "true",
+                HandlerConfig.LIST_CONCURRENCY_ENV, "4",
+                HandlerConfig.LIST_TIME_BUDGET_ENV, "30")::get);
+
+        assertThat(config.isListEnrichment()).isTrue();
+        assertThat(config.getListConcurrency()).isEqualTo(4);
+        assertThat(config.getListTimeBudgetMillis()).isEqualTo(30_000L);
+    }
+
+    @Test
+    public void newConfig_DescribeCacheDisabled() {
+        assertThat(new HandlerConfig().getDescribeCache()).isSameAs(FleetMetricCache.DISABLED);
+    }
+
+    @Test
+    public void fromEnvironment_DescribeCacheTtlZero_Disabled() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.DESCRIBE_CACHE_TTL_ENV, "0")::get);
+
+        assertThat(config.getDescribeCache()).isSameAs(FleetMetricCache.DISABLED);
+    }
+
+    @Test
+    public void fromEnvironment_NothingSet_DescribeCacheDisabled() {
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).getDescribeCache())
+                .isSameAs(FleetMetricCache.DISABLED);
+    }
+
+    @Test
+    public void fromEnvironment_DescribeCacheTtlSet_SharedDescribeCache() {
+        HandlerConfig read = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.DESCRIBE_CACHE_TTL_ENV, "5")::get);
+        HandlerConfig update = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.DESCRIBE_CACHE_TTL_ENV, "5")::get);
+
+        assertThat(read.getDescribeCache()).isNotSameAs(FleetMetricCache.DISABLED);
+        assertThat(read.getDescribeCache()).isSameAs(update.getDescribeCache());
+    }
+
+    @Test
+    public void fromEnvironment_ResolveArn_SharedResolverOnlyIfSet() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.RESOLVE_ARN_ENV, "true")::get);
+
+        assertThat(config.getArnResolver()).isSameAs(ArnResolver.getShared());
+        assertThat(HandlerConfig.fromEnvironment(ImmutableMap.of(HandlerConfig.RESOLVE_ARN_ENV, "false")::get)
+                .getArnResolver()).isSameAs(ArnResolver.DESCRIBE_ONLY);
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).getArnResolver())
+                .isSameAs(ArnResolver.DESCRIBE_ONLY);
+    }
+
+    @Test
+    public void fromEnvironment_ExpectedVersionSet_Enabled() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.EXPECTED_VERSION_ENV, "true")::get);
+
+        assertThat(config.isExpectedVersionUpdate()).isTrue();
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).isExpectedVersionUpdate())
+                .isFalse();
+    }
+
+    @Test
+    public void fromEnvironment_RateLimitsSet_SharedRateLimiter() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.RATE_LIMITS_ENV, "DescribeFleetMetric=10, *=5")::get);
+
+        assertThat(config.getRateLimiter()).isNotSameAs(RateLimiter.DISABLED);
+        assertThat(config.getRateLimiter()).isSameAs(HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.RATE_LIMITS_ENV, "DescribeFleetMetric=10, *=5")::get).getRateLimiter());
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).getRateLimiter())
+                .isSameAs(RateLimiter.DISABLED);
+    }
+
+    @Test
+    public void fromEnvironment_RateLimitWithoutRate_Throws() {
+        assertThatThrownBy(() -> HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.RATE_LIMITS_ENV, "DescribeFleetMetric")::get))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void fromEnvironment_InvocationBudget_DeadlineFromEntry() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.INVOCATION_BUDGET_ENV, "30")::get);
+
+        assertThat(config.getInvocationDeadline().get().getRemainingMillis()).isBetween(29_000L, 30_000L);
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get)
+                .getInvocationDeadline().get()).isSameAs(Deadline.NONE);
+        assertThat(HandlerConfig.fromEnvironment(ImmutableMap.of(HandlerConfig.INVOCATION_BUDGET_ENV, "0")::get)
+                .getInvocationDeadline().get()).isSameAs(Deadline.NONE);
+        assertThat(new HandlerConfig().getInvocationDeadline().get()).isSameAs(Deadline.NONE);
+    }
+
+    @Test
+    public void fromEnvironment_CallRetryBudget_RetriesWithinInvocation() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.CALL_RETRY_BUDGET_ENV, "5")::get);
+
+        assertThat(config.getCallRetryPolicy().getRetryBudget()).isEqualTo(5);
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get)
+                .getCallRetryPolicy()).isSameAs(CallRetryPolicy.NONE);
+        assertThat(HandlerConfig.fromEnvironment(ImmutableMap.of(HandlerConfig.CALL_RETRY_BUDGET_ENV, "0")::get)
+                .getCallRetryPolicy()).isSameAs(CallRetryPolicy.NONE);
+    }
+
+    @Test
+    public void fromEnvironment_CircuitBreakerThreshold_SharedCircuitBreaker() {
+        HandlerConfig config = HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.CIRCUIT_BREAKER_THRESHOLD_ENV, "10")::get);
+
+        assertThat(config.getCircuitBreaker()).isNotSameAs(CircuitBreaker.DISABLED);
+        assertThat(HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.CIRCUIT_BREAKER_THRESHOLD_ENV, "5")::get).getCircuitBreaker())
+                .isSameAs(config.getCircuitBreaker());
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).getCircuitBreaker())
+                .isSameAs(CircuitBreaker.DISABLED);
+        assertThat(HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.CIRCUIT_BREAKER_THRESHOLD_ENV, "0")::get).getCircuitBreaker())
+                .isSameAs(CircuitBreaker.DISABLED);
+        assertThat(new HandlerConfig().getCircuitBreaker()).isSameAs(CircuitBreaker.DISABLED);
+    }
+
+    @Test
+    public void fromEnvironment_SingleFlight_SharedOnlyIfSwitchedOn() {
+        assertThat(HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.SINGLE_FLIGHT_ENV, "true")::get).getSingleFlight())
+                .isSameAs(SingleFlight.getShared());
+        assertThat(HandlerConfig.fromEnvironment(Collections.<String, String>emptyMap()::get).getSingleFlight())
+                .isSameAs(SingleFlight.DISABLED);
+        assertThat(HandlerConfig.fromEnvironment(
+                ImmutableMap.of(HandlerConfig.SINGLE_FLIGHT_ENV, "false")::get).getSingleFlight())
+                .isSameAs(SingleFlight.DISABLED);
+        assertThat(new HandlerConfig().getSingleFlight()).isSameAs(SingleFlight.DISABLED);
+    }
+}
@@ -0,0 +1,68 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.cloudformation.proxy.Logger;
+
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class HandlerLoggerTest {
+
+    @Mock
+    private Logger logger;
+
+    @Mock
+    private Supplier<String> message;
+
+    @Test
+    public void debug_LevelInfo_MessageNotBuilt() {
+        HandlerLogger handlerLogger = new HandlerLogger(logger, HandlerLogger.Level.INFO);
+
+        handlerLogger.debug(message);
+
+        verifyNoInteractions(message);
+        verifyNoInteractions(logger);
+    }
+
+    @Test
+    public void debug_LevelDebug_Logged() {
+        HandlerLogger handlerLogger = new HandlerLogger(logger, HandlerLogger.Level.DEBUG);
+
+        handlerLogger.debug(() -> "debug");
+        handlerLogger.info(() -> "info");
+        handlerLogger.log("plain");
+
+        verify(logger).log("debug");
+        verify(logger).log("info");
+        verify(logger).log("plain");
+    }
+
+    @Test
+    public void log_LevelWarn_OnlyWarningsLogged() {
+        HandlerLogger handlerLogger = new HandlerLogger(logger, HandlerLogger.Level.WARN);
+
+        handlerLogger.log("plain");
+        handlerLogger.info(() -> "info");
+        handlerLogger.warn(() -> "warn");
+
+        verify(logger).log("warn");
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void isEnabled_LevelOff_NothingEnabled() {
+        HandlerLogger handlerLogger = new HandlerLogger(logger, HandlerLogger.Level.OFF);
+
+        for (HandlerLogger.Level level : HandlerLogger.Level.values()) {
+            assertThat(handlerLogger.isEnabled(level)).isFalse();
+        }
+    }
+}
@@ -12,11 +12,13 @@ import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
 import software.amazon.awssdk.services.iot.model.Tag;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.Arrays;
 import java.util.List;
 
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
 import static com.amazonaws.iot.fleetmetric.TestConstants.SDK_MODEL_TAG;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -67,7 +69,28 @@ public class HandlerUtilsTest {
                 .build();
         doReturn(listTagsForResourceResponse2).when(proxy).injectCredentialsAndInvokeV2(eq(expectedRequest2), any());
 
-        List<Tag> currentTags = HandlerUtils.listTags(iotClient, proxy, FLEET_METRIC_ARN, logger);
+        List<Tag> currentTags = HandlerUtils.listTags(iotClient, new ApiInvoker(proxy), FLEET_METRIC_ARN, new HandlerLogger(logger));
         assertThat(currentTags).isEqualTo(Arrays.asList(SDK_MODEL_TAG, tag2));
     }
+
+    @Test
+    public void getFleetMetricArn_CompleteRequest_DerivesArn() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        assertThat(HandlerUtils.getFleetMetricArn(request, FLEET_METRIC_NAME)).isEqualTo(FLEET_METRIC_ARN);
+    }
+
+    @Test
+    public void getFleetMetricArn_MissingAccount_ReturnsNull() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .awsPartition("aws")
+                .region("us-east-1")
+                .build();
+
+        assertThat(HandlerUtils.getFleetMetricArn(request, FLEET_METRIC_NAME)).isNull();
+    }
 }
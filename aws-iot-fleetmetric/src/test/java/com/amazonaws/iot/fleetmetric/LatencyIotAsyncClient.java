@@ -0,0 +1,150 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.services.iot.IotAsyncClient;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.IotRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.Tag;
+import software.amazon.awssdk.services.iot.model.TagResourceRequest;
+import software.amazon.awssdk.services.iot.model.TagResourceResponse;
+import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
+import software.amazon.awssdk.services.iot.model.UntagResourceResponse;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in for the IoT async client that answers with canned responses after a fixed latency.
+ * Like the SDK's NIO client, it doesn't hold a thread while a call is in flight.
+ * It counts the calls in flight at once, so that tests can check which calls overlap without timing them.
+ */
+class LatencyIotAsyncClient implements IotAsyncClient {
+
+    private final long latencyMillis;
+    private final DescribeFleetMetricResponse describeResponse;
+    private final List<Tag> tags;
+    private final List<IotRequest> requests = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger callsInFlight = new AtomicInteger();
+    private final AtomicInteger maxCallsInFlight = new AtomicInteger();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "latency-iot-async-client");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile RuntimeException describeFailure;
+    private volatile RuntimeException updateFailure;
+    private volatile long extraListTagsLatencyMillis;
+
+    LatencyIotAsyncClient(long latencyMillis, DescribeFleetMetricResponse describeResponse, List<Tag> tags) {
+        this.latencyMillis = latencyMillis;
+        this.describeResponse = describeResponse;
+        this.tags = tags;
+    }
+
+    void failDescribeWith(RuntimeException describeFailure) {
+        this.describeFailure = describeFailure;
+    }
+
+    void failUpdateWith(RuntimeException updateFailure) {
+        this.updateFailure = updateFailure;
+    }
+
+    /**
+     * Makes ListTagsForResource take that much longer than the other calls.
+     */
+    void delayListTagsBy(long extraMillis) {
+        this.extraListTagsLatencyMillis = extraMillis;
+    }
+
+    List<IotRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the most calls that were in flight at once.
+     */
+    int getMaxCallsInFlight() {
+        return maxCallsInFlight.get();
+    }
+
+    int getCallsInFlight() {
+        return callsInFlight.get();
+    }
+
+    @Override
+    public CompletableFuture<DescribeFleetMetricResponse> describeFleetMetric(DescribeFleetMetricRequest request) {
+        RuntimeException failure = describeFailure;
+        return failure == null ? respond(request, describeResponse) : fail(request, failure);
+    }
+
+    @Override
+    public CompletableFuture<ListTagsForResourceResponse> listTagsForResource(ListTagsForResourceRequest request) {
+        return respond(request, ListTagsForResourceResponse.builder().tags(tags).build(),
+                latencyMillis + extraListTagsLatencyMillis);
+    }
+
+    @Override
+    public CompletableFuture<UpdateFleetMetricResponse> updateFleetMetric(UpdateFleetMetricRequest request) {
+        RuntimeException failure = updateFailure;
+        return failure == null ? respond(request, UpdateFleetMetricResponse.builder().build()) : fail(request, failure);
+    }
+
+    @Override
+    public CompletableFuture<TagResourceResponse> tagResource(TagResourceRequest request) {
+        return respond(request, TagResourceResponse.builder().build());
+    }
+
+    @Override
+    public CompletableFuture<UntagResourceResponse> untagResource(UntagResourceRequest request) {
+        return respond(request, UntagResourceResponse.builder().build());
+    }
+
+    @Override
+    public String serviceName() {
+        return "iot";
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> respond(IotRequest request, T response) {
+        return respond(request, response, latencyMillis);
+    }
+
+    private <T> CompletableFuture<T> respond(IotRequest request, T response, long responseLatencyMillis) {
+        CompletableFuture<T> future = start(request);
+        scheduler.schedule(() -> {
+            callsInFlight.decrementAndGet();
+            future.complete(response);
+        }, responseLatencyMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private <T> CompletableFuture<T> fail(IotRequest request, RuntimeException failure) {
+        CompletableFuture<T> future = start(request);
+        scheduler.schedule(() -> {
+            callsInFlight.decrementAndGet();
+            future.completeExceptionally(failure);
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private <T> CompletableFuture<T> start(IotRequest request) {
+        requests.add(request);
+        maxCallsInFlight.accumulateAndGet(callsInFlight.incrementAndGet(), Math::max);
+        return new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,136 @@
+package com.amazonaws.iot.fleetmetric;
+
+import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.FleetMetricNameAndArn;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsResponse;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.Tag;
+import software.amazon.awssdk.services.iot.model.TagResourceRequest;
+import software.amazon.awssdk.services.iot.model.TagResourceResponse;
+import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
+import software.amazon.awssdk.services.iot.model.UntagResourceResponse;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.UpdateFleetMetricResponse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocking counterpart of {@link LatencyIotAsyncClient}, for comparing the two pipelines.
+ * Like it, it counts the calls in flight at once.
+ */
+class LatencyIotClient implements IotClient {
+
+    private final long latencyMillis;
+    private final DescribeFleetMetricResponse describeResponse;
+    private final List<Tag> tags;
+    private volatile List<FleetMetricNameAndArn> fleetMetrics;
+    private final AtomicInteger callsInFlight = new AtomicInteger();
+    private final AtomicInteger maxCallsInFlight = new AtomicInteger();
+
+    LatencyIotClient(long latencyMillis, DescribeFleetMetricResponse describeResponse, List<Tag> tags) {
+        this.latencyMillis = latencyMillis;
+        this.describeResponse = describeResponse;
+        this.tags = tags;
+        this.fleetMetrics = Collections.emptyList();
+    }
+
+    /**
+     * Lists the given metrics in one page, and describes each of them by name.
+     */
+    LatencyIotClient(long latencyMillis, List<FleetMetricNameAndArn> fleetMetrics, List<Tag> tags) {
+        this.latencyMillis = latencyMillis;
+        this.describeResponse = null;
+        this.tags = tags;
+        this.fleetMetrics = fleetMetrics;
+    }
+
+    /**
+     * Changes the metrics listed from now on, as if some were created or deleted.
+     */
+    void setFleetMetrics(List<FleetMetricNameAndArn> fleetMetrics) {
+        this.fleetMetrics = fleetMetrics;
+    }
+
+    /**
+     * @return the calls in flight right now.
+     */
+    int getCallsInFlight() {
+        return callsInFlight.get();
+    }
+
+    /**
+     * @return the most calls that were in flight at once.
+     */
+    int getMaxCallsInFlight() {
+        return maxCallsInFlight.get();
+    }
+
+    @Override
+    public DescribeFleetMetricResponse describeFleetMetric(DescribeFleetMetricRequest request) {
+        if (describeResponse != null) {
+            return respond(describeResponse);
+        }
+        FleetMetricNameAndArn fleetMetric = fleetMetrics.stream()
+                .filter(metric -> metric.metricName().equals(request.metricName()))
+                .findFirst()
+                .orElseThrow(IllegalArgumentException::new);
+        return respond(DescribeFleetMetricResponse.builder()
+                .metricName(fleetMetric.metricName())
+                .metricArn(fleetMetric.metricArn())
+                .queryString("*")
+                .build());
+    }
+
+    @Override
+    public ListFleetMetricsResponse listFleetMetrics(ListFleetMetricsRequest request) {
+        return respond(ListFleetMetricsResponse.builder().fleetMetrics(fleetMetrics).build());
+    }
+
+    @Override
+    public ListTagsForResourceResponse listTagsForResource(ListTagsForResourceRequest request) {
+        return respond(ListTagsForResourceResponse.builder().tags(tags).build());
+    }
+
+    @Override
+    public UpdateFleetMetricResponse updateFleetMetric(UpdateFleetMetricRequest request) {
+        return respond(UpdateFleetMetricResponse.builder().build());
+    }
+
+    @Override
+    public TagResourceResponse tagResource(TagResourceRequest request) {
+        return respond(TagResourceResponse.builder().build());
+    }
+
+    @Override
+    public UntagResourceResponse untagResource(UntagResourceRequest request) {
+        return respond(UntagResourceResponse.builder().build());
+    }
+
+    @Override
+    public String serviceName() {
+        return "iot";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private <T> T respond(T response) {
+        maxCallsInFlight.accumulateAndGet(callsInFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            callsInFlight.decrementAndGet();
+        }
+        return response;
+    }
+}
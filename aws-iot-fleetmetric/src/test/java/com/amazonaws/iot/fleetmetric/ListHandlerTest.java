@@ -7,8 +7,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.FleetMetricNameAndArn;
 import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
 import software.amazon.awssdk.services.iot.model.ListFleetMetricsResponse;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceResponse;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.iot.model.UnauthorizedException;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
@@ -17,8 +23,15 @@ import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN2;
@@ -26,10 +39,15 @@ import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME2;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME_AND_ARN;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME_AND_ARN2;
+import static com.amazonaws.iot.fleetmetric.TestConstants.MODEL_TAGS;
+import static com.amazonaws.iot.fleetmetric.TestConstants.SDK_MODEL_TAG;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -62,6 +80,7 @@ public class ListHandlerTest {
 
         ListFleetMetricsRequest expectedRequest = ListFleetMetricsRequest.builder()
                 .nextToken(request.getNextToken())
+                .maxResults(ListHandler.MAX_RESULTS)
                 .build();
 
         ListFleetMetricsResponse listResponse = ListFleetMetricsResponse.builder()
@@ -109,4 +128,209 @@ public class ListHandlerTest {
                 handler.handleRequest(proxy, request, null, logger);
         assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.AccessDenied);
     }
+
+    @Test
+    public void handleRequest_EnrichmentLargePage_AllModelsConcurrently() {
+        List<FleetMetricNameAndArn> fleetMetrics = getFleetMetrics(250);
+        HandlerConfig config = new HandlerConfig();
+        config.setListEnrichment(true);
+        LatencyIotClient iotClient = new LatencyIotClient(20, fleetMetrics, Collections.singletonList(SDK_MODEL_TAG));
+        // The clock stands still, so the time budget never runs out however long the calls take.
+        ListHandler enrichingHandler = new ListHandler(iotClient, config, () -> 0L);
+        delegateCalls();
+
+        ProgressEvent<ResourceModel, CallbackContext> response = enrichingHandler.handleRequest(
+                proxy, ResourceHandlerRequest.<ResourceModel>builder().build(), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getNextToken()).isNull();
+        assertThat(response.getResourceModels()).hasSize(250);
+        for (int i = 0; i < fleetMetrics.size(); i++) {
+            ResourceModel model = response.getResourceModels().get(i);
+            assertThat(model.getMetricName()).isEqualTo(fleetMetrics.get(i).metricName());
+            assertThat(model.getMetricArn()).isEqualTo(fleetMetrics.get(i).metricArn());
+            assertThat(model.getQueryString()).isEqualTo("*");
+            assertThat(model.getTags()).isEqualTo(MODEL_TAGS);
+        }
+        // The metrics are enriched on several threads at once, but never on more than the configured concurrency.
+        assertThat(iotClient.getMaxCallsInFlight()).isBetween(2, HandlerConfig.DEFAULT_LIST_CONCURRENCY);
+        // ListFleetMetrics, then Describe and ListTagsForResource per metric.
+        verify(proxy, times(501)).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_EnrichmentBudgetRunsOut_ResumesWithNextToken() {
+        List<FleetMetricNameAndArn> fleetMetrics = getFleetMetrics(30);
+        HandlerConfig config = new HandlerConfig();
+        config.setListEnrichment(true);
+        config.setListConcurrency(2);
+        config.setListTimeBudgetMillis(200L);
+        // Every call moves the clock 10ms forward, so a page runs out of budget after about 10 metrics.
+        AtomicLong nanoTime = new AtomicLong();
+        ListHandler enrichingHandler = new ListHandler(
+                new LatencyIotClient(0, fleetMetrics, Collections.emptyList()), config, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> {
+                    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+                    return invocation.<Function<Object, Object>>getArgument(1).apply(invocation.getArgument(0));
+                });
+
+        List<String> metricNames = new ArrayList<>();
+        List<String> nextTokens = new ArrayList<>();
+        String nextToken = null;
+        do {
+            ProgressEvent<ResourceModel, CallbackContext> response = enrichingHandler.handleRequest(proxy,
+                    ResourceHandlerRequest.<ResourceModel>builder().nextToken(nextToken).build(), null, logger);
+            assertThat(response.getResourceModels()).isNotEmpty();
+            response.getResourceModels().forEach(model -> metricNames.add(model.getMetricName()));
+            nextToken = response.getNextToken();
+            nextTokens.add(nextToken);
+        } while (nextToken != null);
+
+        // The pages of at most a dozen metrics each resume where the last stopped.
+        assertThat(nextTokens.size()).isGreaterThanOrEqualTo(3);
+        assertThat(nextTokens.get(0)).startsWith("enriched:");
+        assertThat(metricNames).isEqualTo(fleetMetrics.stream()
+                .map(FleetMetricNameAndArn::metricName)
+                .collect(Collectors.toList()));
+        verify(proxy, atLeastOnce()).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_EnrichmentMetricDeleted_LeftOut() {
+        HandlerConfig config = new HandlerConfig();
+        config.setListEnrichment(true);
+        ListHandler enrichingHandler = new ListHandler(mock(IotClient.class), config);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(ListFleetMetricsRequest.class), any()))
+                .thenReturn(ListFleetMetricsResponse.builder()
+                        .fleetMetrics(FLEET_METRIC_NAME_AND_ARN, FLEET_METRIC_NAME_AND_ARN2)
+                        .build());
+        when(proxy.injectCredentialsAndInvokeV2(
+                eq(DescribeFleetMetricRequest.builder().metricName(FLEET_METRIC_NAME).build()), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+        when(proxy.injectCredentialsAndInvokeV2(
+                eq(DescribeFleetMetricRequest.builder().metricName(FLEET_METRIC_NAME2).build()), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME2)
+                        .metricArn(FLEET_METRIC_ARN2)
+                        .build());
+        when(proxy.injectCredentialsAndInvokeV2(any(ListTagsForResourceRequest.class), any()))
+                .thenReturn(ListTagsForResourceResponse.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response = enrichingHandler.handleRequest(
+                proxy, ResourceHandlerRequest.<ResourceModel>builder().build(), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getNextToken()).isNull();
+        assertThat(response.getResourceModels()).hasSize(1);
+        assertThat(response.getResourceModels().get(0).getMetricArn()).isEqualTo(FLEET_METRIC_ARN2);
+        verify(proxy, times(4)).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_EnrichmentMetricsCreatedAndDeletedBetweenPages_NoneSkippedOrRepeated() {
+        List<FleetMetricNameAndArn> fleetMetrics = getFleetMetrics(30);
+        HandlerConfig config = new HandlerConfig();
+        config.setListEnrichment(true);
+        config.setListConcurrency(2);
+        config.setListTimeBudgetMillis(200L);
+        AtomicLong nanoTime = new AtomicLong();
+        LatencyIotClient iotClient = new LatencyIotClient(0, fleetMetrics, Collections.emptyList());
+        ListHandler enrichingHandler = new ListHandler(iotClient, config, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> {
+                    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+                    return invocation.<Function<Object, Object>>getArgument(1).apply(invocation.getArgument(0));
+                });
+
+        ProgressEvent<ResourceModel, CallbackContext> firstResponse = enrichingHandler.handleRequest(
+                proxy, ResourceHandlerRequest.<ResourceModel>builder().build(), null, logger);
+        List<String> metricNames = firstResponse.getResourceModels().stream()
+                .map(ResourceModel::getMetricName)
+                .collect(Collectors.toList());
+        assertThat(firstResponse.getNextToken()).startsWith("enriched:");
+
+        // Two of the metrics already returned are deleted and another one is created ahead of them,
+        // so the rest of the page is listed one place further forward than before.
+        List<FleetMetricNameAndArn> changedFleetMetrics = new ArrayList<>(fleetMetrics.subList(2, 30));
+        changedFleetMetrics.add(0, FleetMetricNameAndArn.builder()
+                .metricName("MetricCreated")
+                .metricArn("arn:aws:iot:us-east-1:123456789012:fleetmetric/MetricCreated")
+                .build());
+        iotClient.setFleetMetrics(changedFleetMetrics);
+
+        String nextToken = firstResponse.getNextToken();
+        while (nextToken != null) {
+            ProgressEvent<ResourceModel, CallbackContext> response = enrichingHandler.handleRequest(proxy,
+                    ResourceHandlerRequest.<ResourceModel>builder().nextToken(nextToken).build(), null, logger);
+            response.getResourceModels().forEach(model -> metricNames.add(model.getMetricName()));
+            nextToken = response.getNextToken();
+        }
+
+        assertThat(metricNames).isEqualTo(fleetMetrics.stream()
+                .map(FleetMetricNameAndArn::metricName)
+                .collect(Collectors.toList()));
+        verify(proxy, atLeastOnce()).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_EnrichmentBudgetRunsOut_NoCallsOutliveInvocation() {
+        HandlerConfig config = new HandlerConfig();
+        config.setListEnrichment(true);
+        config.setListConcurrency(8);
+        config.setListTimeBudgetMillis(100L);
+        AtomicLong nanoTime = new AtomicLong();
+        LatencyIotClient iotClient = new LatencyIotClient(20, getFleetMetrics(50), Collections.emptyList());
+        ListHandler enrichingHandler = new ListHandler(iotClient, config, nanoTime::get);
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> {
+                    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+                    return invocation.<Function<Object, Object>>getArgument(1).apply(invocation.getArgument(0));
+                });
+
+        ProgressEvent<ResourceModel, CallbackContext> response = enrichingHandler.handleRequest(
+                proxy, ResourceHandlerRequest.<ResourceModel>builder().build(), null, logger);
+
+        // The workers were still busy when the budget ran out, but the handler waited for the calls they had begun.
+        assertThat(response.getNextToken()).startsWith("enriched:");
+        assertThat(iotClient.getCallsInFlight()).isEqualTo(0);
+        verify(proxy, atLeastOnce()).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void pageToken_NoLastMetric_ServiceTokenAsIs() {
+        assertThat(ListHandler.PageToken.parse(null).getServiceToken()).isNull();
+        assertThat(ListHandler.PageToken.parse("serviceToken").getServiceToken()).isEqualTo("serviceToken");
+        assertThat(ListHandler.PageToken.parse("serviceToken").getLastMetricName()).isNull();
+        assertThat(new ListHandler.PageToken("serviceToken", null).encode()).isEqualTo("serviceToken");
+    }
+
+    @Test
+    public void pageToken_LastMetric_RoundTrip() {
+        ListHandler.PageToken firstPage =
+                ListHandler.PageToken.parse(new ListHandler.PageToken(null, FLEET_METRIC_NAME).encode());
+        assertThat(firstPage.getServiceToken()).isNull();
+        assertThat(firstPage.getLastMetricName()).isEqualTo(FLEET_METRIC_NAME);
+
+        ListHandler.PageToken laterPage =
+                ListHandler.PageToken.parse(new ListHandler.PageToken("service:token", "metric:name").encode());
+        assertThat(laterPage.getServiceToken()).isEqualTo("service:token");
+        assertThat(laterPage.getLastMetricName()).isEqualTo("metric:name");
+    }
+
+    private static List<FleetMetricNameAndArn> getFleetMetrics(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> FleetMetricNameAndArn.builder()
+                        .metricName("Metric" + i)
+                        .metricArn("arn:aws:iot:us-east-1:123456789012:fleetmetric/Metric" + i)
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    private void delegateCalls() {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+    }
 }
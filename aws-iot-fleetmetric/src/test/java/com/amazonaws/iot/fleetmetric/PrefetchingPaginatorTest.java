@@ -0,0 +1,151 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+public class PrefetchingPaginatorTest {
+
+    @Mock
+    private ExecutorService unusedExecutor;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // How many pages were fetched so far.
+    private final AtomicInteger fetched = new AtomicInteger();
+
+    @AfterEach
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void next_SinglePage_FetchedOnCallingThread() {
+        PrefetchingPaginator<String> paginator = new PrefetchingPaginator<>(getPages(1), 2, unusedExecutor);
+
+        assertThat(drain(paginator)).isEqualTo(Arrays.asList("page0-item0", "page0-item1"));
+        verifyNoInteractions(unusedExecutor);
+    }
+
+    @Test
+    public void next_SeveralPages_AllItemsInOrder() {
+        PrefetchingPaginator<String> paginator = new PrefetchingPaginator<>(getPages(3), 2, executor);
+
+        assertThat(drain(paginator)).isEqualTo(Arrays.asList(
+                "page0-item0", "page0-item1", "page1-item0", "page1-item1", "page2-item0", "page2-item1"));
+        assertThat(fetched.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void next_CallerStillOnFirstPage_SecondPageFetched() throws InterruptedException {
+        CountDownLatch secondPageFetched = new CountDownLatch(1);
+        Function<String, PrefetchingPaginator.Page<String>> pages = getPages(2);
+        PrefetchingPaginator<String> paginator = new PrefetchingPaginator<>(token -> {
+            PrefetchingPaginator.Page<String> page = pages.apply(token);
+            if (token != null) {
+                secondPageFetched.countDown();
+            }
+            return page;
+        }, 2, executor);
+
+        assertThat(paginator.next()).isEqualTo("page0-item0");
+
+        assertThat(secondPageFetched.await(5, TimeUnit.SECONDS)).isTrue();
+        paginator.close();
+    }
+
+    @Test
+    public void next_CallerStalls_FetchesAtMostPrefetchDepthAhead() throws InterruptedException {
+        CountDownLatch fourthPageFetched = new CountDownLatch(1);
+        AtomicReference<Thread> prefetcher = new AtomicReference<>();
+        Function<String, PrefetchingPaginator.Page<String>> pages = getPages(10);
+        PrefetchingPaginator<String> paginator = new PrefetchingPaginator<>(token -> {
+            PrefetchingPaginator.Page<String> page = pages.apply(token);
+            if ("3".equals(token)) {
+                prefetcher.set(Thread.currentThread());
+                fourthPageFetched.countDown();
+            }
+            return page;
+        }, 2, executor);
+
+        assertThat(paginator.next()).isEqualTo("page0-item0");
+
+        // The first page, two waiting in the queue and one waiting for room. Once the prefetching thread waits
+        // for room, it can't fetch another page before the caller takes one.
+        assertThat(fourthPageFetched.await(5, TimeUnit.SECONDS)).isTrue();
+        awaitWaiting(prefetcher.get());
+        assertThat(fetched.get()).isEqualTo(4);
+
+        paginator.close();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fetched.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void next_PageFails_RethrownAtThatPageAndNothingFetchedAfter() throws InterruptedException {
+        Function<String, PrefetchingPaginator.Page<String>> pages = getPages(10);
+        PrefetchingPaginator<String> paginator = new PrefetchingPaginator<>(token -> {
+            if ("2".equals(token)) {
+                fetched.incrementAndGet();
+                throw ThrottlingException.builder().build();
+            }
+            return pages.apply(token);
+        }, 2, executor);
+
+        List<String> items = new ArrayList<>();
+        assertThatThrownBy(() -> paginator.forEachRemaining(items::add))
+                .isInstanceOf(ThrottlingException.class);
+
+        assertThat(items).isEqualTo(Arrays.asList("page0-item0", "page0-item1", "page1-item0", "page1-item1"));
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fetched.get()).isEqualTo(3);
+        assertThat(paginator.hasNext()).isFalse();
+    }
+
+    // Pages of two items each. The token is the index of the page.
+    private Function<String, PrefetchingPaginator.Page<String>> getPages(int pageCount) {
+        return token -> {
+            fetched.incrementAndGet();
+            int page = token == null ? 0 : Integer.parseInt(token);
+            return new PrefetchingPaginator.Page<>(
+                    Arrays.asList("page" + page + "-item0", "page" + page + "-item1"),
+                    page + 1 < pageCount ? String.valueOf(page + 1) : null);
+        };
+    }
+
+    // Spins rather than sleeps: the thread is about to block, it only has to get there.
+    private static void awaitWaiting(Thread thread) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertThat(thread.getState()).isEqualTo(Thread.State.WAITING);
+    }
+
+    private static List<String> drain(PrefetchingPaginator<String> paginator) {
+        List<String> items = new ArrayList<>();
+        paginator.forEachRemaining(items::add);
+        return items;
+    }
+}
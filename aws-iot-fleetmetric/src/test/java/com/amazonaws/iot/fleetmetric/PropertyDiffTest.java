@@ -0,0 +1,94 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PropertyDiffTest {
+
+    @Test
+    public void getChangedProperties_SameModel_ReturnsEmpty() {
+        assertThat(PropertyDiff.getChangedProperties(getModel(), getModel())).isEmpty();
+    }
+
+    @Test
+    public void getChangedProperties_TagsAndArnDiffer_ReturnsEmpty() {
+        ResourceModel desired = getModel();
+        desired.setTags(TestConstants.MODEL_TAGS);
+        desired.setMetricArn("arn:aws:iot:us-east-1:123456789012:fleetmetric/other");
+
+        assertThat(PropertyDiff.getChangedProperties(desired, getModel())).isEmpty();
+    }
+
+    @Test
+    public void getChangedProperties_DesiredValueUnset_NotAChange() {
+        ResourceModel desired = getModel();
+        desired.setDescription(null);
+        desired.setAggregationType(null);
+
+        assertThat(PropertyDiff.getChangedProperties(desired, getModel())).isEmpty();
+    }
+
+    @Test
+    public void getChangedProperties_SeveralPropertiesChanged_ReturnsThemInSchemaOrder() {
+        ResourceModel desired = getModel();
+        desired.setUnit("Seconds");
+        desired.setQueryString("thingName:other*");
+        desired.setPeriod(300);
+
+        assertThat(PropertyDiff.getChangedProperties(desired, getModel()))
+                .containsExactly("QueryString", "Period", "Unit");
+    }
+
+    @Test
+    public void getChangedProperties_AggregationValuesReordered_ReturnsEmpty() {
+        ResourceModel desired = getModel();
+        desired.setAggregationType(AggregationType.builder()
+                .name("Statistics")
+                .values(Arrays.asList("sum", "average"))
+                .build());
+
+        assertThat(PropertyDiff.getChangedProperties(desired, getModel())).isEmpty();
+    }
+
+    @Test
+    public void getChangedProperties_AggregationTypeChanged_ReturnsAggregationType() {
+        ResourceModel desired = getModel();
+        desired.setAggregationType(AggregationType.builder()
+                .name("Statistics")
+                .values(Arrays.asList("average", "maximum"))
+                .build());
+        ResourceModel baselineWithoutAggregationType = getModel();
+        baselineWithoutAggregationType.setAggregationType(null);
+
+        assertThat(PropertyDiff.getChangedProperties(desired, getModel())).containsExactly("AggregationType");
+        assertThat(PropertyDiff.getChangedProperties(desired, baselineWithoutAggregationType))
+                .containsExactly("AggregationType");
+    }
+
+    @Test
+    public void getChangedProperties_BaselineIsEmpty_ReturnsAllSetProperties() {
+        assertThat(PropertyDiff.getChangedProperties(FLEET_METRIC_RESOURCE_MODEL, ResourceModel.builder().build()))
+                .contains("QueryString", "Period", "AggregationType");
+    }
+
+    private ResourceModel getModel() {
+        return ResourceModel.builder()
+                .metricName("metricName")
+                .description("description")
+                .queryString("thingName:*")
+                .period(60)
+                .aggregationField("shadow.reported.temperature")
+                .queryVersion("2017-09-30")
+                .indexName("AWS_Things")
+                .unit("None")
+                .aggregationType(AggregationType.builder()
+                        .name("Statistics")
+                        .values(Arrays.asList("average", "sum"))
+                        .build())
+                .build();
+    }
+}
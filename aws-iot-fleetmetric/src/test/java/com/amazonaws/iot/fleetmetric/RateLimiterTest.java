@@ -0,0 +1,269 @@
+package com.amazonaws.iot.fleetmetric;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.cloudformation.Action;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class RateLimiterTest {
+
+    private static final String API = "DescribeFleetMetric";
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    // Sleeping moves the fake clock forward, so waits take no real time.
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final List<Long> sleeps = Collections.synchronizedList(new ArrayList<>());
+
+    private RateLimiter getRateLimiter(double rate) {
+        return new RateLimiter(ImmutableMap.of(API, rate), nanoTime::get, nanos -> {
+            sleeps.add(nanos);
+            nanoTime.addAndGet(nanos);
+        });
+    }
+
+    @Test
+    public void acquire_WithinBurst_DoesNotWait() {
+        RateLimiter rateLimiter = getRateLimiter(10);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(API);
+        }
+        assertThat(sleeps).isEmpty();
+
+        rateLimiter.acquire(API);
+        assertThat(sleeps).containsExactly(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void acquire_PastBurst_PacedAtRate() {
+        RateLimiter rateLimiter = getRateLimiter(10);
+
+        for (int i = 0; i < 30; i++) {
+            rateLimiter.acquire(API);
+        }
+
+        // The burst of 10 is free, the other 20 take a tenth of a second each.
+        assertThat(nanoTime.get()).isEqualTo(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void acquire_IdleForASecond_BurstAgain() {
+        RateLimiter rateLimiter = getRateLimiter(10);
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(API);
+        }
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        sleeps.clear();
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.acquire(API);
+        }
+
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    public void acquire_WaitLongerThanMax_Rejects() {
+        RateLimiter rateLimiter = new RateLimiter(ImmutableMap.of(API, 10.0), nanoTime::get, nanos -> { });
+
+        // A burst of 10, then 20 more within the 2 seconds a caller may wait.
+        for (int i = 0; i < 30; i++) {
+            rateLimiter.acquire(API);
+        }
+
+        assertThatThrownBy(() -> rateLimiter.acquire(API))
+                .isInstanceOf(RateLimiter.RejectedException.class)
+                .hasMessageContaining(API);
+    }
+
+    @Test
+    public void acquire_ApiWithoutRate_NotLimitedUnlessDefaultRate() {
+        RateLimiter rateLimiter = getRateLimiter(1);
+        RateLimiter withDefault = new RateLimiter(ImmutableMap.of(API, 1.0, RateLimiter.ANY_API, 2.0),
+                nanoTime::get, nanos -> { });
+
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.acquire("ListTagsForResource");
+        }
+
+        assertThat(sleeps).isEmpty();
+        assertThat(rateLimiter.getRate("ListTagsForResource")).isNull();
+        assertThat(withDefault.getRate("ListTagsForResource")).isEqualTo(2.0);
+        assertThat(withDefault.getRate(API)).isEqualTo(1.0);
+        RateLimiter.DISABLED.acquire(API);
+    }
+
+    @Test
+    public void onThrottled_HalvesRateOncePerInterval() {
+        RateLimiter rateLimiter = getRateLimiter(40);
+
+        rateLimiter.onThrottled(API);
+        rateLimiter.onThrottled(API);
+        assertThat(rateLimiter.getRate(API)).isEqualTo(20.0);
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(RateLimiter.DECREASE_INTERVAL_MILLIS));
+        rateLimiter.onThrottled(API);
+        assertThat(rateLimiter.getRate(API)).isEqualTo(10.0);
+    }
+
+    @Test
+    public void onThrottled_Repeatedly_NotBelowMinimum() {
+        RateLimiter rateLimiter = getRateLimiter(40);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onThrottled(API);
+            nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(RateLimiter.DECREASE_INTERVAL_MILLIS));
+        }
+
+        assertThat(rateLimiter.getRate(API)).isEqualTo(40 * RateLimiter.MIN_RATE_FRACTION);
+    }
+
+    @Test
+    public void onSuccess_AfterThrottle_GrowsBackToConfiguredRate() {
+        RateLimiter rateLimiter = getRateLimiter(40);
+        rateLimiter.onThrottled(API);
+
+        for (int i = 0; i < 10; i++) {
+            rateLimiter.onSuccess(API);
+        }
+        assertThat(rateLimiter.getRate(API)).isBetween(27.9, 28.1);
+
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.onSuccess(API);
+        }
+        assertThat(rateLimiter.getRate(API)).isEqualTo(40.0);
+    }
+
+    @Test
+    public void parseRates_ApisAndDefault() {
+        assertThat(RateLimiter.parseRates(" DescribeFleetMetric=10, *=2.5 ,"))
+                .isEqualTo(ImmutableMap.of("DescribeFleetMetric", 10.0, "*", 2.5));
+        assertThat(RateLimiter.parseRates(null)).isEmpty();
+        assertThatThrownBy(() -> RateLimiter.parseRates("DescribeFleetMetric=0"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void acquire_ManyThreads_NoMoreTokensThanTheBucketHolds() throws Exception {
+        // The clock stands still and callers don't really wait, so exactly the burst of 10 and the 20 calls
+        // that fit in the maximum wait get through, however the threads interleave.
+        RateLimiter rateLimiter = new RateLimiter(ImmutableMap.of(API, 10.0), nanoTime::get, nanos -> { });
+        AtomicInteger acquired = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(16, 50, () -> {
+            try {
+                rateLimiter.acquire(API);
+                acquired.incrementAndGet();
+            } catch (RateLimiter.RejectedException e) {
+                rejected.incrementAndGet();
+            }
+        });
+
+        assertThat(acquired.get()).isEqualTo(30);
+        assertThat(rejected.get()).isEqualTo(16 * 50 - 30);
+    }
+
+    @Test
+    public void invoke_ManyThreadsBelowQuota_NeverThrottledByIot() throws Exception {
+        // IoT's quota refills on the same fake clock that the limiter's waits move forward, so no real time passes.
+        // The burst of 40 and the 8 calls that may be late for their turn still fit in IoT's burst of 50.
+        FakeIotClient iotClient = getIotClient(50);
+        RateLimiter rateLimiter = getRateLimiter(40);
+        ApiInvoker invoker = new ApiInvoker(proxy, rateLimiter, Deadline.NONE, CallRetryPolicy.NONE, nanoTime::get);
+
+        // A burst of 40, then 120 calls paced at 40 per second of the fake clock.
+        runConcurrently(8, 20, () -> describe(invoker, iotClient));
+
+        assertThat(iotClient.getCallCount(API)).isEqualTo(160);
+        assertThat(invoker.toEmbeddedMetricFormat(Action.READ, 0L))
+                .doesNotContain("ThrottlingException");
+    }
+
+    @Test
+    public void invoke_ManyThreadsAboveQuota_RateAdaptsDown() throws Exception {
+        FakeIotClient iotClient = getIotClient(20);
+        RateLimiter rateLimiter = getRateLimiter(200);
+        ApiInvoker invoker = new ApiInvoker(proxy, rateLimiter, Deadline.NONE, CallRetryPolicy.NONE, nanoTime::get);
+        AtomicInteger throttled = new AtomicInteger();
+        long deadline = TimeUnit.SECONDS.toNanos(3);
+
+        // The fake clock only moves while callers wait their turn, so the loop ends once the limiter has paced
+        // 3 seconds' worth of calls.
+        runConcurrently(4, 1, () -> {
+            while (nanoTime.get() < deadline) {
+                try {
+                    describe(invoker, iotClient);
+                } catch (ThrottlingException e) {
+                    throttled.incrementAndGet();
+                } catch (RateLimiter.RejectedException e) {
+                    // Not made, so not what this counts.
+                }
+            }
+        });
+
+        assertThat(throttled.get()).isGreaterThan(0);
+        assertThat(rateLimiter.getRate(API)).isLessThan(200.0);
+        assertThat(rateLimiter.getRate(API)).isGreaterThanOrEqualTo(200 * RateLimiter.MIN_RATE_FRACTION);
+    }
+
+    private FakeIotClient getIotClient(double tpsQuota) {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+        FakeIotClient iotClient = new FakeIotClient(Clock.systemUTC(), nanoTime::get);
+        iotClient.createFleetMetric(CreateFleetMetricRequest.builder().metricName("Metric").queryString("*").build());
+        iotClient.setTpsQuota(API, tpsQuota);
+        return iotClient;
+    }
+
+    private static void describe(ApiInvoker invoker, FakeIotClient iotClient) {
+        invoker.invoke(DescribeFleetMetricRequest.builder().metricName("Metric").build(),
+                iotClient::describeFleetMetric);
+    }
+
+    private static void runConcurrently(int threads, int iterations, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < iterations; j++) {
+                        task.run();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.amazonaws.iot.fleetmetric;
 
+import com.google.common.collect.ImmutableMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -7,9 +8,14 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.InternalFailureException;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.iot.model.ThrottlingException;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
@@ -17,7 +23,16 @@ import software.amazon.cloudformation.proxy.OperationStatus;
 import software.amazon.cloudformation.proxy.ProgressEvent;
 import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
+import java.time.Instant;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_FIELD;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_TYPE;
@@ -29,19 +44,28 @@ import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_PERIOD;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_QUERY_STRING;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_RESOURCE_MODEL;
+import static com.amazonaws.iot.fleetmetric.TestConstants.MODEL_TAGS;
 import static com.amazonaws.iot.fleetmetric.TestConstants.SDK_MODEL_TAG;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class ReadHandlerTest {
 
+    private static final String REGION = "us-east-1";
+    private static final String OTHER_FLEET_METRIC_ARN = "arn:aws:iot:us-east-1:123456789012:fleetmetric/Other";
+
     @Mock
     private AmazonWebServicesClientProxy proxy;
 
@@ -79,7 +103,7 @@ public class ReadHandlerTest {
 
         doReturn(Collections.singletonList(SDK_MODEL_TAG))
                 .when(handler)
-                .listTags(proxy, FLEET_METRIC_ARN, logger);
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
 
         ProgressEvent<ResourceModel, CallbackContext> response
                 = handler.handleRequest(proxy, request, null, logger);
@@ -102,6 +126,247 @@ public class ReadHandlerTest {
         assertThat(response.getResourceModel().getIndexName()).isEqualTo(FLEET_METRIC_INDEX_NAME);
     }
 
+    @Test
+    public void handleRequest_UpdatedWhileDescribeInFlight_StaleDescribeNotCached() {
+        FakeIotClient iotClient = new FakeIotClient();
+        iotClient.createFleetMetric(
+                CreateFleetMetricRequest.builder().metricName(FLEET_METRIC_NAME).queryString("*").build());
+        HandlerConfig config = new HandlerConfig();
+        config.setDescribeCache(new FleetMetricCache(60_000L, 10, System::nanoTime));
+        ResourceHandlerRequest<ResourceModel> readRequest = getFakeIotRequest(
+                ResourceModel.builder().metricName(FLEET_METRIC_NAME).build(), null);
+        ResourceHandlerRequest<ResourceModel> updateRequest = getFakeIotRequest(
+                ResourceModel.builder().metricName(FLEET_METRIC_NAME).queryString("thingName:*").build(),
+                ResourceModel.builder().metricName(FLEET_METRIC_NAME).queryString("*").build());
+
+        AtomicBoolean updated = new AtomicBoolean();
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> {
+                    Object response = invocation.<Function<Object, Object>>getArgument(1)
+                            .apply(invocation.getArgument(0));
+                    // The first Read's Describe is back, but the metric is updated before that Read caches it.
+                    if (invocation.getArgument(0) instanceof DescribeFleetMetricRequest
+                            && updated.compareAndSet(false, true)) {
+                        new UpdateHandler(iotClient, config).handleRequest(proxy, updateRequest, null, logger);
+                    }
+                    return response;
+                });
+
+        ProgressEvent<ResourceModel, CallbackContext> staleRead =
+                new ReadHandler(iotClient, config).handleRequest(proxy, readRequest, null, logger);
+        ProgressEvent<ResourceModel, CallbackContext> read =
+                new ReadHandler(iotClient, config).handleRequest(proxy, readRequest, null, logger);
+
+        assertThat(staleRead.getResourceModel().getQueryString()).isEqualTo("*");
+        // The second Read describes the metric again rather than returning what the first one found.
+        assertThat(read.getResourceModel().getQueryString()).isEqualTo("thingName:*");
+        verify(proxy, atLeastOnce()).injectCredentialsAndInvokeV2(any(), any());
+    }
+
+    @Test
+    public void handleRequest_CacheEnabled_SecondReadFromCache() {
+        HandlerConfig config = new HandlerConfig();
+        config.setDescribeCache(new FleetMetricCache(60_000L, 10, System::nanoTime));
+        ReadHandler cachingHandler = spy(new ReadHandler(mock(IotClient.class), config));
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(FLEET_METRIC_ARN)
+                        .queryString(FLEET_METRIC_QUERY_STRING)
+                        .build());
+        doReturn(Collections.singletonList(SDK_MODEL_TAG))
+                .when(cachingHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> first
+                = cachingHandler.handleRequest(proxy, request, null, logger);
+        ProgressEvent<ResourceModel, CallbackContext> second
+                = cachingHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(second.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(second.getResourceModel()).isEqualTo(first.getResourceModel());
+        assertThat(second.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(), any());
+        verify(cachingHandler, times(1))
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+    }
+
+    @Test
+    public void handleRequest_CacheExpiredVersionUnchanged_ReusesCachedTags() {
+        AtomicLong nanoTime = new AtomicLong();
+        ReadHandler cachingHandler = getCachingHandler(nanoTime);
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        DescribeFleetMetricResponse describeResponse = getVersionedDescribeResponse(3L);
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(describeResponse);
+        doReturn(Collections.singletonList(SDK_MODEL_TAG))
+                .when(cachingHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        cachingHandler.handleRequest(proxy, request, null, logger);
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        ProgressEvent<ResourceModel, CallbackContext> second
+                = cachingHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(second.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(second.getResourceModel().getVersion()).isEqualTo(3.0);
+        assertThat(second.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(cachingHandler, times(1))
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+    }
+
+    @Test
+    public void handleRequest_CacheExpiredVersionChanged_ListsTagsAgain() {
+        AtomicLong nanoTime = new AtomicLong();
+        ReadHandler cachingHandler = getCachingHandler(nanoTime);
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(getVersionedDescribeResponse(3L))
+                .thenReturn(getVersionedDescribeResponse(4L));
+        doReturn(Collections.emptyList())
+                .doReturn(Collections.singletonList(SDK_MODEL_TAG))
+                .when(cachingHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        cachingHandler.handleRequest(proxy, request, null, logger);
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        ProgressEvent<ResourceModel, CallbackContext> second
+                = cachingHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(second.getResourceModel().getVersion()).isEqualTo(4.0);
+        assertThat(second.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(cachingHandler, times(2))
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+    }
+
+    @Test
+    public void handleRequest_DerivedArnMatches_ListsTagsConcurrently() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        // Describe only returns once ListTags has started, which can only happen if they run concurrently.
+        CountDownLatch listTagsStarted = new CountDownLatch(1);
+        DescribeFleetMetricResponse describeResponse = DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                .build();
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> {
+                    assertThat(listTagsStarted.await(5, TimeUnit.SECONDS)).isTrue();
+                    return describeResponse;
+                });
+        doAnswer(invocation -> {
+            listTagsStarted.countDown();
+            return Collections.singletonList(SDK_MODEL_TAG);
+        }).when(handler).listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        assertThat(response.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        verify(handler).listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+    }
+
+    @Test
+    public void handleRequest_DerivedArnMismatch_ListsTagsSequentially() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenReturn(DescribeFleetMetricResponse.builder()
+                        .metricName(FLEET_METRIC_NAME)
+                        .metricArn(OTHER_FLEET_METRIC_ARN)
+                        .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                        .build());
+        // The speculative call on the derived ARN is waited for, though its tags are left out.
+        doReturn(Collections.emptyList())
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(Collections.singletonList(SDK_MODEL_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(OTHER_FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(OTHER_FLEET_METRIC_ARN);
+        assertThat(response.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        verify(handler).listTags(any(ApiInvoker.class), eq(OTHER_FLEET_METRIC_ARN), any(HandlerLogger.class));
+    }
+
+    @Test
+    public void handleRequest_DescribeFailsWithDerivedArn_WaitsForSpeculativeListTags() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        // Describe fails only once ListTags has started, and ListTags only returns once Describe has failed.
+        CountDownLatch listTagsStarted = new CountDownLatch(1);
+        CountDownLatch describeFailed = new CountDownLatch(1);
+        AtomicBoolean listTagsDone = new AtomicBoolean();
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenAnswer(invocation -> {
+                    assertThat(listTagsStarted.await(5, TimeUnit.SECONDS)).isTrue();
+                    describeFailed.countDown();
+                    throw ResourceNotFoundException.builder().build();
+                });
+        doAnswer(invocation -> {
+            listTagsStarted.countDown();
+            assertThat(describeFailed.await(5, TimeUnit.SECONDS)).isTrue();
+            listTagsDone.set(true);
+            return Collections.emptyList();
+        }).when(handler).listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        assertThat(listTagsDone.get()).isTrue();
+    }
+
+    @Test
+    public void handleRequest_NoAccountInRequest_ListsTagsAfterDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+
+        when(proxy.injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any()))
+                .thenThrow(ResourceNotFoundException.builder().build());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        verify(handler, never()).listTags(any(), any(), any());
+    }
+
     @Test
     public void handleRequest_ThrowThrottling_VerifyTranslation() {
         ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
@@ -115,4 +380,180 @@ public class ReadHandlerTest {
                 handler.handleRequest(proxy, request, null, logger);
         assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
     }
+
+    @Test
+    public void handleRequest_AsyncPipeline_VerifyRequestResponse() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                .queryString(FLEET_METRIC_QUERY_STRING)
+                .build(), Collections.singletonList(SDK_MODEL_TAG));
+        delegateAsyncCalls();
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = getAsyncHandler(asyncClient).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        assertThat(response.getResourceModel().getQueryString()).isEqualTo(FLEET_METRIC_QUERY_STRING);
+        assertThat(response.getResourceModel().getTags()).isEqualTo(MODEL_TAGS);
+        assertThat(asyncClient.getRequests()).hasSize(2);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineDerivedArnMismatch_ListsTagsAgain() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(OTHER_FLEET_METRIC_ARN)
+                .build(), Collections.singletonList(SDK_MODEL_TAG));
+        delegateAsyncCalls();
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = getAsyncHandler(asyncClient).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getResourceModel().getMetricArn()).isEqualTo(OTHER_FLEET_METRIC_ARN);
+        List<String> listedArns = asyncClient.getRequests().stream()
+                .filter(ListTagsForResourceRequest.class::isInstance)
+                .map(ListTagsForResourceRequest.class::cast)
+                .map(ListTagsForResourceRequest::resourceArn)
+                .collect(Collectors.toList());
+        assertThat(listedArns).containsExactlyInAnyOrder(FLEET_METRIC_ARN, OTHER_FLEET_METRIC_ARN);
+        verify(proxy, times(3)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineNotFound_VerifyTranslation() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, null, Collections.emptyList());
+        asyncClient.failDescribeWith(ResourceNotFoundException.builder().build());
+        delegateAsyncCalls();
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = getAsyncHandler(asyncClient).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        verify(proxy).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineDescribeFailsWithDerivedArn_WaitsForSpeculativeListTags() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+        // ListTags is still in flight when Describe fails.
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, null, Collections.emptyList());
+        asyncClient.failDescribeWith(ResourceNotFoundException.builder().build());
+        asyncClient.delayListTagsBy(100);
+        delegateAsyncCalls();
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = getAsyncHandler(asyncClient).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        assertThat(asyncClient.getRequests()).hasSize(2);
+        assertThat(asyncClient.getCallsInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineCircuitOpen_FailsWithoutCalling() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .region(REGION)
+                .build();
+        CircuitBreaker breaker = new CircuitBreaker(1, 30_000L, () -> 0L);
+        breaker.onResult(REGION, "DescribeFleetMetric", InternalFailureException.builder().build());
+        HandlerConfig config = getAsyncConfig(new LatencyIotAsyncClient(0, null, Collections.emptyList()));
+        config.setCircuitBreaker(breaker);
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = new ReadHandler(mock(IotClient.class), config).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.ServiceInternalError);
+        verify(proxy, never()).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineRateLimited_FailsWithThrottling() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .build();
+        // One call per minute, taken before the handler runs, so its Describe would wait far longer than allowed.
+        RateLimiter rateLimiter = new RateLimiter(ImmutableMap.of("*", 1.0 / 60), () -> 0L, nanos -> { });
+        rateLimiter.acquire("DescribeFleetMetric");
+        HandlerConfig config = getAsyncConfig(new LatencyIotAsyncClient(0, null, Collections.emptyList()));
+        config.setRateLimiter(rateLimiter);
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = new ReadHandler(mock(IotClient.class), config).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.Throttling);
+        verify(proxy, never()).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    private ReadHandler getAsyncHandler(LatencyIotAsyncClient asyncClient) {
+        return new ReadHandler(mock(IotClient.class), getAsyncConfig(asyncClient));
+    }
+
+    private static HandlerConfig getAsyncConfig(LatencyIotAsyncClient asyncClient) {
+        HandlerConfig config = new HandlerConfig();
+        config.setAsyncActions(EnumSet.of(Action.READ));
+        config.setAsyncClient(() -> asyncClient);
+        return config;
+    }
+
+    private void delegateAsyncCalls() {
+        when(proxy.injectCredentialsAndInvokeV2Async(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+    }
+
+    private static ReadHandler getCachingHandler(AtomicLong nanoTime) {
+        HandlerConfig config = new HandlerConfig();
+        config.setDescribeCache(new FleetMetricCache(5_000L, 10, nanoTime::get));
+        return spy(new ReadHandler(mock(IotClient.class), config));
+    }
+
+    private static DescribeFleetMetricResponse getVersionedDescribeResponse(long version) {
+        return DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .queryString(FLEET_METRIC_QUERY_STRING)
+                .version(version)
+                .lastModifiedDate(Instant.ofEpochSecond(1_700_000_000L + version))
+                .build();
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> getFakeIotRequest(
+            ResourceModel desiredModel, ResourceModel previousModel) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(desiredModel)
+                .previousResourceState(previousModel)
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
 }
@@ -0,0 +1,217 @@
+package com.amazonaws.iot.fleetmetric;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.CreateFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
+import software.amazon.awssdk.services.iot.model.ListFleetMetricsRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
+import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
+import software.amazon.cloudformation.proxy.Logger;
+import software.amazon.cloudformation.proxy.OperationStatus;
+import software.amazon.cloudformation.proxy.ProgressEvent;
+import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SingleFlightTest {
+
+    private static final String KEY = "123456789012/us-east-1/DescribeFleetMetric/Metric";
+
+    @Mock
+    private AmazonWebServicesClientProxy proxy;
+
+    @Mock
+    private Logger logger;
+
+    private final SingleFlight singleFlight = new SingleFlight(true);
+
+    private final AtomicInteger joined = new AtomicInteger();
+
+    @Test
+    public void key_ReadsByAccountRegionApiAndResource() {
+        assertThat(SingleFlight.key(FakeIotClient.ACCOUNT_ID, FakeIotClient.REGION,
+                DescribeFleetMetricRequest.builder().metricName("Metric").build()))
+                .isEqualTo(KEY);
+        assertThat(SingleFlight.key(FakeIotClient.ACCOUNT_ID, FakeIotClient.REGION,
+                ListTagsForResourceRequest.builder().resourceArn("arn").nextToken("page2").build()))
+                .isEqualTo("123456789012/us-east-1/ListTagsForResource/arn?nextToken=page2");
+        assertThat(SingleFlight.key(FakeIotClient.ACCOUNT_ID, FakeIotClient.REGION,
+                ListFleetMetricsRequest.builder().build()))
+                .isNull();
+    }
+
+    @Test
+    public void execute_SameCallInFlight_JoinsIt() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = singleFlight.execute(KEY, () -> response, joined::incrementAndGet);
+        CompletableFuture<String> joiner = singleFlight.execute(KEY, () -> {
+            throw new AssertionError("Not joined");
+        }, joined::incrementAndGet);
+        response.complete("described");
+
+        assertThat(leader.join()).isEqualTo("described");
+        assertThat(joiner.join()).isEqualTo("described");
+        assertThat(joined.get()).isEqualTo(1);
+        assertThat(singleFlight.getCallsInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_CallFails_JoinerGetsSameException() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        ResourceNotFoundException notFound = ResourceNotFoundException.builder().build();
+
+        singleFlight.execute(KEY, () -> response, joined::incrementAndGet);
+        CompletableFuture<String> joiner = singleFlight.execute(KEY, CompletableFuture::new, joined::incrementAndGet);
+        response.completeExceptionally(notFound);
+
+        assertThatThrownBy(() -> HandlerUtils.join(joiner)).isSameAs(notFound);
+    }
+
+    @Test
+    public void execute_CallThrows_FailedFutureSharedAndEvicted() {
+        CompletableFuture<String> joiner = new CompletableFuture<>();
+        ResourceNotFoundException notFound = ResourceNotFoundException.builder().build();
+
+        CompletableFuture<String> leader = singleFlight.execute(KEY, () -> {
+            // Joins from within the call, the only time a call that throws is still in flight.
+            singleFlight.<String>execute(KEY, CompletableFuture::new, joined::incrementAndGet)
+                    .whenComplete((value, e) -> joiner.completeExceptionally(e));
+            throw notFound;
+        }, joined::incrementAndGet);
+
+        assertThatThrownBy(() -> HandlerUtils.join(leader)).isSameAs(notFound);
+        assertThatThrownBy(() -> HandlerUtils.join(joiner)).isSameAs(notFound);
+        assertThat(singleFlight.getCallsInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_CallCompleted_NextCallMadeAfresh() {
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            singleFlight.execute(KEY, () -> CompletableFuture.completedFuture(calls.incrementAndGet()),
+                    joined::incrementAndGet);
+        }
+
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(joined.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void forget_WriteDone_CallsInFlightForMetricNotJoined() {
+        String arn = FakeIotClient.getArn("Metric");
+        singleFlight.execute(KEY, CompletableFuture::new, joined::incrementAndGet);
+        singleFlight.execute(SingleFlight.key(FakeIotClient.ACCOUNT_ID, FakeIotClient.REGION,
+                ListTagsForResourceRequest.builder().resourceArn(arn).nextToken("page2").build()),
+                CompletableFuture::new, joined::incrementAndGet);
+        singleFlight.execute(SingleFlight.key(FakeIotClient.ACCOUNT_ID, FakeIotClient.REGION,
+                DescribeFleetMetricRequest.builder().metricName("MetricWithLongerName").build()),
+                CompletableFuture::new, joined::incrementAndGet);
+
+        singleFlight.forget(getRequest("Metric"));
+
+        assertThat(singleFlight.getCallsInFlight()).isEqualTo(1);
+        AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute(KEY, () -> CompletableFuture.completedFuture(calls.incrementAndGet()),
+                joined::incrementAndGet);
+        assertThat(calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void disabled_AlwaysMakesTheCall() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        SingleFlight.DISABLED.execute(KEY, () -> response, joined::incrementAndGet);
+        SingleFlight.DISABLED.execute(KEY, () -> {
+            calls.incrementAndGet();
+            return response;
+        }, joined::incrementAndGet);
+
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(joined.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void read_ManyConcurrentReads_ShareCalls() throws Exception {
+        when(proxy.injectCredentialsAndInvokeV2(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+        FakeIotClient iotClient = new FakeIotClient();
+        iotClient.setDefaultLatency(FakeIotClient.Latency.fixed(20));
+        String[] metricNames = {"MetricA", "MetricB"};
+        for (String metricName : metricNames) {
+            iotClient.createFleetMetric(
+                    CreateFleetMetricRequest.builder().metricName(metricName).queryString("*").build());
+        }
+        HandlerConfig config = new HandlerConfig();
+        config.setSingleFlight(singleFlight);
+        ReadHandler handler = new ReadHandler(iotClient, config);
+        int threads = 16;
+        int readsPerThread = 10;
+        AtomicInteger wrongResults = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                String metricName = metricNames[i % metricNames.length];
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < readsPerThread; j++) {
+                        ProgressEvent<ResourceModel, CallbackContext> read =
+                                handler.handleRequest(proxy, getRequest(metricName), null, logger);
+                        if (read.getStatus() != OperationStatus.SUCCESS
+                                || !metricName.equals(read.getResourceModel().getMetricName())) {
+                            wrongResults.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Reads of a metric that overlap share one Describe and one ListTags, so far fewer calls are made.
+        int reads = threads * readsPerThread;
+        assertThat(wrongResults.get()).isEqualTo(0);
+        assertThat(iotClient.getCallCount("DescribeFleetMetric")).isLessThan(reads / 2);
+        assertThat(iotClient.getCallCount("ListTagsForResource")).isLessThan(reads / 2);
+        assertThat(singleFlight.getCallsInFlight()).isEqualTo(0);
+    }
+
+    private static ResourceHandlerRequest<ResourceModel> getRequest(String metricName) {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .desiredResourceState(ResourceModel.builder().metricName(metricName).build())
+                .awsPartition("aws")
+                .region(FakeIotClient.REGION)
+                .awsAccountId(FakeIotClient.ACCOUNT_ID)
+                .build();
+    }
+}
@@ -1,22 +1,45 @@
 package com.amazonaws.iot.fleetmetric;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
 import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
 import software.amazon.awssdk.services.iot.model.IotException;
 import software.amazon.awssdk.services.iot.model.LimitExceededException;
+import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
 
+import java.time.Instant;
+
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_FIELD;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_TYPE;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_TYPE_NAME;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_TYPE_VALUES;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_ARN;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_INDEX_NAME;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_NAME;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_PERIOD;
+import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_QUERY_STRING;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
 public class TranslatorTest {
 
     @Mock
-    private Logger logger;
+    private Logger proxyLogger;
+
+    private HandlerLogger logger;
+
+    @BeforeEach
+    public void setup() {
+        logger = new HandlerLogger(proxyLogger);
+    }
 
     @Test
     public void translateIotExceptionToCfn_LimitExceededErrorCode() {
@@ -43,6 +66,59 @@ public class TranslatorTest {
         assertThat(result).isEqualByComparingTo(HandlerErrorCode.AccessDenied);
     }
 
+    @Test
+    public void translateExceptionToErrorCode_KnownServiceError_NoStackTrace() {
+        HandlerErrorCode result = Translator.translateExceptionToErrorCode(
+                ResourceNotFoundException.builder().message("not found").build(), logger);
+
+        assertThat(result).isEqualByComparingTo(HandlerErrorCode.NotFound);
+        ArgumentCaptor<String> logLine = ArgumentCaptor.forClass(String.class);
+        verify(proxyLogger).log(logLine.capture());
+        assertThat(logLine.getValue()).isEqualTo("Translating ResourceNotFoundException \"not found\" to NotFound");
+    }
+
+    @Test
+    public void translateExceptionToErrorCode_CircuitOpen_RetriableServiceInternalError() {
+        HandlerErrorCode result = Translator.translateExceptionToErrorCode(new CircuitBreaker.OpenException(
+                "us-east-1", "DescribeFleetMetric", CircuitBreaker.State.OPEN, 1_000L), logger);
+
+        assertThat(result).isEqualByComparingTo(HandlerErrorCode.ServiceInternalError);
+    }
+
+    @Test
+    public void translateExceptionToErrorCode_RateLimiterRejected_Throttling() {
+        HandlerErrorCode result = Translator.translateExceptionToErrorCode(
+                new RateLimiter.RejectedException("DescribeFleetMetric", 1.0), logger);
+
+        assertThat(result).isEqualByComparingTo(HandlerErrorCode.Throttling);
+    }
+
+    @Test
+    public void translateExceptionToErrorCode_UnknownException_LogsStackTrace() {
+        HandlerErrorCode result = Translator.translateExceptionToErrorCode(
+                new IllegalStateException("unexpected"), logger);
+
+        assertThat(result).isEqualByComparingTo(HandlerErrorCode.InternalFailure);
+        ArgumentCaptor<String> logLine = ArgumentCaptor.forClass(String.class);
+        verify(proxyLogger).log(logLine.capture());
+        assertThat(logLine.getValue())
+                .startsWith("Unexpected exception \"unexpected\", stack trace: java.lang.IllegalStateException")
+                .contains(TranslatorTest.class.getName());
+    }
+
+    @Test
+    public void translateExceptionToErrorCode_WarnLevel_LogsOnlyUnexpectedException() {
+        HandlerLogger warnLogger = new HandlerLogger(proxyLogger, HandlerLogger.Level.WARN);
+
+        Translator.translateExceptionToErrorCode(ResourceNotFoundException.builder().message("not found").build(),
+                warnLogger);
+        Translator.translateExceptionToErrorCode(new IllegalStateException("unexpected"), warnLogger);
+
+        ArgumentCaptor<String> logLine = ArgumentCaptor.forClass(String.class);
+        verify(proxyLogger).log(logLine.capture());
+        assertThat(logLine.getValue()).startsWith("Unexpected exception \"unexpected\"");
+    }
+
     @Test
     void translateTagsToSdk_InputNull_ReturnsEmpty() {
         assertThat(Translator.translateTagsToSdk(null)).isEmpty();
@@ -52,4 +128,46 @@ public class TranslatorTest {
     void translateTagsToCfn_InputNull_ReturnsEmpty() {
         assertThat(Translator.translateTagsToCfn(null)).isEmpty();
     }
+
+    @Test
+    void translateFromDescribeResponse_AllFieldsSet_MapsEveryField() {
+        DescribeFleetMetricResponse response = DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .queryString(FLEET_METRIC_QUERY_STRING)
+                .indexName(FLEET_METRIC_INDEX_NAME)
+                .aggregationField(FLEET_METRIC_AGGREGATION_FIELD)
+                .aggregationType(FLEET_METRIC_AGGREGATION_TYPE)
+                .period(FLEET_METRIC_PERIOD)
+                .creationDate(Instant.ofEpochMilli(1_700_000_000_250L))
+                .lastModifiedDate(Instant.ofEpochSecond(1_700_000_100L))
+                .version(3L)
+                .build();
+
+        ResourceModel model = Translator.translateFromDescribeResponse(response);
+
+        assertThat(model.getMetricName()).isEqualTo(FLEET_METRIC_NAME);
+        assertThat(model.getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        assertThat(model.getQueryString()).isEqualTo(FLEET_METRIC_QUERY_STRING);
+        assertThat(model.getIndexName()).isEqualTo(FLEET_METRIC_INDEX_NAME);
+        assertThat(model.getAggregationField()).isEqualTo(FLEET_METRIC_AGGREGATION_FIELD);
+        assertThat(model.getAggregationType().getName()).isEqualTo(FLEET_METRIC_AGGREGATION_TYPE_NAME);
+        assertThat(model.getAggregationType().getValues()).isEqualTo(FLEET_METRIC_AGGREGATION_TYPE_VALUES);
+        assertThat(model.getPeriod()).isEqualTo(FLEET_METRIC_PERIOD);
+        assertThat(model.getCreationDate()).isEqualTo(1_700_000_000.25);
+        assertThat(model.getLastModifiedDate()).isEqualTo(1_700_000_100.0);
+        assertThat(model.getVersion()).isEqualTo(3.0);
+        assertThat(model.getTags()).isNull();
+    }
+
+    @Test
+    void translateFromDescribeResponse_NoAggregationType_LeavesItUnset() {
+        ResourceModel model = Translator.translateFromDescribeResponse(
+                DescribeFleetMetricResponse.builder().metricName(FLEET_METRIC_NAME).build());
+
+        assertThat(model.getAggregationType()).isNull();
+        assertThat(model.getCreationDate()).isNull();
+        assertThat(model.getLastModifiedDate()).isNull();
+        assertThat(model.getVersion()).isNull();
+    }
 }
@@ -13,13 +13,18 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import software.amazon.awssdk.services.iot.IotClient;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.DescribeFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.IndexNotReadyException;
 import software.amazon.awssdk.services.iot.model.InvalidRequestException;
 import software.amazon.awssdk.services.iot.model.IotRequest;
+import software.amazon.awssdk.services.iot.model.ListTagsForResourceRequest;
 import software.amazon.awssdk.services.iot.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.iot.model.TagResourceRequest;
+import software.amazon.awssdk.services.iot.model.ThrottlingException;
 import software.amazon.awssdk.services.iot.model.UntagResourceRequest;
 import software.amazon.awssdk.services.iot.model.UpdateFleetMetricRequest;
 import software.amazon.awssdk.services.iot.model.UpdateFleetMetricResponse;
+import software.amazon.awssdk.services.iot.model.VersionConflictException;
+import software.amazon.cloudformation.Action;
 import software.amazon.cloudformation.proxy.AmazonWebServicesClientProxy;
 import software.amazon.cloudformation.proxy.HandlerErrorCode;
 import software.amazon.cloudformation.proxy.Logger;
@@ -29,8 +34,12 @@ import software.amazon.cloudformation.proxy.ResourceHandlerRequest;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import static com.amazonaws.iot.fleetmetric.TestConstants.DESIRED_TAGS;
 import static com.amazonaws.iot.fleetmetric.TestConstants.FLEET_METRIC_AGGREGATION_FIELD;
@@ -47,10 +56,12 @@ import static com.amazonaws.iot.fleetmetric.TestConstants.MODEL_TAGS;
 import static com.amazonaws.iot.fleetmetric.TestConstants.SDK_SYSTEM_TAG;
 import static com.amazonaws.iot.fleetmetric.TestConstants.SYSTEM_TAG_MAP;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -77,7 +88,7 @@ public class UpdateHandlerTest {
     private Logger logger;
 
     @Spy
-    private UpdateHandler handler = spy(new UpdateHandler(mock(IotClient.class)));
+    private UpdateHandler handler = spy(new UpdateHandler(mock(IotClient.class), getRetryingConfig()));
 
     @AfterEach
     public void afterEach() {
@@ -100,7 +111,7 @@ public class UpdateHandlerTest {
 
         doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
                 .when(handler)
-                .listTags(proxy, FLEET_METRIC_ARN, logger);
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
 
         doReturn(UpdateFleetMetricResponse.builder().build())
                 .when(proxy)
@@ -126,12 +137,12 @@ public class UpdateHandlerTest {
         verify(proxy, times(4)).injectCredentialsAndInvokeV2(requestCaptor.capture(), any());
         List<IotRequest> submittedIotRequests = requestCaptor.getAllValues();
 
-        UpdateFleetMetricRequest submittedUpdateRequest = (UpdateFleetMetricRequest) submittedIotRequests.get(0);
-        assertThat(submittedUpdateRequest.metricName()).isEqualTo(FLEET_METRIC_NAME);
-
-        DescribeFleetMetricRequest submittedDescribeRequest = (DescribeFleetMetricRequest) submittedIotRequests.get(1);
+        DescribeFleetMetricRequest submittedDescribeRequest = (DescribeFleetMetricRequest) submittedIotRequests.get(0);
         assertThat(submittedDescribeRequest.metricName()).isEqualTo(FLEET_METRIC_NAME);
 
+        UpdateFleetMetricRequest submittedUpdateRequest = (UpdateFleetMetricRequest) submittedIotRequests.get(1);
+        assertThat(submittedUpdateRequest.metricName()).isEqualTo(FLEET_METRIC_NAME);
+
         TagResourceRequest submittedTagRequest = (TagResourceRequest) submittedIotRequests.get(2);
         assertThat(submittedTagRequest.tags()).isEqualTo(Collections.singletonList(DESIRED_SDK_RESOURCE_TAG));
         assertThat(submittedTagRequest.resourceArn()).isEqualTo(FLEET_METRIC_ARN);
@@ -142,7 +153,239 @@ public class UpdateHandlerTest {
     }
 
     @Test
-    public void updateTags_SameKeyDifferentValue_OnlyTagCall() {
+    public void handleRequest_NothingChanged_OnlyDescribeCall() {
+        ResourceModel desiredModel = getDesiredModel();
+
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(getDesiredModel())
+                .desiredResourceState(desiredModel)
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(DESIRED_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(getDescribeResponseMatchingDesiredModel())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getResourceModel()).isEqualTo(desiredModel);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy, never()).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_OnlyTagsChanged_SkipsUpdateFleetMetric() {
+        ResourceModel desiredModel = getDesiredModel();
+
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(getDesiredModel())
+                .desiredResourceState(desiredModel)
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(getDescribeResponseMatchingDesiredModel())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy, never()).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(TagResourceRequest.class), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(UntagResourceRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_PropertyChangedArnResolved_SkipsDescribe() {
+        UpdateHandler resolvingHandler = getArnResolvingHandler();
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
+                .when(resolvingHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = resolvingHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy, never()).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(eq(TagResourceRequest.builder()
+                .resourceArn(FLEET_METRIC_ARN)
+                .tags(DESIRED_SDK_RESOURCE_TAG)
+                .build()), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(eq(UntagResourceRequest.builder()
+                .resourceArn(FLEET_METRIC_ARN)
+                .tagKeys("PreviousTagKey")
+                .build()), any());
+    }
+
+    @Test
+    public void handleRequest_OnlyTagsChangedArnResolvable_StillDescribes() {
+        // Without a property change in the template, only Describe can tell whether to call UpdateFleetMetric.
+        UpdateHandler resolvingHandler = getArnResolvingHandler();
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(getDesiredModel())
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+
+        doReturn(ImmutableSet.of(DESIRED_SDK_RESOURCE_TAG))
+                .when(resolvingHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(getDescribeResponseMatchingDesiredModel())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = resolvingHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ExpectedVersion_SendsDescribedVersion() {
+        UpdateHandler versioningHandler = getExpectedVersionHandler(new ArnResolver(0));
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(SDK_SYSTEM_TAG))
+                .when(versioningHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(DescribeFleetMetricResponse.builder().metricArn(FLEET_METRIC_ARN).version(3L).build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        doReturn(UpdateFleetMetricResponse.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = versioningHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        ArgumentCaptor<IotRequest> requestCaptor = ArgumentCaptor.forClass(IotRequest.class);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2(requestCaptor.capture(), any());
+        assertThat(((UpdateFleetMetricRequest) requestCaptor.getAllValues().get(1)).expectedVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    public void handleRequest_ExpectedVersionFromPreviousState_SkipsDescribe() {
+        UpdateHandler versioningHandler = getExpectedVersionHandler(new ArnResolver(10));
+        ResourceModel previousModel = ResourceModel.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .queryString(FLEET_METRIC_QUERY_STRING)
+                .version(3.0)
+                .build();
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(previousModel)
+                .desiredResourceState(getDesiredModel())
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(SDK_SYSTEM_TAG))
+                .when(versioningHandler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(UpdateFleetMetricResponse.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = versioningHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        ArgumentCaptor<IotRequest> requestCaptor = ArgumentCaptor.forClass(IotRequest.class);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(requestCaptor.capture(), any());
+        assertThat(((UpdateFleetMetricRequest) requestCaptor.getValue()).expectedVersion()).isEqualTo(3L);
+    }
+
+    @Test
+    public void handleRequest_VersionConflict_CallsBackAtDescribe() {
+        UpdateHandler versioningHandler = getExpectedVersionHandler(new ArnResolver(0));
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(DescribeFleetMetricResponse.builder().metricArn(FLEET_METRIC_ARN).version(3L).build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        doThrow(VersionConflictException.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = versioningHandler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackDelaySeconds()).isPositive();
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.DESCRIBE);
+        assertThat(response.getCallbackContext().getExpectedVersion()).isNull();
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ChangedOutOfBand_CallsUpdateFleetMetric() {
+        // The template didn't change, but the live metric did. We still need to write it back.
+        ResourceModel desiredModel = getDesiredModel();
+
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(getDesiredModel())
+                .desiredResourceState(desiredModel)
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(DESIRED_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(getDescribeResponseMatchingDesiredModel().toBuilder().queryString("outOfBandQueryString").build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        doReturn(UpdateFleetMetricResponse.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy, times(1)).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_TagsSameKeyDifferentValue_OnlyTagCall() {
         software.amazon.awssdk.services.iot.model.Tag previousTag =
                 software.amazon.awssdk.services.iot.model.Tag.builder()
                         .key("DesiredTagKey")
@@ -153,15 +396,16 @@ public class UpdateHandlerTest {
         ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
                 .previousResourceState(ResourceModel.builder().build())
                 .previousResourceTags(ImmutableMap.of("doesn't", "matter"))
+                .desiredResourceState(getDesiredModel())
                 .desiredResourceTags(desiredTags)
                 .systemTags(SYSTEM_TAG_MAP)
                 .build();
 
         doReturn(ImmutableSet.of(previousTag, SDK_SYSTEM_TAG))
                 .when(handler)
-                .listTags(proxy, FLEET_METRIC_ARN, logger);
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
 
-        handler.updateTags(proxy, request, FLEET_METRIC_ARN, logger);
+        handler.handleRequest(proxy, request, getContextResumedAtListTags(), logger);
 
         ArgumentCaptor<TagResourceRequest> requestCaptor = ArgumentCaptor.forClass(TagResourceRequest.class);
         verify(proxy).injectCredentialsAndInvokeV2(requestCaptor.capture(), any());
@@ -170,21 +414,22 @@ public class UpdateHandlerTest {
     }
 
     @Test
-    public void updateTags_NoDesiredTags_OnlyUntagCall() {
+    public void handleRequest_NoDesiredTags_OnlyUntagCall() {
         Map<String, String> desiredTags = Collections.emptyMap();
 
         ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
                 .previousResourceState(ResourceModel.builder().build())
                 .previousResourceTags(ImmutableMap.of("doesn't", "matter"))
+                .desiredResourceState(getDesiredModel())
                 .desiredResourceTags(desiredTags)
                 .systemTags(SYSTEM_TAG_MAP)
                 .build();
 
         doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG))
                 .when(handler)
-                .listTags(proxy, FLEET_METRIC_ARN, logger);
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
 
-        handler.updateTags(proxy, request, FLEET_METRIC_ARN, logger);
+        handler.handleRequest(proxy, request, getContextResumedAtListTags(), logger);
 
         ArgumentCaptor<UntagResourceRequest> requestCaptor = ArgumentCaptor.forClass(UntagResourceRequest.class);
         verify(proxy).injectCredentialsAndInvokeV2(requestCaptor.capture(), any());
@@ -212,20 +457,26 @@ public class UpdateHandlerTest {
     }
 
     @Test
-    public void updateTags_ApiThrowsException_BubbleUp() {
+    public void handleRequest_TagResourceThrows_VerifyTranslation() {
         ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
                 .previousResourceState(ResourceModel.builder().build())
                 .previousResourceTags(ImmutableMap.of("doesn't", "matter"))
+                .desiredResourceState(getDesiredModel())
                 .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
                 .systemTags(SYSTEM_TAG_MAP)
                 .build();
 
+        doReturn(ImmutableSet.of())
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
         when(proxy.injectCredentialsAndInvokeV2(any(), any()))
                 .thenThrow(InvalidRequestException.builder().build());
 
-        assertThatThrownBy(() ->
-                handler.updateTags(proxy, request, FLEET_METRIC_ARN, logger))
-                .isInstanceOf(InvalidRequestException.class);
+        ProgressEvent<ResourceModel, CallbackContext> progressEvent =
+                handler.handleRequest(proxy, request, getContextResumedAtListTags(), logger);
+        assertThat(progressEvent.getStatus()).isEqualTo(OperationStatus.FAILED);
+        assertThat(progressEvent.getErrorCode()).isEqualTo(HandlerErrorCode.InvalidRequest);
+        verify(proxy).injectCredentialsAndInvokeV2(any(TagResourceRequest.class), any());
     }
 
     @Test
@@ -261,7 +512,7 @@ public class UpdateHandlerTest {
 
         doReturn(ImmutableSet.of())
                 .when(handler)
-                .listTags(proxy, FLEET_METRIC_ARN, logger);
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
 
         doReturn(UpdateFleetMetricResponse.builder().build())
                 .when(proxy)
@@ -284,6 +535,317 @@ public class UpdateHandlerTest {
         assertThat(response.getResourceModel()).isEqualTo(desiredModel);
     }
 
+    @Test
+    public void handleRequest_TaggingThrottled_CallsBackAtTagging() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+        doReturn(DescribeFleetMetricResponse.builder().metricArn(FLEET_METRIC_ARN).build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        doReturn(UpdateFleetMetricResponse.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+        doThrow(ThrottlingException.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(TagResourceRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackDelaySeconds()).isPositive();
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.TAG_RESOURCE);
+        assertThat(response.getCallbackContext().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        assertThat(response.getCallbackContext().getTagsToAttach())
+                .isEqualTo(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"));
+        assertThat(response.getCallbackContext().getTagKeysToDetach())
+                .isEqualTo(Collections.singletonList("PreviousTagKey"));
+        verify(proxy).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(TagResourceRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_IndexNotReady_WaitsAtUpdate() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+
+        doReturn(DescribeFleetMetricResponse.builder().metricArn(FLEET_METRIC_ARN).build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+        doThrow(IndexNotReadyException.builder().build())
+                .when(proxy)
+                .injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+        assertThat(response.getCallbackDelaySeconds()).isEqualTo(CallbackRetryPolicy.INDEX_WAIT_BASE_DELAY_SECONDS);
+        assertThat(response.getCallbackContext().getResumeStep()).isEqualTo(HandlerStep.UPDATE);
+        assertThat(response.getCallbackContext().getMetricArn()).isEqualTo(FLEET_METRIC_ARN);
+        assertThat(response.getCallbackContext().getIndexReadyDeadline()).isNotNull();
+        verify(handler, never()).listTags(any(), any(), any());
+    }
+
+    @Test
+    public void handleRequest_ResumedAtListTags_OnlyTagCalls() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+        doReturn(ImmutableSet.of(PREVIOUS_SDK_RESOURCE_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, getContextResumedAtListTags(), logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        verify(proxy).injectCredentialsAndInvokeV2(any(TagResourceRequest.class), any());
+        verify(proxy).injectCredentialsAndInvokeV2(any(UntagResourceRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_ResumedAtUpdate_SkipsDescribe() {
+        ResourceHandlerRequest<ResourceModel> request = ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .build();
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.UPDATE);
+        callbackContext.setRetryAttempt(2);
+        callbackContext.setMetricArn(FLEET_METRIC_ARN);
+
+        doReturn(ImmutableSet.of(DESIRED_SDK_RESOURCE_TAG))
+                .when(handler)
+                .listTags(any(ApiInvoker.class), eq(FLEET_METRIC_ARN), any(HandlerLogger.class));
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = handler.handleRequest(proxy, request, callbackContext, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        verify(proxy).injectCredentialsAndInvokeV2(any(UpdateFleetMetricRequest.class), any());
+        verify(proxy, never()).injectCredentialsAndInvokeV2(any(DescribeFleetMetricRequest.class), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipeline_VerifyRequests() {
+        ResourceHandlerRequest<ResourceModel> request = getAsyncRequest();
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0,
+                DescribeFleetMetricResponse.builder().metricName(FLEET_METRIC_NAME).metricArn(FLEET_METRIC_ARN).build(),
+                Arrays.asList(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG));
+        delegateAsyncCalls(proxy);
+
+        ProgressEvent<ResourceModel, CallbackContext> response
+                = getAsyncHandler(mock(IotClient.class), asyncClient).handleRequest(proxy, request, null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(response.getCallbackContext()).isNull();
+        assertThat(response.getResourceModel()).isEqualTo(request.getDesiredResourceState());
+
+        Map<Class<?>, IotRequest> submittedIotRequests = new HashMap<>();
+        asyncClient.getRequests().forEach(iotRequest -> submittedIotRequests.put(iotRequest.getClass(), iotRequest));
+        assertThat(asyncClient.getRequests()).hasSize(5);
+        assertThat(((UpdateFleetMetricRequest) submittedIotRequests.get(UpdateFleetMetricRequest.class))
+                .queryString()).isEqualTo("newQueryString");
+        TagResourceRequest submittedTagRequest = (TagResourceRequest) submittedIotRequests.get(TagResourceRequest.class);
+        assertThat(submittedTagRequest.tags()).isEqualTo(Collections.singletonList(DESIRED_SDK_RESOURCE_TAG));
+        assertThat(submittedTagRequest.resourceArn()).isEqualTo(FLEET_METRIC_ARN);
+        UntagResourceRequest submittedUntagRequest =
+                (UntagResourceRequest) submittedIotRequests.get(UntagResourceRequest.class);
+        assertThat(submittedUntagRequest.tagKeys()).isEqualTo(Collections.singletonList("PreviousTagKey"));
+        verify(proxy, times(5)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineDescribeFails_VerifyTranslation() {
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, null, Collections.emptyList());
+        asyncClient.failDescribeWith(ResourceNotFoundException.builder().build());
+        delegateAsyncCalls(proxy);
+
+        ProgressEvent<ResourceModel, CallbackContext> response = getAsyncHandler(mock(IotClient.class), asyncClient)
+                .handleRequest(proxy, getAsyncRequest(), null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        assertThat(asyncClient.getRequests()).hasSize(2);
+        verify(proxy, times(2)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineDescribeFails_WaitsForSpeculativeListTags() {
+        // ListTags is still in flight when Describe fails.
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0, null, Collections.emptyList());
+        asyncClient.failDescribeWith(ResourceNotFoundException.builder().build());
+        asyncClient.delayListTagsBy(100);
+        delegateAsyncCalls(proxy);
+
+        ProgressEvent<ResourceModel, CallbackContext> response = getAsyncHandler(mock(IotClient.class), asyncClient)
+                .handleRequest(proxy, getAsyncRequest(), null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.NotFound);
+        assertThat(asyncClient.getCallsInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void handleRequest_AsyncPipelineUpdateFails_TagsNotChanged() {
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(0,
+                DescribeFleetMetricResponse.builder().metricName(FLEET_METRIC_NAME).metricArn(FLEET_METRIC_ARN).build(),
+                Arrays.asList(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG));
+        asyncClient.failUpdateWith(InvalidRequestException.builder().build());
+        delegateAsyncCalls(proxy);
+
+        ProgressEvent<ResourceModel, CallbackContext> response = getAsyncHandler(mock(IotClient.class), asyncClient)
+                .handleRequest(proxy, getAsyncRequest(), null, logger);
+
+        assertThat(response.getErrorCode()).isEqualTo(HandlerErrorCode.InvalidRequest);
+        // Describe, ListTags and the failed Update, but neither TagResource nor UntagResource.
+        assertThat(asyncClient.getRequests()).hasSize(3);
+        assertThat(asyncClient.getRequests().stream().noneMatch(iotRequest ->
+                iotRequest instanceof TagResourceRequest || iotRequest instanceof UntagResourceRequest)).isTrue();
+        verify(proxy, times(3)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_AsyncPipeline_IndependentCallsInFlightTogether() {
+        // The calls take long enough that those started together are still in flight when the last one starts.
+        // Describe and ListTags go first, then Update, which needs the Describe response, then Tag and Untag,
+        // which wait for the update to succeed.
+        LatencyIotAsyncClient asyncClient = new LatencyIotAsyncClient(100,
+                DescribeFleetMetricResponse.builder().metricName(FLEET_METRIC_NAME).metricArn(FLEET_METRIC_ARN).build(),
+                Arrays.asList(PREVIOUS_SDK_RESOURCE_TAG, SDK_SYSTEM_TAG));
+        delegateAsyncCalls(proxy);
+
+        ProgressEvent<ResourceModel, CallbackContext> response = getAsyncHandler(mock(IotClient.class), asyncClient)
+                .handleRequest(proxy, getAsyncRequest(), null, logger);
+
+        assertThat(response.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+        assertThat(asyncClient.getRequests()).hasSize(5);
+        assertThat(asyncClient.getMaxCallsInFlight()).isEqualTo(2);
+        verify(proxy, times(5)).injectCredentialsAndInvokeV2Async(any(), any());
+    }
+
+    @Test
+    public void handleRequest_ThrottledAtEachStep_ResumesWithoutRepeatingCalls() {
+        DescribeFleetMetricResponse describeResponse =
+                DescribeFleetMetricResponse.builder().metricName(FLEET_METRIC_NAME).metricArn(FLEET_METRIC_ARN).build();
+        Map<HandlerStep, Class<? extends IotRequest>> stepRequests = new LinkedHashMap<>();
+        stepRequests.put(HandlerStep.DESCRIBE, DescribeFleetMetricRequest.class);
+        stepRequests.put(HandlerStep.UPDATE, UpdateFleetMetricRequest.class);
+        stepRequests.put(HandlerStep.LIST_TAGS, ListTagsForResourceRequest.class);
+        stepRequests.put(HandlerStep.TAG_RESOURCE, TagResourceRequest.class);
+        stepRequests.put(HandlerStep.UNTAG_RESOURCE, UntagResourceRequest.class);
+
+        for (Map.Entry<HandlerStep, Class<? extends IotRequest>> faultedStep : stepRequests.entrySet()) {
+            // Every call goes to the client, except the first call of the faulted step, which is throttled.
+            Map<Class<?>, Integer> callCounts = new HashMap<>();
+            AmazonWebServicesClientProxy faultingProxy = mock(AmazonWebServicesClientProxy.class);
+            when(faultingProxy.injectCredentialsAndInvokeV2(any(), any())).thenAnswer(invocation -> {
+                Object iotRequest = invocation.getArgument(0);
+                int calls = callCounts.merge(iotRequest.getClass(), 1, Integer::sum);
+                if (iotRequest.getClass() == faultedStep.getValue() && calls == 1) {
+                    throw ThrottlingException.builder().build();
+                }
+                return invocation.<Function<Object, Object>>getArgument(1).apply(iotRequest);
+            });
+            UpdateHandler faultedHandler = new UpdateHandler(new LatencyIotClient(0, describeResponse,
+                    Collections.singletonList(PREVIOUS_SDK_RESOURCE_TAG)), getRetryingConfig());
+
+            ProgressEvent<ResourceModel, CallbackContext> firstResponse =
+                    faultedHandler.handleRequest(faultingProxy, getAsyncRequest(), null, logger);
+            assertThat(firstResponse.getStatus()).isEqualTo(OperationStatus.IN_PROGRESS);
+            assertThat(firstResponse.getCallbackContext().getResumeStep()).isEqualTo(faultedStep.getKey());
+
+            ProgressEvent<ResourceModel, CallbackContext> secondResponse = faultedHandler.handleRequest(
+                    faultingProxy, getAsyncRequest(), firstResponse.getCallbackContext(), logger);
+            assertThat(secondResponse.getStatus()).isEqualTo(OperationStatus.SUCCESS);
+
+            // Each step made its call once, and the faulted step once more.
+            for (Class<? extends IotRequest> stepRequest : stepRequests.values()) {
+                assertThat(callCounts.get(stepRequest))
+                        .as("%s calls when throttled at %s", stepRequest.getSimpleName(), faultedStep.getKey())
+                        .isEqualTo(stepRequest == faultedStep.getValue() ? 2 : 1);
+            }
+        }
+    }
+
+    private CallbackContext getContextResumedAtListTags() {
+        CallbackContext callbackContext = new CallbackContext();
+        callbackContext.setResumeStep(HandlerStep.LIST_TAGS);
+        callbackContext.setRetryAttempt(1);
+        callbackContext.setMetricArn(FLEET_METRIC_ARN);
+        return callbackContext;
+    }
+
+    private ResourceHandlerRequest<ResourceModel> getAsyncRequest() {
+        return ResourceHandlerRequest.<ResourceModel>builder()
+                .previousResourceState(FLEET_METRIC_RESOURCE_MODEL)
+                .desiredResourceState(getDesiredModel())
+                .desiredResourceTags(ImmutableMap.of("DesiredTagKey", "DesiredTagValue"))
+                .systemTags(SYSTEM_TAG_MAP)
+                .awsPartition("aws")
+                .region("us-east-1")
+                .awsAccountId("123456789012")
+                .build();
+    }
+
+    private UpdateHandler getArnResolvingHandler() {
+        HandlerConfig config = new HandlerConfig();
+        config.setArnResolver(new ArnResolver(10));
+        return spy(new UpdateHandler(mock(IotClient.class), config));
+    }
+
+    private UpdateHandler getExpectedVersionHandler(ArnResolver arnResolver) {
+        HandlerConfig config = getRetryingConfig();
+        config.setExpectedVersionUpdate(true);
+        config.setArnResolver(arnResolver);
+        return spy(new UpdateHandler(mock(IotClient.class), config));
+    }
+
+    private UpdateHandler getAsyncHandler(IotClient iotClient, LatencyIotAsyncClient asyncClient) {
+        HandlerConfig config = new HandlerConfig();
+        config.setAsyncActions(EnumSet.of(Action.UPDATE));
+        config.setAsyncClient(() -> asyncClient);
+        return new UpdateHandler(iotClient, config);
+    }
+
+    private static void delegateAsyncCalls(AmazonWebServicesClientProxy proxy) {
+        when(proxy.injectCredentialsAndInvokeV2Async(any(), any()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(1)
+                        .apply(invocation.getArgument(0)));
+    }
+
+    private DescribeFleetMetricResponse getDescribeResponseMatchingDesiredModel() {
+        // Same values as getDesiredModel, with the aggregation values in a different order.
+        return DescribeFleetMetricResponse.builder()
+                .metricName(FLEET_METRIC_NAME)
+                .metricArn(FLEET_METRIC_ARN)
+                .queryString("newQueryString")
+                .aggregationType(software.amazon.awssdk.services.iot.model.AggregationType.builder()
+                        .name("Percentiles")
+                        .values(Arrays.asList("99", "90", "50"))
+                        .build())
+                .indexName(FLEET_METRIC_INDEX_NAME)
+                .period(FLEET_METRIC_PERIOD)
+                .build();
+    }
+
     private ResourceModel getDesiredModel() {
         return ResourceModel.builder()
                 .metricName(FLEET_METRIC_NAME)
@@ -297,4 +859,11 @@ public class UpdateHandlerTest {
                 .tags(MODEL_TAGS)
                 .build();
     }
+
+    // Throttling retries and the index wait are off unless configured, so the tests of the callbacks turn them on.
+    private static HandlerConfig getRetryingConfig() {
+        HandlerConfig config = new HandlerConfig();
+        config.setThrottlingRetryPolicy(new CallbackRetryPolicy(CallbackRetryPolicy.DEFAULT_MAX_ATTEMPTS, 900));
+        return config;
+    }
 }